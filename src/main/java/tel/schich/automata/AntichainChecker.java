@@ -0,0 +1,430 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import static java.util.Collections.singleton;
+import static tel.schich.automata.FiniteAutomaton.representativeSymbols;
+
+/**
+ * Language inclusion and universality checks on NFAs using antichains. Macrostates are explored lazily and
+ * breadth-first, a macrostate is dropped if an already known one subsumes it, and the search ends with the first
+ * counterexample. Subsumption is based on a forward simulation preorder, which is computed for automata of up to
+ * {@link #SIMULATION_LIMIT} states and degrades to plain set inclusion beyond that.
+ */
+final class AntichainChecker
+{
+    private static final int SIMULATION_LIMIT = 2048;
+
+    private AntichainChecker()
+    {
+    }
+
+    /**
+     * Searches for a word accepted by the left but not by the right automaton.
+     *
+     * @param left the automaton that should be included
+     * @param right the automaton that should include
+     * @return a counterexample or null if the language of left is a subset of the language of right
+     */
+    static String findInclusionCounterexample(NFA left, NFA right)
+    {
+        final char[] symbols = representativeSymbols(left, right);
+        final Indexed a = new Indexed(left, symbols);
+        final Indexed b = new Indexed(right, symbols);
+        final Simulation simulation = Simulation.compute(a, b, symbols.length);
+
+        final Map<Integer, List<BitSet>> antichain = new HashMap<>();
+        final Queue<Node> queue = new ArrayDeque<>();
+        for (int p = a.start.nextSetBit(0); p >= 0; p = a.start.nextSetBit(p + 1))
+        {
+            if (!isIncluded(p, b.start, simulation, antichain))
+            {
+                insert(p, b.start, antichain, simulation);
+                queue.offer(new Node(p, b.start, null, '\0'));
+            }
+        }
+
+        while (!queue.isEmpty())
+        {
+            final Node node = queue.poll();
+            if (a.accepting.get(node.state) && !node.macroState.intersects(b.accepting))
+            {
+                return node.word();
+            }
+
+            for (int k = 0; k < symbols.length; ++k)
+            {
+                final int[] successors = a.post[node.state][k];
+                if (successors.length == 0)
+                {
+                    continue;
+                }
+                final BitSet macroSuccessor = b.post(node.macroState, k);
+                for (final int p : successors)
+                {
+                    if (!isIncluded(p, macroSuccessor, simulation, antichain))
+                    {
+                        insert(p, macroSuccessor, antichain, simulation);
+                        queue.offer(new Node(p, macroSuccessor, node, symbols[k]));
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Searches for a word not accepted by the given automaton.
+     *
+     * @param automaton the automaton to check
+     * @return a rejected word or null if the automaton accepts every word
+     */
+    static String findRejectedWord(NFA automaton)
+    {
+        final char[] symbols = representativeSymbols(automaton, automaton);
+        final Indexed a = new Indexed(automaton, symbols);
+        final Simulation simulation = Simulation.compute(null, a, symbols.length);
+
+        final List<BitSet> antichain = new ArrayList<>();
+        final Queue<Node> queue = new ArrayDeque<>();
+        antichain.add(a.start);
+        queue.offer(new Node(-1, a.start, null, '\0'));
+
+        while (!queue.isEmpty())
+        {
+            final Node node = queue.poll();
+            if (!node.macroState.intersects(a.accepting))
+            {
+                return node.word();
+            }
+
+            for (int k = 0; k < symbols.length; ++k)
+            {
+                final BitSet successor = a.post(node.macroState, k);
+                if (!isSubsumed(successor, antichain, simulation))
+                {
+                    antichain.removeIf(known -> simulation.isSmallerOrEqual(successor, known));
+                    antichain.add(successor);
+                    queue.offer(new Node(-1, successor, node, symbols[k]));
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * A pair (p, P) can not lead to a counterexample if the language of p is included in the language of P, or if a
+     * known pair (p', P') with a larger left and a smaller right language exists, as that pair fails whenever this
+     * one does.
+     */
+    private static boolean isIncluded(int p, BitSet macroState, Simulation simulation, Map<Integer, List<BitSet>> antichain)
+    {
+        if (simulation.leftSimulatedByRight[p].intersects(macroState))
+        {
+            return true;
+        }
+        final BitSet larger = simulation.leftSimulatedByLeft[p];
+        for (int q = larger.nextSetBit(0); q >= 0; q = larger.nextSetBit(q + 1))
+        {
+            final List<BitSet> known = antichain.get(q);
+            if (known != null && isSubsumed(macroState, known, simulation))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void insert(int p, BitSet macroState, Map<Integer, List<BitSet>> antichain, Simulation simulation)
+    {
+        final List<BitSet> known = antichain.computeIfAbsent(p, k -> new ArrayList<>());
+        known.removeIf(other -> simulation.isSmallerOrEqual(macroState, other));
+        known.add(macroState);
+    }
+
+    private static boolean isSubsumed(BitSet macroState, List<BitSet> antichain, Simulation simulation)
+    {
+        for (final BitSet known : antichain)
+        {
+            if (simulation.isSmallerOrEqual(known, macroState))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An NFA with densely numbered states and precomputed, epsilon-closed successors per symbol.
+     */
+    private static final class Indexed
+    {
+        private final List<State> states = new ArrayList<>();
+        private final Map<State, Integer> ids = new HashMap<>();
+        private final BitSet accepting = new BitSet();
+        private final BitSet start;
+        private final int[][][] post;
+
+        private Indexed(NFA automaton, char[] symbols)
+        {
+            for (final State state : automaton.getStates())
+            {
+                idOf(state);
+            }
+            this.start = toBitSet(automaton.getStartStates());
+
+            final List<int[][]> post = new ArrayList<>();
+            for (int i = 0; i < states.size(); ++i)
+            {
+                final State state = states.get(i);
+                if (automaton.isAccepting(state))
+                {
+                    accepting.set(i);
+                }
+                final int[][] row = new int[symbols.length][];
+                for (int k = 0; k < symbols.length; ++k)
+                {
+                    row[k] = toArray(automaton.transition(singleton(state), symbols[k]));
+                }
+                post.add(row);
+            }
+            this.post = post.toArray(new int[0][][]);
+        }
+
+        private int idOf(State state)
+        {
+            return ids.computeIfAbsent(state, s -> {
+                states.add(s);
+                return states.size() - 1;
+            });
+        }
+
+        private BitSet toBitSet(Set<State> states)
+        {
+            final BitSet set = new BitSet();
+            for (final State state : states)
+            {
+                set.set(idOf(state));
+            }
+            return set;
+        }
+
+        private int[] toArray(Set<State> states)
+        {
+            final int[] array = new int[states.size()];
+            int i = 0;
+            for (final State state : states)
+            {
+                array[i++] = idOf(state);
+            }
+            return array;
+        }
+
+        private BitSet post(BitSet macroState, int symbol)
+        {
+            final BitSet successor = new BitSet();
+            for (int i = macroState.nextSetBit(0); i >= 0; i = macroState.nextSetBit(i + 1))
+            {
+                for (final int j : post[i][symbol])
+                {
+                    successor.set(j);
+                }
+            }
+            return successor;
+        }
+
+        private int size()
+        {
+            return states.size();
+        }
+    }
+
+    /**
+     * A forward simulation preorder on the disjoint union of the states of two automata: q is simulated by r if r
+     * accepts whenever q does and every move of q can be answered by a move of r to a state simulating q's target.
+     * A simulated state accepts a subset of the language of the simulating state.
+     */
+    private static final class Simulation
+    {
+        private final BitSet[] leftSimulatedByLeft;
+        private final BitSet[] leftSimulatedByRight;
+        private final BitSet[] rightSimulatedByRight;
+
+        private Simulation(BitSet[] leftSimulatedByLeft, BitSet[] leftSimulatedByRight, BitSet[] rightSimulatedByRight)
+        {
+            this.leftSimulatedByLeft = leftSimulatedByLeft;
+            this.leftSimulatedByRight = leftSimulatedByRight;
+            this.rightSimulatedByRight = rightSimulatedByRight;
+        }
+
+        /**
+         * Checks whether every state of the smaller macrostate is simulated by some state of the larger one, which
+         * implies language inclusion.
+         */
+        private boolean isSmallerOrEqual(BitSet smaller, BitSet larger)
+        {
+            for (int i = smaller.nextSetBit(0); i >= 0; i = smaller.nextSetBit(i + 1))
+            {
+                if (!rightSimulatedByRight[i].intersects(larger))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static Simulation compute(Indexed left, Indexed right, int symbols)
+        {
+            final int leftSize = left == null ? 0 : left.size();
+            final int size = leftSize + right.size();
+
+            final BitSet[] relation = new BitSet[size];
+            if (size > SIMULATION_LIMIT)
+            {
+                // identity only, which makes the subsumption plain set inclusion
+                for (int i = 0; i < size; ++i)
+                {
+                    relation[i] = new BitSet();
+                    relation[i].set(i);
+                }
+            }
+            else
+            {
+                final BitSet accepting = new BitSet();
+                final int[][][] post = new int[size][][];
+                for (int i = 0; i < size; ++i)
+                {
+                    final boolean isLeft = i < leftSize;
+                    final Indexed automaton = isLeft ? left : right;
+                    final int local = isLeft ? i : i - leftSize;
+                    final int offset = isLeft ? 0 : leftSize;
+                    accepting.set(i, automaton.accepting.get(local));
+                    post[i] = new int[symbols][];
+                    for (int k = 0; k < symbols; ++k)
+                    {
+                        final int[] successors = automaton.post[local][k];
+                        post[i][k] = new int[successors.length];
+                        for (int j = 0; j < successors.length; ++j)
+                        {
+                            post[i][k][j] = successors[j] + offset;
+                        }
+                    }
+                }
+
+                for (int i = 0; i < size; ++i)
+                {
+                    relation[i] = new BitSet(size);
+                    if (accepting.get(i))
+                    {
+                        relation[i].or(accepting);
+                    }
+                    else
+                    {
+                        relation[i].set(0, size);
+                    }
+                }
+
+                boolean changed;
+                do
+                {
+                    changed = false;
+                    for (int i = 0; i < size; ++i)
+                    {
+                        final BitSet simulators = relation[i];
+                        for (int j = simulators.nextSetBit(0); j >= 0; j = simulators.nextSetBit(j + 1))
+                        {
+                            if (i != j && !canAnswer(post[i], post[j], relation))
+                            {
+                                simulators.clear(j);
+                                changed = true;
+                            }
+                        }
+                    }
+                }
+                while (changed);
+            }
+
+            final BitSet[] leftByLeft = new BitSet[leftSize];
+            final BitSet[] leftByRight = new BitSet[leftSize];
+            for (int i = 0; i < leftSize; ++i)
+            {
+                leftByLeft[i] = relation[i].get(0, leftSize);
+                leftByRight[i] = relation[i].get(leftSize, size);
+            }
+            final BitSet[] rightByRight = new BitSet[right.size()];
+            for (int i = 0; i < rightByRight.length; ++i)
+            {
+                rightByRight[i] = relation[leftSize + i].get(leftSize, size);
+            }
+            return new Simulation(leftByLeft, leftByRight, rightByRight);
+        }
+
+        private static boolean canAnswer(int[][] moves, int[][] answers, BitSet[] relation)
+        {
+            for (int k = 0; k < moves.length; ++k)
+            {
+                for (final int target : moves[k])
+                {
+                    boolean answered = false;
+                    for (final int answer : answers[k])
+                    {
+                        if (relation[target].get(answer))
+                        {
+                            answered = true;
+                            break;
+                        }
+                    }
+                    if (!answered)
+                    {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Node extends WitnessStep
+    {
+        private final int state;
+        private final BitSet macroState;
+
+        private Node(int state, BitSet macroState, Node previous, char with)
+        {
+            super(previous, with);
+            this.state = state;
+            this.macroState = macroState;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tel.schich.automata.transition.CharacterTransition;
+import tel.schich.automata.transition.PlannedTransition;
+import tel.schich.automata.transition.RangeTransition;
+import tel.schich.automata.transition.SpontaneousTransition;
+import tel.schich.automata.transition.Transition;
+import tel.schich.automata.transition.WildcardTransition;
+import tel.schich.automata.util.CharRange;
+
+/**
+ * A mutable automaton under construction. States are dense int ids and edges are kept in primitive arrays, so
+ * composing fragments in place costs only the states and edges it adds, while every operation on
+ * {@link FiniteAutomaton} copies both of its operands. The result is turned into immutable states and transitions
+ * once by {@link #freeze()}.
+ * <p>
+ * The fragment operations follow Thompson's construction: a {@link Fragment} has a single start and a single accepting
+ * state and is connected to other fragments by spontaneous edges. The start state of a fragment has no incoming and its
+ * accepting state no outgoing edges, which keeps the compositions local. A fragment must only be used once in further
+ * compositions, because composing changes the states it consists of.
+ * <p>
+ * Builders are not thread-safe.
+ */
+public final class AutomatonBuilder
+{
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final byte RANGE = 0;
+    private static final byte WILDCARD = 1;
+    private static final byte SPONTANEOUS = 2;
+
+    private int stateCount = 0;
+    private int start = -1;
+    private final BitSet accepting = new BitSet();
+
+    private int edgeCount = 0;
+    private byte[] kinds = new byte[INITIAL_CAPACITY];
+    private int[] origins = new int[INITIAL_CAPACITY];
+    private int[] destinations = new int[INITIAL_CAPACITY];
+    private char[] firsts = new char[INITIAL_CAPACITY];
+    private char[] lasts = new char[INITIAL_CAPACITY];
+
+    public int getStateCount()
+    {
+        return stateCount;
+    }
+
+    public int getEdgeCount()
+    {
+        return edgeCount;
+    }
+
+    public int addState()
+    {
+        return stateCount++;
+    }
+
+    public void setStart(int state)
+    {
+        checkState(state);
+        this.start = state;
+    }
+
+    public void setAccepting(int state, boolean accepting)
+    {
+        checkState(state);
+        this.accepting.set(state, accepting);
+    }
+
+    public void addCharacter(int origin, char c, int destination)
+    {
+        addEdge(RANGE, origin, c, c, destination);
+    }
+
+    public void addRange(int origin, char first, char last, int destination)
+    {
+        if (first > last)
+        {
+            throw new IllegalArgumentException("Empty range: " + first + " - " + last);
+        }
+        addEdge(RANGE, origin, first, last, destination);
+    }
+
+    public void addWildcard(int origin, int destination)
+    {
+        addEdge(WILDCARD, origin, Character.MIN_VALUE, Character.MAX_VALUE, destination);
+    }
+
+    public void addSpontaneous(int origin, int destination)
+    {
+        addEdge(SPONTANEOUS, origin, Character.MIN_VALUE, Character.MAX_VALUE, destination);
+    }
+
+    private void addEdge(byte kind, int origin, char first, char last, int destination)
+    {
+        checkState(origin);
+        checkState(destination);
+        if (edgeCount == kinds.length)
+        {
+            final int capacity = kinds.length * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            origins = Arrays.copyOf(origins, capacity);
+            destinations = Arrays.copyOf(destinations, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            lasts = Arrays.copyOf(lasts, capacity);
+        }
+        kinds[edgeCount] = kind;
+        origins[edgeCount] = origin;
+        destinations[edgeCount] = destination;
+        firsts[edgeCount] = first;
+        lasts[edgeCount] = last;
+        ++edgeCount;
+    }
+
+    private void checkState(int state)
+    {
+        if (state < 0 || state >= stateCount)
+        {
+            throw new IllegalArgumentException("Unknown state: " + state);
+        }
+    }
+
+    /**
+     * Creates a fragment matching only the empty word.
+     */
+    public Fragment epsilon()
+    {
+        final Fragment fragment = new Fragment(addState(), addState());
+        addSpontaneous(fragment.start, fragment.accept);
+        return fragment;
+    }
+
+    public Fragment character(char c)
+    {
+        final Fragment fragment = new Fragment(addState(), addState());
+        addCharacter(fragment.start, c, fragment.accept);
+        return fragment;
+    }
+
+    /**
+     * Creates a fragment matching a single character out of the given ranges, no ranges result in a fragment that
+     * doesn't match anything.
+     */
+    public Fragment ranges(Collection<CharRange> ranges)
+    {
+        final Fragment fragment = new Fragment(addState(), addState());
+        for (final CharRange range : ranges)
+        {
+            addRange(fragment.start, range.getFirst(), range.getLast(), fragment.accept);
+        }
+        return fragment;
+    }
+
+    public Fragment wildcard()
+    {
+        final Fragment fragment = new Fragment(addState(), addState());
+        addWildcard(fragment.start, fragment.accept);
+        return fragment;
+    }
+
+    public Fragment concat(Fragment first, Fragment second)
+    {
+        addSpontaneous(first.accept, second.start);
+        return new Fragment(first.start, second.accept);
+    }
+
+    public Fragment union(Fragment left, Fragment right)
+    {
+        final Fragment fragment = new Fragment(addState(), addState());
+        addSpontaneous(fragment.start, left.start);
+        addSpontaneous(fragment.start, right.start);
+        addSpontaneous(left.accept, fragment.accept);
+        addSpontaneous(right.accept, fragment.accept);
+        return fragment;
+    }
+
+    public Fragment optional(Fragment fragment)
+    {
+        // a spontaneous edge parallel to an edge of the fragment would be equal to it as a transition
+        final Fragment optional = new Fragment(addState(), addState());
+        addSpontaneous(optional.start, fragment.start);
+        addSpontaneous(fragment.accept, optional.accept);
+        addSpontaneous(optional.start, optional.accept);
+        return optional;
+    }
+
+    public Fragment plus(Fragment fragment)
+    {
+        final Fragment plus = new Fragment(addState(), addState());
+        addSpontaneous(plus.start, fragment.start);
+        addSpontaneous(fragment.accept, fragment.start);
+        addSpontaneous(fragment.accept, plus.accept);
+        return plus;
+    }
+
+    public Fragment star(Fragment fragment)
+    {
+        return optional(plus(fragment));
+    }
+
+    /**
+     * Adds the states and transitions of an existing automaton to this builder.
+     *
+     * @param automaton the automaton to add
+     * @return a fragment with new start and accepting states, which are connected spontaneously to the start state
+     *         and from the accepting states of the automaton
+     */
+    public Fragment include(FiniteAutomaton<? extends Transition> automaton)
+    {
+        final Map<State, Integer> ids = new HashMap<>();
+        for (final State state : automaton.getStates())
+        {
+            ids.put(state, addState());
+        }
+        for (final Transition transition : automaton.getTransitions())
+        {
+            final int origin = idOf(ids, transition.getOrigin());
+            final int destination = idOf(ids, transition.getDestination());
+            if (transition instanceof RangeTransition)
+            {
+                final RangeTransition range = (RangeTransition)transition;
+                addRange(origin, range.getFirst(), range.getLast(), destination);
+            }
+            else if (transition instanceof WildcardTransition)
+            {
+                addWildcard(origin, destination);
+            }
+            else if (transition instanceof SpontaneousTransition)
+            {
+                addSpontaneous(origin, destination);
+            }
+            else
+            {
+                throw new UnsupportedOperationException("Unknown transition type!");
+            }
+        }
+        final Fragment fragment = new Fragment(addState(), addState());
+        addSpontaneous(fragment.start, idOf(ids, automaton.getStartState()));
+        for (final State state : automaton.getAcceptingStates())
+        {
+            addSpontaneous(idOf(ids, state), fragment.accept);
+        }
+        return fragment;
+    }
+
+    private int idOf(Map<State, Integer> ids, State state)
+    {
+        // transitions may lead to states outside the state set, like the error state of a DFA
+        Integer id = ids.get(state);
+        if (id == null)
+        {
+            id = addState();
+            ids.put(state, id);
+        }
+        return id;
+    }
+
+    /**
+     * Uses the given fragment as the whole automaton: its start state becomes the start state and its accepting state
+     * the only accepting state.
+     *
+     * @param fragment the fragment to freeze
+     * @return the NFA with all states of this builder
+     */
+    public NFA freeze(Fragment fragment)
+    {
+        setStart(fragment.start);
+        accepting.clear();
+        setAccepting(fragment.accept, true);
+        return freeze();
+    }
+
+    /**
+     * Creates the immutable automaton of this builder. The builder can still be modified afterwards, without affecting
+     * the result.
+     *
+     * @return the NFA with all states and edges of this builder
+     */
+    public NFA freeze()
+    {
+        final State[] states = createStates();
+        final Set<Transition> transitions = new HashSet<>(edgeCount * 4 / 3 + 1);
+        for (int i = 0; i < edgeCount; ++i)
+        {
+            transitions.add(createTransition(states, i));
+        }
+        return new NFA(asSet(states), transitions, states[start], acceptingStates(states));
+    }
+
+    /**
+     * Creates the immutable automaton of this builder as a DFA without determinizing it.
+     *
+     * @return the DFA with all states and edges of this builder
+     * @throws IllegalStateException if there are spontaneous edges, more than one wildcard edge for a state or
+     *                               overlapping character ranges for a state
+     */
+    public DFA freezeDeterministic()
+    {
+        final State[] states = createStates();
+        final List<List<CharRange>> ranges = new ArrayList<>(stateCount);
+        for (int i = 0; i < stateCount; ++i)
+        {
+            ranges.add(new ArrayList<>());
+        }
+        final BitSet hasWildcard = new BitSet(stateCount);
+        final Set<PlannedTransition> transitions = new HashSet<>(edgeCount * 4 / 3 + 1);
+        for (int i = 0; i < edgeCount; ++i)
+        {
+            switch (kinds[i])
+            {
+                case SPONTANEOUS:
+                    throw new IllegalStateException("Spontaneous edge from state " + origins[i]);
+                case WILDCARD:
+                    if (hasWildcard.get(origins[i]))
+                    {
+                        throw new IllegalStateException("More than one wildcard edge from state " + origins[i]);
+                    }
+                    hasWildcard.set(origins[i]);
+                    break;
+                default:
+                    ranges.get(origins[i]).add(new CharRange(firsts[i], lasts[i]));
+            }
+            transitions.add((PlannedTransition)createTransition(states, i));
+        }
+        for (int i = 0; i < stateCount; ++i)
+        {
+            if (size(ranges.get(i)) != size(CharRange.normalize(ranges.get(i))))
+            {
+                throw new IllegalStateException("Overlapping character ranges from state " + i);
+            }
+        }
+        return new DFA(asSet(states), transitions, states[start], acceptingStates(states));
+    }
+
+    private static long size(List<CharRange> ranges)
+    {
+        long size = 0;
+        for (final CharRange range : ranges)
+        {
+            size += range.size();
+        }
+        return size;
+    }
+
+    private State[] createStates()
+    {
+        if (start < 0)
+        {
+            throw new IllegalStateException("No start state!");
+        }
+        final State[] states = new State[stateCount];
+        for (int i = 0; i < stateCount; ++i)
+        {
+            states[i] = new State();
+        }
+        return states;
+    }
+
+    private Transition createTransition(State[] states, int edge)
+    {
+        final State origin = states[origins[edge]];
+        final State destination = states[destinations[edge]];
+        switch (kinds[edge])
+        {
+            case WILDCARD:
+                return new WildcardTransition(origin, destination);
+            case SPONTANEOUS:
+                return new SpontaneousTransition(origin, destination);
+            default:
+                if (firsts[edge] == lasts[edge])
+                {
+                    return new CharacterTransition(origin, firsts[edge], destination);
+                }
+                return new RangeTransition(origin, firsts[edge], lasts[edge], destination);
+        }
+    }
+
+    private static Set<State> asSet(State[] states)
+    {
+        final Set<State> set = new HashSet<>(states.length * 4 / 3 + 1);
+        set.addAll(Arrays.asList(states));
+        return set;
+    }
+
+    private Set<State> acceptingStates(State[] states)
+    {
+        final Set<State> acceptingStates = new HashSet<>();
+        for (int i = accepting.nextSetBit(0); i >= 0; i = accepting.nextSetBit(i + 1))
+        {
+            acceptingStates.add(states[i]);
+        }
+        return acceptingStates;
+    }
+
+    /**
+     * A part of the automaton under construction with a single start and a single accepting state.
+     */
+    public static final class Fragment
+    {
+        private final int start;
+        private final int accept;
+
+        private Fragment(int start, int accept)
+        {
+            this.start = start;
+            this.accept = accept;
+        }
+
+        public int getStart()
+        {
+            return start;
+        }
+
+        public int getAccept()
+        {
+            return accept;
+        }
+    }
+}
@@ -22,17 +22,23 @@
  */
 package tel.schich.automata;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
 import java.util.function.BiPredicate;
 
-import tel.schich.automata.transition.CharacterTransition;
 import tel.schich.automata.transition.PlannedTransition;
+import tel.schich.automata.transition.RangeTransition;
 import tel.schich.automata.transition.Transition;
 import tel.schich.automata.transition.WildcardTransition;
+import tel.schich.automata.util.CharRange;
 import tel.schich.automata.util.OrderedPair;
 import tel.schich.automata.util.Pair;
 
@@ -50,29 +56,79 @@ public class DFA extends FiniteAutomaton<PlannedTransition>
         EMPTY = new DFA(singleton(a), singleton(new WildcardTransition(a, a)), a, emptySet());
     }
 
-    private final Map<State, TransitionMap> transitionLookup;
+    /**
+     * The number of the error state in {@link #transition(int, char)}, which has no outgoing transitions and is
+     * never accepting.
+     */
+    public static final int ERROR_INDEX = -1;
+
+    private final TransitionMap[] transitionLookup;
+    private final int[][] rangeTargets;
+    private final int[] wildcardTargets;
+    private volatile DFA trimmed;
 
     public DFA(Set<State> states, Set<PlannedTransition> transitions, State start, Set<State> acceptingStates)
     {
         super(states, transitions, start, acceptingStates);
-        this.transitionLookup = calculateTransitionLookup(transitions);
+        final int stateCount = getStateCount();
+        this.transitionLookup = new TransitionMap[stateCount];
+        this.rangeTargets = new int[stateCount][];
+        this.wildcardTargets = new int[stateCount];
+        Arrays.fill(this.wildcardTargets, ERROR_INDEX);
+
+        for (Map.Entry<State, Set<PlannedTransition>> entry : groupByState(transitions).entrySet())
+        {
+            final int index = indexOf(entry.getKey());
+            final TransitionMap map = TransitionMap.build(entry.getValue());
+            final int[] targets = new int[map.getRangeCount()];
+            for (int i = 0; i < targets.length; ++i)
+            {
+                targets[i] = indexOf(map.getRange(i).getDestination());
+            }
+            this.transitionLookup[index] = map;
+            this.rangeTargets[index] = targets;
+            if (map.getWildcard() != null)
+            {
+                this.wildcardTargets[index] = indexOf(map.getWildcard().getDestination());
+            }
+        }
     }
 
-    private static Map<State, TransitionMap> calculateTransitionLookup(Set<PlannedTransition> transitions)
+    private TransitionMap lookup(State s)
     {
-        final Map<State, TransitionMap> transitionLookup = new HashMap<>();
+        final int index = indexOf(s);
+        return index < 0 ? null : this.transitionLookup[index];
+    }
 
-        for (Map.Entry<State, Set<PlannedTransition>> entry : groupByState(transitions).entrySet())
+    /**
+     * Reads a character in the dense numbering of this automaton, without any hashing.
+     *
+     * @param state the number of the current state, see {@link #indexOf(State)}
+     * @param c the character to read
+     * @return the number of the next state or {@link #ERROR_INDEX}
+     */
+    public int transition(int state, char c)
+    {
+        if (state == ERROR_INDEX)
         {
-            transitionLookup.put(entry.getKey(), TransitionMap.build(entry.getValue()));
+            return ERROR_INDEX;
         }
-
-        return transitionLookup;
+        final TransitionMap map = this.transitionLookup[state];
+        if (map == null)
+        {
+            return ERROR_INDEX;
+        }
+        final int range = map.indexOf(c);
+        if (range < 0)
+        {
+            return this.wildcardTargets[state];
+        }
+        return this.rangeTargets[state][range];
     }
 
     public PlannedTransition getTransitionFor(State s, char c)
     {
-        TransitionMap transitionMap = this.transitionLookup.get(s);
+        TransitionMap transitionMap = lookup(s);
         if (transitionMap == null)
         {
             return null;
@@ -92,7 +148,7 @@ public class DFA extends FiniteAutomaton<PlannedTransition>
 
     public State transitionExplicit(State s, char c)
     {
-        TransitionMap transitionMap = this.transitionLookup.get(s);
+        TransitionMap transitionMap = lookup(s);
         if (transitionMap == null)
         {
             return ErrorState.ERROR;
@@ -107,7 +163,7 @@ public class DFA extends FiniteAutomaton<PlannedTransition>
 
     public State getByWildcard(State s)
     {
-        final TransitionMap transitionMap = this.transitionLookup.get(s);
+        final TransitionMap transitionMap = lookup(s);
         if (transitionMap == null)
         {
             return ErrorState.ERROR;
@@ -126,6 +182,40 @@ public class DFA extends FiniteAutomaton<PlannedTransition>
         return this;
     }
 
+    @Override
+    public DFA trim()
+    {
+        DFA result = this.trimmed;
+        if (result == null)
+        {
+            final Trimming<PlannedTransition> trimming = trimUselessStates();
+            if (trimming == null)
+            {
+                result = this;
+            }
+            else
+            {
+                result = new DFA(trimming.states, trimming.transitions, getStartState(), trimming.accepting);
+                result.trimmed = result;
+            }
+            this.trimmed = result;
+        }
+        return result;
+    }
+
+    @Override
+    public DFA copy()
+    {
+        final Map<State, State> fresh = createFreshStates();
+        final Set<PlannedTransition> transitions = new HashSet<>();
+        for (final PlannedTransition transition : getTransitions())
+        {
+            transitions.add(transition.withStates(fresh.get(transition.getOrigin()), fresh.get(transition.getDestination())));
+        }
+        return new DFA(new HashSet<>(fresh.values()), transitions, fresh.get(getStartState()),
+                       mapStates(getAcceptingStates(), fresh));
+    }
+
     @Override
     public NFA toNFA()
     {
@@ -185,66 +275,197 @@ public class DFA extends FiniteAutomaton<PlannedTransition>
     }
 
 
+    /**
+     * Builds the product automaton of this and the given automaton. Only the state pairs reachable from the pair of
+     * start states are constructed. Missing transitions lead into the implicit error state, which takes the role of
+     * the catch-all state {@link #complete()} would add. Pairs involving an error state that can never accept are
+     * not constructed, unless one of them is needed as a dead state to shadow a wildcard.
+     *
+     * @param o the other automaton
+     * @param shouldAccept decides whether a pair of states accepts, given whether the left and right states accept
+     * @return the product automaton
+     */
     public DFA combine(FiniteAutomaton<? extends Transition> o, BiPredicate<Boolean, Boolean> shouldAccept)
     {
-        final DFA self = toDFA().complete();
-        final DFA other = o.toDFA().complete();
-        final Map<Pair<State, State>, State> stateMap = new HashMap<>();
-        final Set<State> accepting = new HashSet<>();
+        final DFA self = toDFA().trim();
+        final DFA other = o.toDFA().trim();
+        final ProductBuilder builder = new ProductBuilder(self, other, shouldAccept);
 
-        Set<Character> alphabet = new HashSet<>(self.getExplicitAlphabet());
-        alphabet.addAll(other.getExplicitAlphabet());
+        List<CharRange> ranges = new ArrayList<>(self.getExplicitRanges());
+        ranges.addAll(other.getExplicitRanges());
+        List<CharRange> alphabet = CharRange.partition(ranges);
 
-        for (final State selfState : self.getStates())
+        final State start = builder.stateFor(self.getStartState(), other.getStartState());
+        while (!builder.queue.isEmpty())
         {
-            for (final State otherState : other.getStates())
+            final ProductState ab = builder.queue.poll();
+            final State a = ab.getLeft();
+            final State b = ab.getRight();
+
+            // check against wildcard
+            final State wildcardNext = builder.successor(a.transition(self), b.transition(other));
+            if (wildcardNext != null)
+            {
+                builder.transitions.add(new WildcardTransition(ab, wildcardNext));
+            }
+
+            // check against alphabet
+            for (final CharRange range : alphabet)
             {
-                final State newState = new NamedState(selfState.getLabel() + "|" + otherState.getLabel());
-                stateMap.put(pair(selfState, otherState), newState);
-                if (shouldAccept.test(self.isAccepting(selfState), other.isAccepting(otherState)))
+                State abNext = builder.successor(a.transition(self, range.getFirst()), b.transition(other, range.getFirst()));
+                // if there is already a wildcard between these states, another explicit transition is useless
+                if (abNext == wildcardNext)
                 {
-                    accepting.add(newState);
+                    continue;
                 }
+                if (abNext == null)
+                {
+                    abNext = builder.deadState();
+                }
+                builder.transitions.add(RangeTransition.of(ab, range, abNext));
             }
         }
-        final State start = stateMap.get(pair(self.getStartState(), other.getStartState()));
 
-        Set<PlannedTransition> transitions = new HashSet<>();
-        Set<OrderedPair<State, State>> wildcardTransitions = new HashSet<>();
-        for (final Entry<Pair<State, State>, State> e : stateMap.entrySet())
+        return new DFA(builder.states, builder.transitions, start, builder.accepting).trim();
+    }
+
+    /**
+     * Searches the product with the given automaton for an accepting pair of states, without constructing the
+     * product: the pairs are explored depth-first, exactly as {@link #combine(FiniteAutomaton, BiPredicate)} would
+     * reach them, and the search ends at the first pair the given predicate accepts.
+     *
+     * @param o the other automaton
+     * @param shouldAccept decides whether a pair of states accepts, given whether the left and right states accept
+     * @return a word accepted by the product or null if the product is empty
+     */
+    public String findProductWord(FiniteAutomaton<? extends Transition> o, BiPredicate<Boolean, Boolean> shouldAccept)
+    {
+        final DFA other = o.toDFA();
+        final char[] symbols = representativeSymbols(this, other);
+        final boolean errorPairAccepts = shouldAccept.test(false, false);
+        final boolean leftErrorMayAccept = errorPairAccepts || shouldAccept.test(false, true);
+        final boolean rightErrorMayAccept = errorPairAccepts || shouldAccept.test(true, false);
+
+        final Map<State, Set<State>> visited = new HashMap<>();
+        final Deque<ProductStep> stack = new ArrayDeque<>();
+        visited.computeIfAbsent(getStartState(), k -> new HashSet<>()).add(other.getStartState());
+        stack.push(new ProductStep(getStartState(), other.getStartState(), null, '\0'));
+
+        while (!stack.isEmpty())
         {
-            final State a = e.getKey().getLeft();
-            final State b = e.getKey().getRight();
-            final State ab = e.getValue();
+            final ProductStep step = stack.pop();
+            if (shouldAccept.test(isAccepting(step.left), other.isAccepting(step.right)))
+            {
+                return step.word();
+            }
+
+            for (final char c : symbols)
+            {
+                final State a = step.left.transition(this, c);
+                final State b = step.right.transition(other, c);
+                if (a == ErrorState.ERROR && (b == ErrorState.ERROR ? !errorPairAccepts : !leftErrorMayAccept))
+                {
+                    continue;
+                }
+                if (b == ErrorState.ERROR && a != ErrorState.ERROR && !rightErrorMayAccept)
+                {
+                    continue;
+                }
+                if (visited.computeIfAbsent(a, k -> new HashSet<>()).add(b))
+                {
+                    stack.push(new ProductStep(a, b, step, c));
+                }
+            }
+        }
 
-            /// check against wildcard
-            State aNext = a.transition(self);
-            State bNext = b.transition(other);
-            State abNext = stateMap.get(pair(aNext, bNext));
-            transitions.add(new WildcardTransition(ab, abNext));
-            wildcardTransitions.add(pair(ab, abNext));
+        return null;
+    }
 
-            // check against alphabet
-            for (final char c : alphabet)
+    private static final class ProductStep extends WitnessStep
+    {
+        private final State left;
+        private final State right;
+
+        private ProductStep(State left, State right, ProductStep previous, char with)
+        {
+            super(previous, with);
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private static final class ProductBuilder
+    {
+        private final DFA left;
+        private final DFA right;
+        private final BiPredicate<Boolean, Boolean> shouldAccept;
+        private final boolean leftErrorMayAccept;
+        private final boolean rightErrorMayAccept;
+        private final boolean errorPairAccepts;
+
+        private final Map<Pair<State, State>, ProductState> stateMap = new HashMap<>();
+        private final Queue<ProductState> queue = new ArrayDeque<>();
+        private final Set<State> states = new HashSet<>();
+        private final Set<State> accepting = new HashSet<>();
+        private final Set<PlannedTransition> transitions = new HashSet<>();
+        private State deadState;
+
+        private ProductBuilder(DFA left, DFA right, BiPredicate<Boolean, Boolean> shouldAccept)
+        {
+            this.left = left;
+            this.right = right;
+            this.shouldAccept = shouldAccept;
+            this.errorPairAccepts = shouldAccept.test(false, false);
+            this.leftErrorMayAccept = errorPairAccepts || shouldAccept.test(false, true);
+            this.rightErrorMayAccept = errorPairAccepts || shouldAccept.test(true, false);
+        }
+
+        private State successor(State a, State b)
+        {
+            // once a side is in the error state it stays there, which may rule out acceptance for good
+            if (a == ErrorState.ERROR && (b == ErrorState.ERROR ? !errorPairAccepts : !leftErrorMayAccept))
+            {
+                return null;
+            }
+            if (b == ErrorState.ERROR && a != ErrorState.ERROR && !rightErrorMayAccept)
             {
-                aNext = a.transition(self, c);
-                bNext = b.transition(other, c);
-                abNext = stateMap.get(pair(aNext, bNext));
+                return null;
+            }
+            return stateFor(a, b);
+        }
 
-                // if there is already a wildcard between these states, another explicit transition is useless
-                if (!wildcardTransitions.contains(pair(ab, abNext)))
+        private State stateFor(State a, State b)
+        {
+            final OrderedPair<State, State> key = pair(a, b);
+            ProductState state = stateMap.get(key);
+            if (state == null)
+            {
+                state = new ProductState(a, b);
+                stateMap.put(key, state);
+                states.add(state);
+                queue.offer(state);
+                if (shouldAccept.test(left.isAccepting(a), right.isAccepting(b)))
                 {
-                    transitions.add(new CharacterTransition(ab, c, abNext));
+                    accepting.add(state);
                 }
             }
+            return state;
         }
 
-        return new DFA(new HashSet<>(stateMap.values()), transitions, start, accepting);
+        private State deadState()
+        {
+            if (deadState == null)
+            {
+                deadState = new ProductState(ErrorState.ERROR, ErrorState.ERROR);
+                states.add(deadState);
+            }
+            return deadState;
+        }
     }
 
     public DFA difference(FiniteAutomaton<? extends Transition> other)
     {
-        return this.intersectWith(other.complement());
+        return this.without(other);
     }
 
     public DFA union(FiniteAutomaton<? extends Transition> other)
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata;
+
+/**
+ * Thrown when a determinization exceeds its budget of states or time. It carries the statistics of the partial
+ * construction at the moment it was aborted.
+ */
+public class DeterminizationBudgetException extends RuntimeException
+{
+    private final int maximumStates;
+    private final long maximumMillis;
+    private final int states;
+    private final int transitions;
+    private final int pending;
+    private final long elapsedMillis;
+
+    public DeterminizationBudgetException(int maximumStates, long maximumMillis, int states, int transitions, int pending, long elapsedMillis)
+    {
+        super("Determinization exceeded its budget of " + maximumStates + " states and " + maximumMillis + " ms after "
+              + states + " states, " + transitions + " transitions and " + elapsedMillis + " ms with " + pending
+              + " states left to explore");
+        this.maximumStates = maximumStates;
+        this.maximumMillis = maximumMillis;
+        this.states = states;
+        this.transitions = transitions;
+        this.pending = pending;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public int getMaximumStates()
+    {
+        return maximumStates;
+    }
+
+    public long getMaximumMillis()
+    {
+        return maximumMillis;
+    }
+
+    /**
+     * @return the number of DFA states created before the construction was aborted
+     */
+    public int getStates()
+    {
+        return states;
+    }
+
+    /**
+     * @return the number of DFA transitions created before the construction was aborted
+     */
+    public int getTransitions()
+    {
+        return transitions;
+    }
+
+    /**
+     * @return the number of created states whose successors were not explored yet
+     */
+    public int getPending()
+    {
+        return pending;
+    }
+
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+import static tel.schich.automata.FiniteAutomaton.representativeSymbols;
+
+/**
+ * Checks two DFAs for equivalence using the union-find algorithm of Hopcroft and Karp. Both automata are walked in
+ * lockstep from their start states, pairs of states that have already been merged are not explored again and the
+ * search stops at the first pair that disagrees on acceptance.
+ */
+final class EquivalenceChecker
+{
+    private final DFA left;
+    private final DFA right;
+
+    private final Map<State, Integer> leftIds = new HashMap<>();
+    private final Map<State, Integer> rightIds = new HashMap<>();
+    private int[] parents = new int[16];
+    private int size = 0;
+
+    EquivalenceChecker(DFA left, DFA right)
+    {
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Searches for a word accepted by exactly one of the automata.
+     *
+     * @return the distinguishing word or null if both automata accept the same language
+     */
+    String findDistinguishingWord()
+    {
+        final char[] symbols = representativeSymbols(left, right);
+
+        final Queue<Step> queue = new ArrayDeque<>();
+        union(leftId(left.getStartState()), rightId(right.getStartState()));
+        queue.offer(new Step(left.getStartState(), right.getStartState(), null, '\0'));
+
+        while (!queue.isEmpty())
+        {
+            final Step step = queue.poll();
+            if (left.isAccepting(step.left) != right.isAccepting(step.right))
+            {
+                return step.word();
+            }
+
+            for (final char c : symbols)
+            {
+                final State l = step.left.transition(left, c);
+                final State r = step.right.transition(right, c);
+                if (union(leftId(l), rightId(r)))
+                {
+                    queue.offer(new Step(l, r, step, c));
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private int leftId(State s)
+    {
+        return leftIds.computeIfAbsent(s, k -> newId());
+    }
+
+    private int rightId(State s)
+    {
+        return rightIds.computeIfAbsent(s, k -> newId());
+    }
+
+    private int newId()
+    {
+        if (size == parents.length)
+        {
+            int[] grown = new int[parents.length * 2];
+            System.arraycopy(parents, 0, grown, 0, size);
+            parents = grown;
+        }
+        parents[size] = size;
+        return size++;
+    }
+
+    private int find(int id)
+    {
+        int root = id;
+        while (parents[root] != root)
+        {
+            root = parents[root];
+        }
+        // path compression
+        while (parents[id] != root)
+        {
+            final int next = parents[id];
+            parents[id] = root;
+            id = next;
+        }
+        return root;
+    }
+
+    private boolean union(int a, int b)
+    {
+        final int rootA = find(a);
+        final int rootB = find(b);
+        if (rootA == rootB)
+        {
+            return false;
+        }
+        parents[rootB] = rootA;
+        return true;
+    }
+
+    private static final class Step extends WitnessStep
+    {
+        private final State left;
+        private final State right;
+
+        private Step(State left, State right, Step previous, char with)
+        {
+            super(previous, with);
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
@@ -22,19 +22,26 @@
  */
 package tel.schich.automata;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.BiPredicate;
 
 import tel.schich.automata.transition.CharacterTransition;
 import tel.schich.automata.transition.PlannedTransition;
+import tel.schich.automata.transition.RangeTransition;
 import tel.schich.automata.transition.SpontaneousTransition;
 import tel.schich.automata.transition.Transition;
 import tel.schich.automata.transition.WildcardTransition;
+import tel.schich.automata.util.CharRange;
 import tel.schich.automata.util.OrderedPair;
 import tel.schich.automata.util.UnorderedPair;
 
@@ -44,17 +51,33 @@ import static java.util.Collections.unmodifiableSet;
 import static tel.schich.automata.util.OrderedPair.pair;
 import static tel.schich.automata.util.UnorderedPair.unorderedPair;
 import static tel.schich.automata.util.Util.asSet;
-import static tel.schich.automata.util.Util.fixPointIterate;
 import static tel.schich.automata.util.Util.unmodifiableCopy;
 
 public abstract class FiniteAutomaton<T extends Transition>
 {
+    /**
+     * States are looked up in an array indexed by their id as long as the ids span at most this many times the
+     * number of states, otherwise in an identity map.
+     */
+    private static final long MAXIMUM_ID_SPREAD = 4;
+
     private final Set<State> states;
     private final Set<T> transitions;
     private final Set<State> acceptingStates;
     private final State start;
 
+    private final State[] indexedStates;
+    // the dense numbers by state id minus the smallest id, or null if the ids are too sparse for an array
+    private final int[] indicesById;
+    private final int smallestId;
+    private final Map<State, Integer> sparseIndices;
+    private final int errorIndex;
+    private final BitSet acceptingIndices;
+
+    private volatile int[][] successorIndices;
+    private volatile int[][] predecessorIndices;
     private volatile Set<State> reachableStates;
+    private volatile Set<State> coReachableStates;
 
     protected FiniteAutomaton(Set<State> states, Set<T> transitions, State start, Set<State> acceptingStates)
     {
@@ -62,23 +85,176 @@ public abstract class FiniteAutomaton<T extends Transition>
         this.transitions = unmodifiableCopy(transitions);
         this.start = start;
         this.acceptingStates = unmodifiableCopy(acceptingStates);
+
+        final Map<State, Integer> numbers = numberStates(start, this.states, this.transitions);
+        this.indexedStates = new State[numbers.size()];
+        for (Map.Entry<State, Integer> entry : numbers.entrySet())
+        {
+            indexedStates[entry.getValue()] = entry.getKey();
+        }
+        this.errorIndex = numbers.getOrDefault(ErrorState.ERROR, -1);
+
+        // the shared error state is older than all others, so it is looked up separately
+        int smallest = Integer.MAX_VALUE;
+        int largest = Integer.MIN_VALUE;
+        for (State state : indexedStates)
+        {
+            if (state != ErrorState.ERROR)
+            {
+                smallest = Math.min(smallest, state.getId());
+                largest = Math.max(largest, state.getId());
+            }
+        }
+        if (smallest <= largest && (long)largest - smallest < MAXIMUM_ID_SPREAD * indexedStates.length)
+        {
+            this.smallestId = smallest;
+            this.indicesById = new int[largest - smallest + 1];
+            Arrays.fill(indicesById, -1);
+            for (int index = 0; index < indexedStates.length; ++index)
+            {
+                if (indexedStates[index] != ErrorState.ERROR)
+                {
+                    indicesById[indexedStates[index].getId() - smallest] = index;
+                }
+            }
+            this.sparseIndices = null;
+        }
+        else
+        {
+            this.smallestId = 0;
+            this.indicesById = null;
+            this.sparseIndices = numbers;
+        }
+
+        this.acceptingIndices = new BitSet(indexedStates.length);
+        for (State state : this.acceptingStates)
+        {
+            if (state != ErrorState.ERROR)
+            {
+                acceptingIndices.set(numbers.get(state));
+            }
+        }
     }
 
-    private Set<State> findReachableStates()
+    /**
+     * Numbers the states densely, starting with the start state at 0. States that are only referred to by transitions
+     * get numbers as well, so every state the automaton can be in has one.
+     */
+    private static Map<State, Integer> numberStates(State start, Set<State> states, Set<? extends Transition> transitions)
     {
-        return fixPointIterate(singleton(getStartState()), in -> {
-            Set<State> out = new HashSet<>();
+        final Map<State, Integer> indices = new IdentityHashMap<>(states.size());
+        indices.put(start, 0);
+        for (State state : states)
+        {
+            indices.putIfAbsent(state, indices.size());
+        }
+        for (Transition transition : transitions)
+        {
+            indices.putIfAbsent(transition.getOrigin(), indices.size());
+            indices.putIfAbsent(transition.getDestination(), indices.size());
+        }
+        return indices;
+    }
 
-            for (Transition t : getTransitions())
+    /**
+     * Builds the successor and predecessor lists of all states in the dense numbering, so searches don't need to scan
+     * all transitions for every state.
+     */
+    private void indexAdjacency()
+    {
+        final int count = getStateCount();
+        final int[] outDegree = new int[count];
+        final int[] inDegree = new int[count];
+        final int[] origins = new int[transitions.size()];
+        final int[] destinations = new int[transitions.size()];
+        int edge = 0;
+        for (Transition transition : transitions)
+        {
+            origins[edge] = indexOf(transition.getOrigin());
+            destinations[edge] = indexOf(transition.getDestination());
+            ++outDegree[origins[edge]];
+            ++inDegree[destinations[edge]];
+            ++edge;
+        }
+
+        final int[][] successors = new int[count][];
+        final int[][] predecessors = new int[count][];
+        for (int i = 0; i < count; ++i)
+        {
+            successors[i] = new int[outDegree[i]];
+            predecessors[i] = new int[inDegree[i]];
+        }
+        for (int i = 0; i < origins.length; ++i)
+        {
+            successors[origins[i]][--outDegree[origins[i]]] = destinations[i];
+            predecessors[destinations[i]][--inDegree[destinations[i]]] = origins[i];
+        }
+        this.predecessorIndices = predecessors;
+        this.successorIndices = successors;
+    }
+
+    private int[][] successorIndices()
+    {
+        if (this.successorIndices == null)
+        {
+            indexAdjacency();
+        }
+        return this.successorIndices;
+    }
+
+    private int[][] predecessorIndices()
+    {
+        if (this.predecessorIndices == null)
+        {
+            indexAdjacency();
+        }
+        return this.predecessorIndices;
+    }
+
+    private static BitSet search(int[][] adjacency, BitSet from)
+    {
+        final BitSet seen = (BitSet)from.clone();
+        final int[] queue = new int[adjacency.length];
+        int head = 0;
+        int tail = 0;
+        for (int i = from.nextSetBit(0); i >= 0; i = from.nextSetBit(i + 1))
+        {
+            queue[tail++] = i;
+        }
+        while (head < tail)
+        {
+            for (final int next : adjacency[queue[head++]])
             {
-                if (t.getOrigin() == in)
+                if (!seen.get(next))
                 {
-                    out.add(t.getDestination());
+                    seen.set(next);
+                    queue[tail++] = next;
                 }
             }
+        }
+        return seen;
+    }
 
-            return out;
-        });
+    private BitSet findReachableIndices()
+    {
+        final BitSet start = new BitSet(getStateCount());
+        start.set(0);
+        return search(successorIndices(), start);
+    }
+
+    private BitSet findCoReachableIndices()
+    {
+        return search(predecessorIndices(), acceptingIndices);
+    }
+
+    private Set<State> toStates(BitSet indices)
+    {
+        final Set<State> states = new HashSet<>(indices.cardinality() * 4 / 3 + 1);
+        for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1))
+        {
+            states.add(getState(i));
+        }
+        return states;
     }
 
     public Set<State> getStates()
@@ -101,6 +277,54 @@ public abstract class FiniteAutomaton<T extends Transition>
         return this.start;
     }
 
+    /**
+     * Returns the number of states in the dense numbering of this automaton. The numbers are 0 to count - 1, the start
+     * state is 0.
+     *
+     * @return the number of numbered states
+     */
+    public int getStateCount()
+    {
+        return this.indexedStates.length;
+    }
+
+    /**
+     * Returns the state of this automaton with the given number.
+     *
+     * @param index the number of the state
+     * @return the state
+     */
+    public State getState(int index)
+    {
+        return this.indexedStates[index];
+    }
+
+    /**
+     * Returns the number of the given state in the dense numbering of this automaton.
+     *
+     * @param state the state
+     * @return the number of the state or -1 if the state is not part of this automaton
+     */
+    public int indexOf(State state)
+    {
+        if (state == ErrorState.ERROR)
+        {
+            return this.errorIndex;
+        }
+        if (this.indicesById == null)
+        {
+            final Integer index = this.sparseIndices.get(state);
+            return index == null ? -1 : index;
+        }
+        final int offset = state.getId() - this.smallestId;
+        return offset < 0 || offset >= this.indicesById.length ? -1 : this.indicesById[offset];
+    }
+
+    public boolean isAccepting(int index)
+    {
+        return this.acceptingIndices.get(index);
+    }
+
     public Set<Character> getExplicitAlphabet()
     {
         Set<Character> chars = new HashSet<>();
@@ -116,6 +340,53 @@ public abstract class FiniteAutomaton<T extends Transition>
         return chars;
     }
 
+    /**
+     * Splits the character ranges of all explicit transitions into disjoint intervals, see
+     * {@link CharRange#partition(java.util.Collection)}.
+     *
+     * @return the sorted elementary intervals of the explicit alphabet
+     */
+    public List<CharRange> getExplicitRanges()
+    {
+        List<CharRange> ranges = new ArrayList<>();
+
+        for (Transition transition : transitions)
+        {
+            if (transition instanceof RangeTransition)
+            {
+                ranges.add(((RangeTransition)transition).getRange());
+            }
+        }
+
+        return CharRange.partition(ranges);
+    }
+
+    /**
+     * Calculates one representative character per class of characters both automata treat identically: one for
+     * each disjoint interval of the explicit alphabets and one for all other characters, if there are any.
+     */
+    static char[] representativeSymbols(FiniteAutomaton<?> left, FiniteAutomaton<?> right)
+    {
+        final List<CharRange> ranges = new ArrayList<>(left.getExplicitRanges());
+        if (right != left)
+        {
+            ranges.addAll(right.getExplicitRanges());
+        }
+        final List<CharRange> partition = CharRange.partition(ranges);
+        final int other = CharRange.firstUncovered(partition);
+
+        final char[] symbols = new char[partition.size() + (other < 0 ? 0 : 1)];
+        for (int i = 0; i < partition.size(); ++i)
+        {
+            symbols[i] = partition.get(i).getFirst();
+        }
+        if (other >= 0)
+        {
+            symbols[partition.size()] = (char)other;
+        }
+        return symbols;
+    }
+
     public NFA concat(FiniteAutomaton<? extends Transition> other)
     {
         final Set<State> states = mergeStates(this, other);
@@ -194,16 +465,7 @@ public abstract class FiniteAutomaton<T extends Transition>
         {
             throw new IllegalArgumentException("Can't repeat negative amount!");
         }
-        if (n == 0)
-        {
-            return NFA.EPSILON;
-        }
-        NFA automaton = this.toNFA();
-        for (int i = 1; i < n; ++i)
-        {
-            automaton = automaton.concat(this);
-        }
-        return automaton;
+        return repetitionChain(n, n);
     }
 
     public NFA repeatMin(int min)
@@ -216,7 +478,7 @@ public abstract class FiniteAutomaton<T extends Transition>
         {
             return kleenePlus();
         }
-        return repeat(min - 1).concat(this.kleenePlus());
+        return repetitionChain(min, -1);
     }
 
     public NFA repeatMinMax(int min, int max)
@@ -225,20 +487,74 @@ public abstract class FiniteAutomaton<T extends Transition>
         {
             throw new IllegalArgumentException("max must be >= min");
         }
+        return repetitionChain(min, max);
+    }
 
-        NFA automaton = repeat(min);
-        if (min == max)
+    /**
+     * Builds a chain of copies of this automaton in a single pass, each copy has its own states. The accepting states
+     * of every copy lead to the start of the next one and, once the minimum is reached, to the single accepting state
+     * of the chain, so the optional copies nest instead of each of them being skippable on its own. Without a maximum,
+     * the last copy loops.
+     *
+     * @param min the minimum number of copies to pass
+     * @param max the maximum number of copies to pass or -1 for no limit
+     * @return the chain
+     */
+    private NFA repetitionChain(int min, int max)
+    {
+        final int copies = max < 0 ? Math.max(min, 1) : max;
+        final Set<State> states = new HashSet<>();
+        final Set<Transition> transitions = new HashSet<>();
+
+        final State start = new State();
+        final State accept = new State();
+        states.add(start);
+        states.add(accept);
+        if (min == 0)
         {
-            return automaton;
+            transitions.add(new SpontaneousTransition(start, accept));
         }
 
-        NFA maybe = this.or(NFA.EPSILON);
-        for (int i = min; i < max; ++i)
+        Set<State> previousAccepting = singleton(start);
+        for (int i = 1; i <= copies; ++i)
         {
-            automaton = automaton.concat(maybe);
+            // the first copy can keep the original states
+            final Map<State, State> mapping = i == 1 ? null : createFreshStates();
+            final State copyStart = i == 1 ? getStartState() : mapping.get(getStartState());
+            final Set<State> copyAccepting = i == 1 ? getAcceptingStates() : mapStates(getAcceptingStates(), mapping);
+            if (i == 1)
+            {
+                states.addAll(getStates());
+                transitions.addAll(getTransitions());
+            }
+            else
+            {
+                states.addAll(mapping.values());
+                for (final Transition transition : getTransitions())
+                {
+                    transitions.add(transition.withStates(mapping.get(transition.getOrigin()), mapping.get(transition.getDestination())));
+                }
+            }
+
+            for (final State state : previousAccepting)
+            {
+                transitions.add(new SpontaneousTransition(state, copyStart));
+            }
+            for (final State state : copyAccepting)
+            {
+                if (i >= min)
+                {
+                    transitions.add(new SpontaneousTransition(state, accept));
+                }
+                if (max < 0 && i == copies)
+                {
+                    transitions.add(new SpontaneousTransition(state, copyStart));
+                }
+            }
+            previousAccepting = copyAccepting;
         }
 
-        return automaton;
+        return new NFA(states, transitions, start, singleton(accept));
     }
 
     public boolean isAccepting(State s)
@@ -252,13 +568,96 @@ public abstract class FiniteAutomaton<T extends Transition>
             synchronized (this) {
                 if (this.reachableStates == null) {
                     // no copy, trusted source
-                    this.reachableStates = unmodifiableSet(findReachableStates());
+                    this.reachableStates = unmodifiableSet(toStates(findReachableIndices()));
                 }
             }
         }
         return this.reachableStates;
     }
 
+    /**
+     * Returns the states from which an accepting state can be reached, the accepting states included.
+     *
+     * @return the co-reachable states
+     */
+    public Set<State> getCoReachableStates()
+    {
+        if (this.coReachableStates == null) {
+            synchronized (this) {
+                if (this.coReachableStates == null) {
+                    // no copy, trusted source
+                    this.coReachableStates = unmodifiableSet(toStates(findCoReachableIndices()));
+                }
+            }
+        }
+        return this.coReachableStates;
+    }
+
+    /**
+     * Removes all states that are not on a path from the start state to an accepting state, together with their
+     * transitions. The start state is always kept. Explicit transitions into removed states are only kept if their
+     * origin has a wildcard transition that would otherwise apply to their characters, they lead into a single new
+     * dead state instead.
+     *
+     * @return the trimmed automaton or this automaton if all of its states are useful
+     */
+    public abstract FiniteAutomaton<T> trim();
+
+    /**
+     * Collects the parts of this automaton that are kept by {@link #trim()}.
+     *
+     * @return the kept parts or null if all states are useful
+     */
+    @SuppressWarnings("unchecked")
+    Trimming<T> trimUselessStates()
+    {
+        final BitSet useful = findReachableIndices();
+        useful.and(findCoReachableIndices());
+        useful.set(0);
+        if (useful.cardinality() == getStateCount())
+        {
+            return null;
+        }
+
+        final BitSet keepsWildcard = new BitSet(getStateCount());
+        for (T transition : transitions)
+        {
+            if (transition instanceof WildcardTransition && useful.get(indexOf(transition.getDestination())))
+            {
+                keepsWildcard.set(indexOf(transition.getOrigin()));
+            }
+        }
+
+        final Set<State> states = toStates(useful);
+        final Set<T> kept = new HashSet<>();
+        State dead = null;
+        for (T transition : transitions)
+        {
+            final int origin = indexOf(transition.getOrigin());
+            if (!useful.get(origin))
+            {
+                continue;
+            }
+            if (useful.get(indexOf(transition.getDestination())))
+            {
+                kept.add(transition);
+            }
+            else if (transition instanceof RangeTransition && keepsWildcard.get(origin))
+            {
+                if (dead == null)
+                {
+                    dead = new State();
+                    states.add(dead);
+                }
+                kept.add((T)transition.withStates(transition.getOrigin(), dead));
+            }
+        }
+
+        final Set<State> accepting = new HashSet<>(acceptingStates);
+        accepting.retainAll(states);
+        return new Trimming<>(states, kept, accepting);
+    }
+
     public DFA minimize()
     {
         if (isEmpty())
@@ -266,15 +665,16 @@ public abstract class FiniteAutomaton<T extends Transition>
             return DFA.EMPTY;
         }
 
-        DFA self = toDFA();
+        // trimming first keeps dead states out of the quadratic pair table
+        DFA self = toDFA().trim();
         final Set<State> states = new HashSet<>(self.getReachableStates());
-        final Set<PlannedTransition> transitions = new CopyOnWriteArraySet<>();
-        State start = self.getStartState();
+        final List<PlannedTransition> kept = new ArrayList<>();
+        final State start = self.getStartState();
         final Set<State> accepting = new HashSet<>();
 
         for (PlannedTransition transition : self.getTransitions()) {
             if (states.contains(transition.getOrigin()) && states.contains(transition.getDestination())) {
-                transitions.add(transition);
+                kept.add(transition);
             }
         }
 
@@ -308,45 +708,37 @@ public abstract class FiniteAutomaton<T extends Transition>
         }
 
         // iteratively calculate all separable states
-        final Set<Character> alphabet = getExplicitAlphabet();
+        final List<CharRange> alphabet = self.getExplicitRanges();
+        final Set<State> live = self.getCoReachableStates();
         boolean changed;
         do
         {
             changed = false;
             for (UnorderedPair<State, State> pair : statePairs)
             {
+                if (separableStates.contains(pair))
+                {
+                    continue;
+                }
                 final State l = pair.getLeft();
                 final State r = pair.getRight();
 
                 // check for explicit alphabet
-                for (Character c : alphabet)
+                boolean separable = false;
+                for (CharRange range : alphabet)
                 {
-                    final State p = l.transition(self, c);
-                    final State q = r.transition(self, c);
-                    if (p == ErrorState.ERROR || q == ErrorState.ERROR)
-                    {
-                        continue;
-                    }
-                    if (separableStates.contains(unorderedPair(p, q)) && !separableStates.contains(pair))
+                    if (isSeparable(l.transition(self, range.getFirst()), r.transition(self, range.getFirst()), separableStates, live))
                     {
-                        separableStates.add(pair);
-                        changed = true;
+                        separable = true;
                         break;
                     }
                 }
 
-                if (!changed)
+                // check for wildcard transition
+                if (separable || isSeparable(l.transition(self), r.transition(self), separableStates, live))
                 {
-                    // check for wildcard transition
-                    final State p = l.transition(self);
-                    final State q = r.transition(self);
-                    if (p == ErrorState.ERROR || q == ErrorState.ERROR) {
-                        continue;
-                    }
-                    if (separableStates.contains(unorderedPair(p, q)) && !separableStates.contains(pair)) {
-                        separableStates.add(pair);
-                        changed = true;
-                    }
+                    separableStates.add(pair);
+                    changed = true;
                 }
             }
         }
@@ -355,46 +747,56 @@ public abstract class FiniteAutomaton<T extends Transition>
         // drop the separable pairs in order to leave just the "useless" pairs
         statePairs.removeAll(separableStates);
 
-        for (UnorderedPair<State, State> pair : statePairs)
+        // every state is replaced by the representative of its class of equivalent states, the start state represents
+        // its own class. Merging pair by pair would depend on the iteration order once three states are equivalent.
+        final Map<State, State> representatives = new HashMap<>();
+        final List<State> candidates = new ArrayList<>(states);
+        candidates.remove(start);
+        candidates.add(0, start);
+        for (State p : candidates)
         {
-            final State p = pair.getLeft();
-            final State q = pair.getRight();
-
-            states.remove(q);
-            accepting.remove(q);
-            if (start == q)
+            if (!representatives.containsKey(p))
             {
-                start = p;
-            }
-
-            // TODO refactor this to not mutate during the iteration
-            for (PlannedTransition t : transitions)
-            {
-                State origin = t.getOrigin();
-                State destination = t.getDestination();
-                if (origin.equals(q))
+                representatives.put(p, p);
+                for (State q : states)
                 {
-                    origin = p;
-                }
-                if (destination.equals(q))
-                {
-                    destination = p;
-                }
-
-                if (origin != t.getOrigin() || destination != t.getDestination())
-                {
-                    transitions.remove(t);
-                    if (t instanceof CharacterTransition)
-                    {
-                        transitions.add(new CharacterTransition(origin, ((CharacterTransition)t).getWith(), destination));
-                    }
-                    else if (t instanceof WildcardTransition)
+                    if (q != p && statePairs.contains(unorderedPair(p, q)))
                     {
-                        transitions.add(new WildcardTransition(origin, destination));
+                        representatives.put(q, p);
                     }
                 }
             }
         }
+        states.removeIf(s -> representatives.get(s) != s);
+        accepting.removeIf(s -> representatives.get(s) != s);
+
+        // equivalent states have equivalent transitions, so only those of the representatives are kept
+        final Set<PlannedTransition> transitions = new HashSet<>();
+        for (PlannedTransition t : kept)
+        {
+            final State origin = t.getOrigin();
+            if (representatives.get(origin) != origin)
+            {
+                continue;
+            }
+            final State destination = representatives.get(t.getDestination());
+            if (destination == t.getDestination())
+            {
+                transitions.add(t);
+            }
+            else if (t instanceof CharacterTransition)
+            {
+                transitions.add(new CharacterTransition(origin, ((CharacterTransition)t).getWith(), destination));
+            }
+            else if (t instanceof RangeTransition)
+            {
+                transitions.add(new RangeTransition(origin, ((RangeTransition)t).getRange(), destination));
+            }
+            else if (t instanceof WildcardTransition)
+            {
+                transitions.add(new WildcardTransition(origin, destination));
+            }
+        }
 
         Set<OrderedPair<State, State>> wildcards = new HashSet<>();
         Set<PlannedTransition> remove = new HashSet<>();
@@ -415,6 +817,24 @@ public abstract class FiniteAutomaton<T extends Transition>
         return new DFA(states, transitions, start, accepting);
     }
 
+    private static boolean isSeparable(State p, State q, Set<UnorderedPair<State, State>> separableStates, Set<State> live)
+    {
+        if (p == q)
+        {
+            return false;
+        }
+        // a missing transition leads into the implicit error state, which is only equivalent to dead states
+        if (p == ErrorState.ERROR)
+        {
+            return live.contains(q);
+        }
+        if (q == ErrorState.ERROR)
+        {
+            return live.contains(p);
+        }
+        return separableStates.contains(unorderedPair(p, q));
+    }
+
     public DFA complement()
     {
         final DFA complete = toDFA().complete();
@@ -426,6 +846,43 @@ public abstract class FiniteAutomaton<T extends Transition>
 
     public abstract DFA toDFA();
 
+    /**
+     * Creates an automaton with the same structure but fresh states, so it can be combined with this automaton or
+     * other copies of it without states colliding.
+     *
+     * @return the copy
+     */
+    public abstract FiniteAutomaton<T> copy();
+
+    /**
+     * Maps every state of this automaton, including all transition endpoints, to a new state.
+     */
+    protected Map<State, State> createFreshStates()
+    {
+        final Map<State, State> fresh = new HashMap<>();
+        for (final State state : getStates())
+        {
+            fresh.put(state, new State());
+        }
+        for (final Transition transition : getTransitions())
+        {
+            fresh.computeIfAbsent(transition.getOrigin(), s -> new State());
+            fresh.computeIfAbsent(transition.getDestination(), s -> new State());
+        }
+        fresh.computeIfAbsent(getStartState(), s -> new State());
+        return fresh;
+    }
+
+    protected static Set<State> mapStates(Set<State> states, Map<State, State> mapping)
+    {
+        final Set<State> out = new HashSet<>();
+        for (final State state : states)
+        {
+            out.add(mapping.get(state));
+        }
+        return out;
+    }
+
     public abstract NFA toNFA();
 
     public boolean isEmpty()
@@ -435,10 +892,65 @@ public abstract class FiniteAutomaton<T extends Transition>
 
     public boolean isEquivalentTo(FiniteAutomaton<? extends Transition> o)
     {
-        final DFA self = toDFA();
-        final DFA other = o.toDFA();
+        return findDistinguishingWord(o) == null;
+    }
 
-        return self.difference(other).isEmpty() && other.difference(self).isEmpty();
+    /**
+     * Searches for a word that is accepted by exactly one of this and the given automaton. Both DFAs are walked in
+     * lockstep (Hopcroft-Karp), without constructing any product or complement automaton.
+     *
+     * @param o the automaton to compare with
+     * @return a distinguishing word or null if both automata are equivalent
+     */
+    public String findDistinguishingWord(FiniteAutomaton<? extends Transition> o)
+    {
+        return new EquivalenceChecker(toDFA(), o.toDFA()).findDistinguishingWord();
+    }
+
+    /**
+     * Checks whether this and the given automaton accept at least one common word. The product is searched
+     * depth-first and the search stops at the first accepting pair, see
+     * {@link DFA#findProductWord(FiniteAutomaton, BiPredicate)}.
+     *
+     * @param o the other automaton
+     * @return true if the intersection of both languages is not empty
+     */
+    public boolean intersects(FiniteAutomaton<? extends Transition> o)
+    {
+        return findCommonWord(o) != null;
+    }
+
+    /**
+     * Searches for a word accepted by both this and the given automaton.
+     *
+     * @param o the other automaton
+     * @return a common word or null if there is none
+     */
+    public String findCommonWord(FiniteAutomaton<? extends Transition> o)
+    {
+        return toDFA().findProductWord(o, (a, b) -> a && b);
+    }
+
+    /**
+     * Checks whether every word accepted by this automaton is also accepted by the given one.
+     *
+     * @param o the automaton that should include this one
+     * @return true if the language of this automaton is a subset of the language of the given one
+     */
+    public boolean isSubsetOf(FiniteAutomaton<? extends Transition> o)
+    {
+        return findWordNotIn(o) == null;
+    }
+
+    /**
+     * Searches for a word accepted by this automaton, but not by the given one.
+     *
+     * @param o the other automaton
+     * @return a counterexample to inclusion or null if there is none
+     */
+    public String findWordNotIn(FiniteAutomaton<? extends Transition> o)
+    {
+        return toDFA().findProductWord(o, (a, b) -> a && !b);
     }
 
     @Override
@@ -557,4 +1069,21 @@ public abstract class FiniteAutomaton<T extends Transition>
             return new NFA(newStates, newTransitions, start, previousAccepting);
         }
     }
+
+    /**
+     * The states, transitions and accepting states an automaton keeps when it is trimmed.
+     */
+    static final class Trimming<T extends Transition>
+    {
+        final Set<State> states;
+        final Set<T> transitions;
+        final Set<State> accepting;
+
+        private Trimming(Set<State> states, Set<T> transitions, Set<State> accepting)
+        {
+            this.states = states;
+            this.transitions = transitions;
+            this.accepting = accepting;
+        }
+    }
 }
@@ -22,22 +22,34 @@
  */
 package tel.schich.automata;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import tel.schich.automata.transition.CharacterTransition;
 import tel.schich.automata.transition.PlannedTransition;
+import tel.schich.automata.transition.RangeTransition;
 import tel.schich.automata.transition.SpontaneousTransition;
 import tel.schich.automata.transition.Transition;
 import tel.schich.automata.transition.WildcardTransition;
+import tel.schich.automata.util.CharRange;
 import tel.schich.automata.util.Pair;
 
+import static java.util.Collections.emptyList;
 import static java.util.Collections.emptySet;
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
 import static tel.schich.automata.util.OrderedPair.pair;
 import static tel.schich.automata.util.Util.asSet;
 import static tel.schich.automata.util.Util.fixPointIterate;
@@ -60,29 +72,44 @@ public class NFA extends FiniteAutomaton<Transition>
         return epsilonClosure(asSet(getStartState()));
     }
 
-    private final Map<State, TransitionMultiMap> transitionLookup;
+    private final TransitionMultiMap[] transitionLookup;
+    private final boolean hasSpontaneousTransitions;
+    private volatile NFA epsilonFree;
+    private volatile IndexedRow[] indexedRows;
+    private volatile NFA trimmed;
 
     public NFA(Set<State> states, Set<Transition> transitions, State start, Set<State> acceptingStates)
     {
         super(states, transitions, start, acceptingStates);
-        this.transitionLookup = calculateTransitionLookup(transitions);
+        this.transitionLookup = new TransitionMultiMap[getStateCount()];
+        for (Map.Entry<State, Set<Transition>> entry : groupByState(transitions).entrySet())
+        {
+            transitionLookup[indexOf(entry.getKey())] = TransitionMultiMap.build(entry.getValue());
+        }
+        this.hasSpontaneousTransitions = hasSpontaneousTransitions(transitionLookup);
     }
 
-    private static Map<State, TransitionMultiMap> calculateTransitionLookup(Set<Transition> transitions)
+    private static boolean hasSpontaneousTransitions(TransitionMultiMap[] transitionLookup)
     {
-        Map<State, TransitionMultiMap> transitionLookup = new HashMap<>();
-
-        for (Map.Entry<State, Set<Transition>> entry : groupByState(transitions).entrySet())
+        for (TransitionMultiMap map : transitionLookup)
         {
-            transitionLookup.put(entry.getKey(), TransitionMultiMap.build(entry.getValue()));
+            if (map != null && !map.getSpontaneousTransitions().isEmpty())
+            {
+                return true;
+            }
         }
+        return false;
+    }
 
-        return transitionLookup;
+    private TransitionMultiMap lookup(State s)
+    {
+        final int index = indexOf(s);
+        return index < 0 ? null : this.transitionLookup[index];
     }
 
     public Set<SpontaneousTransition> getSpontaneousTransitionsFor(State s)
     {
-        TransitionMultiMap lookup = this.transitionLookup.get(s);
+        TransitionMultiMap lookup = lookup(s);
         if (lookup == null)
         {
             return emptySet();
@@ -92,7 +119,7 @@ public class NFA extends FiniteAutomaton<Transition>
 
     public Set<PlannedTransition> getPlannedTransitionsFor(State s, char c)
     {
-        TransitionMultiMap lookup = this.transitionLookup.get(s);
+        TransitionMultiMap lookup = lookup(s);
         if (lookup == null)
         {
             return emptySet();
@@ -102,7 +129,7 @@ public class NFA extends FiniteAutomaton<Transition>
 
     public Set<Character> getExpectedCharsFor(State s)
     {
-        TransitionMultiMap lookup = this.transitionLookup.get(s);
+        TransitionMultiMap lookup = lookup(s);
         if (lookup == null)
         {
             return emptySet();
@@ -110,38 +137,43 @@ public class NFA extends FiniteAutomaton<Transition>
         return lookup.getAlphabet();
     }
 
-    public Set<State> epsilonClosure(Set<State> states)
+    public List<CharRange> getExpectedRangesFor(State s)
     {
-        return fixPointIterate(states, in -> {
-            Set<State> newStates = new HashSet<>();
-            for (SpontaneousTransition transition : getSpontaneousTransitionsFor(in))
-            {
-                newStates.add(transition.getDestination());
-            }
-            return newStates;
-        });
+        TransitionMultiMap lookup = lookup(s);
+        if (lookup == null)
+        {
+            return emptyList();
+        }
+        return lookup.getRanges();
     }
 
-    private Set<Character> alphabetFor(Set<State> states)
+    private List<CharRange> partitionFor(Set<State> states)
     {
-        Set<Character> chars = new HashSet<>();
+        List<CharRange> ranges = new ArrayList<>();
 
         for (State state : states)
         {
-            chars.addAll(getExpectedCharsFor(state));
+            ranges.addAll(getExpectedRangesFor(state));
         }
 
-        return chars;
+        return CharRange.partition(ranges);
     }
 
-    public Set<State> transition(Set<State> states, char c)
+    public Set<State> epsilonClosure(Set<State> states)
     {
-        return epsilonClosure(read(states, c));
+        return fixPointIterate(states, in -> {
+            Set<State> newStates = new HashSet<>();
+            for (SpontaneousTransition transition : getSpontaneousTransitionsFor(in))
+            {
+                newStates.add(transition.getDestination());
+            }
+            return newStates;
+        });
     }
 
-    private Set<State> transitionExplicit(Set<State> states, char c)
+    public Set<State> transition(Set<State> states, char c)
     {
-        return epsilonClosure(readExplicit(states, c));
+        return epsilonClosure(read(states, c));
     }
 
     private Set<State> transition(Set<State> states)
@@ -155,7 +187,7 @@ public class NFA extends FiniteAutomaton<Transition>
 
         for (State state : states)
         {
-            final TransitionMultiMap map = this.transitionLookup.get(state);
+            final TransitionMultiMap map = lookup(state);
             if (map == null)
             {
                 continue;
@@ -184,24 +216,96 @@ public class NFA extends FiniteAutomaton<Transition>
         return out;
     }
 
-    private Set<State> readExplicit(Set<State> states, char c)
+    /**
+     * Returns the numbers of the start states including their epsilon closure, see {@link #getStartStates()}.
+     *
+     * @return the numbers of the start states
+     */
+    public BitSet getStartIndices()
     {
-        Set<State> out = new HashSet<>();
+        return toIndices(getStartStates());
+    }
 
-        for (State state : states)
+    /**
+     * Reads a character in the dense numbering of this automaton, like {@link #transition(Set, char)}. The rows of all
+     * states are indexed on first use, with their targets already closed under spontaneous transitions, so later reads
+     * neither hash nor create sets.
+     *
+     * @param states the numbers of the current states
+     * @param c the character to read
+     * @return the numbers of the next states
+     */
+    public BitSet transition(BitSet states, char c)
+    {
+        final IndexedRow[] rows = indexedRows();
+        final BitSet out = new BitSet(rows.length);
+        for (int i = states.nextSetBit(0); i >= 0; i = states.nextSetBit(i + 1))
         {
-            final TransitionMultiMap map = this.transitionLookup.get(state);
-            if (map == null)
+            rows[i].read(c, out);
+        }
+        return out;
+    }
+
+    public boolean isAccepting(BitSet states)
+    {
+        for (int i = states.nextSetBit(0); i >= 0; i = states.nextSetBit(i + 1))
+        {
+            if (isAccepting(i))
             {
-                continue;
+                return true;
             }
-            for (final PlannedTransition transition : map.getTransitionsFor(c, emptySet()))
+        }
+        return false;
+    }
+
+    private IndexedRow[] indexedRows()
+    {
+        IndexedRow[] rows = this.indexedRows;
+        if (rows == null)
+        {
+            rows = new IndexedRow[getStateCount()];
+            for (int i = 0; i < rows.length; ++i)
             {
-                out.add(transition.getDestination());
+                rows[i] = indexRow(this.transitionLookup[i]);
             }
+            this.indexedRows = rows;
         }
+        return rows;
+    }
 
-        return out;
+    private IndexedRow indexRow(TransitionMultiMap map)
+    {
+        if (map == null)
+        {
+            return IndexedRow.EMPTY;
+        }
+        final List<CharRange> ranges = CharRange.partition(map.getRanges());
+        final int[][] targets = new int[ranges.size()][];
+        for (int i = 0; i < targets.length; ++i)
+        {
+            targets[i] = closedTargets(map.getTransitionsFor(ranges.get(i).getFirst(), emptySet()));
+        }
+        return new IndexedRow(ranges, targets, closedTargets(map.getWildcards()));
+    }
+
+    private int[] closedTargets(Set<? extends Transition> transitions)
+    {
+        final Set<State> destinations = new HashSet<>();
+        for (final Transition transition : transitions)
+        {
+            destinations.add(transition.getDestination());
+        }
+        return toIndices(epsilonClosure(destinations)).stream().toArray();
+    }
+
+    private BitSet toIndices(Set<State> states)
+    {
+        final BitSet indices = new BitSet(getStateCount());
+        for (final State state : states)
+        {
+            indices.set(indexOf(state));
+        }
+        return indices;
     }
 
     public boolean isAccepting(Set<State> states)
@@ -229,9 +333,236 @@ public class NFA extends FiniteAutomaton<Transition>
         return false;
     }
 
+    /**
+     * Searches for a word accepted by this automaton, but not by the given one, without determinizing either of them.
+     * Macrostates of the other automaton are explored lazily and pruned with simulation-based antichains, so the
+     * search usually visits only a small part of the subset construction.
+     *
+     * @param o the other automaton
+     * @return a counterexample to inclusion or null if there is none
+     */
+    @Override
+    public String findWordNotIn(FiniteAutomaton<? extends Transition> o)
+    {
+        return AntichainChecker.findInclusionCounterexample(this, o.toNFA());
+    }
+
+    /**
+     * Checks whether this automaton accepts every word, using the same antichain exploration as
+     * {@link #findWordNotIn(FiniteAutomaton)}.
+     *
+     * @return true if no word is rejected
+     */
+    public boolean isUniversal()
+    {
+        return AntichainChecker.findRejectedWord(this) == null;
+    }
+
+    /**
+     * Creates an equivalent NFA without spontaneous transitions, containing only states that are reachable from the
+     * start state and can reach an accepting state. Every remaining state takes over the transitions of its epsilon
+     * closure and accepts if its closure does. The result is computed once and cached, {@link #toDFA()} and the
+     * {@link tel.schich.automata.eval.NFAEvaluator} work on it, so closures are not recomputed for every step.
+     *
+     * @return the epsilon-free and trimmed NFA
+     */
+    public NFA removeEpsilons()
+    {
+        NFA result = this.epsilonFree;
+        if (result == null)
+        {
+            result = eliminateEpsilons();
+            result.epsilonFree = result;
+            this.epsilonFree = result;
+        }
+        return result;
+    }
+
+    private NFA eliminateEpsilons()
+    {
+        final Map<State, EliminatedRow> rows = new HashMap<>();
+        final Queue<State> queue = new LinkedList<>();
+        rows.put(getStartState(), null);
+        queue.offer(getStartState());
+        while (!queue.isEmpty())
+        {
+            final State state = queue.poll();
+            final EliminatedRow row = new EliminatedRow(epsilonClosure(singleton(state)));
+            rows.put(state, row);
+            for (final State target : row.successors())
+            {
+                if (!rows.containsKey(target))
+                {
+                    rows.put(target, null);
+                    queue.offer(target);
+                }
+            }
+        }
+
+        final Set<State> live = findLiveStates(rows);
+        final Set<State> states = new HashSet<>();
+        final Set<Transition> transitions = new HashSet<>();
+        final Set<State> accepting = new HashSet<>();
+        states.add(getStartState());
+        State dead = null;
+        for (final Map.Entry<State, EliminatedRow> entry : rows.entrySet())
+        {
+            final State state = entry.getKey();
+            if (!live.contains(state))
+            {
+                continue;
+            }
+            final EliminatedRow row = entry.getValue();
+            states.add(state);
+            if (row.accepting)
+            {
+                accepting.add(state);
+            }
+
+            final Set<State> wildcard = intersection(row.wildcard, live);
+            for (final State target : wildcard)
+            {
+                transitions.add(new WildcardTransition(state, target));
+            }
+            for (int i = 0; i < row.ranges.size(); ++i)
+            {
+                final Set<State> targets = intersection(row.targets.get(i), live);
+                CharRange range = row.ranges.get(i);
+                // adjacent ranges leading to the same states are merged
+                while (i + 1 < row.ranges.size() && row.ranges.get(i + 1).getFirst() == range.getLast() + 1
+                       && targets.equals(intersection(row.targets.get(i + 1), live)))
+                {
+                    range = CharRange.range(range.getFirst(), row.ranges.get(++i).getLast());
+                }
+                if (targets.equals(wildcard))
+                {
+                    continue;
+                }
+                if (targets.isEmpty())
+                {
+                    // the range must not fall back to the wildcard, so it leads to a dead end instead
+                    if (dead == null)
+                    {
+                        dead = new State();
+                        states.add(dead);
+                    }
+                    transitions.add(RangeTransition.of(state, range, dead));
+                }
+                for (final State target : targets)
+                {
+                    transitions.add(RangeTransition.of(state, range, target));
+                }
+            }
+        }
+
+        return new NFA(states, transitions, getStartState(), accepting);
+    }
+
+    private static Set<State> findLiveStates(Map<State, EliminatedRow> rows)
+    {
+        final Map<State, Set<State>> predecessors = new HashMap<>();
+        final Queue<State> queue = new LinkedList<>();
+        final Set<State> live = new HashSet<>();
+        for (final Map.Entry<State, EliminatedRow> entry : rows.entrySet())
+        {
+            final EliminatedRow row = entry.getValue();
+            if (row.accepting && live.add(entry.getKey()))
+            {
+                queue.offer(entry.getKey());
+            }
+            for (final State target : row.successors())
+            {
+                predecessors.computeIfAbsent(target, k -> new HashSet<>()).add(entry.getKey());
+            }
+        }
+
+        while (!queue.isEmpty())
+        {
+            for (final State predecessor : predecessors.getOrDefault(queue.poll(), emptySet()))
+            {
+                if (live.add(predecessor))
+                {
+                    queue.offer(predecessor);
+                }
+            }
+        }
+        return live;
+    }
+
+    private static Set<State> intersection(Set<State> states, Set<State> filter)
+    {
+        final Set<State> out = new HashSet<>(states);
+        out.retainAll(filter);
+        return out;
+    }
+
+    /**
+     * The transitions of an epsilon closure, read as if it was a single state: the disjoint ranges explicitly
+     * expected by any state of the closure with the states they lead to, and the states reached by wildcards.
+     */
+    private final class EliminatedRow
+    {
+        private final boolean accepting;
+        private final List<CharRange> ranges;
+        private final List<Set<State>> targets;
+        private final Set<State> wildcard;
+
+        private EliminatedRow(Set<State> closure)
+        {
+            this.accepting = willAccept(closure);
+            this.ranges = partitionFor(closure);
+            this.targets = new ArrayList<>(ranges.size());
+            for (final CharRange range : ranges)
+            {
+                targets.add(read(closure, range.getFirst()));
+            }
+            this.wildcard = read(closure);
+        }
+
+        private Set<State> successors()
+        {
+            final Set<State> successors = new HashSet<>(wildcard);
+            for (final Set<State> states : targets)
+            {
+                successors.addAll(states);
+            }
+            return successors;
+        }
+    }
+
     @Override
     public DFA toDFA()
     {
+        return toDFA(Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Determinizes this automaton like {@link #toDFA()}, but aborts as soon as the DFA would get more than the given
+     * number of states or the construction takes longer than the given time, including the removal of spontaneous
+     * transitions.
+     *
+     * @param maximumStates the maximum number of states of the DFA
+     * @param maximumMillis the maximum time in milliseconds
+     * @return the equivalent DFA
+     * @throws DeterminizationBudgetException if the budget is exceeded
+     */
+    public DFA toDFA(int maximumStates, long maximumMillis)
+    {
+        return determinize(maximumStates, maximumMillis, System.nanoTime());
+    }
+
+    private DFA determinize(int maximumStates, long maximumMillis, long startNanos)
+    {
+        if (hasSpontaneousTransitions)
+        {
+            return removeEpsilons().determinize(maximumStates, maximumMillis, startNanos);
+        }
+        final NFA trimmed = trim();
+        if (trimmed != this)
+        {
+            return trimmed.determinize(maximumStates, maximumMillis, startNanos);
+        }
+
         final Set<State> states = new HashSet<>();
         final Set<PlannedTransition> transitions = new HashSet<>();
         final State start = getStartState();
@@ -241,7 +572,6 @@ public class NFA extends FiniteAutomaton<Transition>
         Queue<Pair<State, Set<State>>> stateQueue = new LinkedList<>();
 
         Set<State> initialClosure = getStartStates();
-        //System.out.println("1. " + start + " = ec(" + start + ") = " + initialClosure);
         stateQueue.offer(pair(start, initialClosure));
         knownStates.put(initialClosure, start);
 
@@ -251,75 +581,244 @@ public class NFA extends FiniteAutomaton<Transition>
             accepting.add(start);
         }
 
-        //int i = 1;
+        final boolean timed = maximumMillis != Long.MAX_VALUE;
         while (!stateQueue.isEmpty())
         {
+            if (timed && elapsedMillis(startNanos) > maximumMillis)
+            {
+                throw new DeterminizationBudgetException(maximumStates, maximumMillis, states.size(), transitions.size(), stateQueue.size(), elapsedMillis(startNanos));
+            }
             final Pair<State, Set<State>> pair = stateQueue.poll();
             final State state = pair.getLeft();
-            final Set<State> stateSet = pair.getRight();
 
-            // check for wildcard edges
-            Set<State> newStateSet = transition(stateSet);
-            //System.out.print((++i) + ". Δ(" + state + ", *) = " + newStateSet);
-
-            if (!newStateSet.isEmpty())
+            for (final Successor successor : successors(pair.getRight()))
             {
-                State alreadyKnown = knownStates.get(newStateSet);
+                State alreadyKnown = knownStates.get(successor.states);
                 if (alreadyKnown == null)
                 {
-                    State newState = new State();
-                    states.add(newState);
-                    stateQueue.offer(pair(newState, newStateSet));
-                    knownStates.put(newStateSet, newState);
-                    transitions.add(new WildcardTransition(state, newState));
-                    //System.out.println(" = " + newState);
-                    if (willAccept(newStateSet))
+                    if (states.size() >= maximumStates)
                     {
-                        accepting.add(newState);
+                        throw new DeterminizationBudgetException(maximumStates, maximumMillis, states.size(), transitions.size(), stateQueue.size() + 1, elapsedMillis(startNanos));
+                    }
+                    alreadyKnown = new State();
+                    states.add(alreadyKnown);
+                    stateQueue.offer(pair(alreadyKnown, successor.states));
+                    knownStates.put(successor.states, alreadyKnown);
+                    if (willAccept(successor.states))
+                    {
+                        accepting.add(alreadyKnown);
                     }
                 }
-                else
-                {
-                    transitions.add(new WildcardTransition(state, alreadyKnown));
-                    //System.out.println(" = " + alreadyKnown);
-                }
+                transitions.add(successor.toTransition(state, alreadyKnown));
             }
+        }
+
+        return new DFA(states, transitions, start, accepting);
+    }
 
-            // check for explicit edges
-            for (char c : alphabetFor(stateSet))
+    private static long elapsedMillis(long startNanos)
+    {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * Determinizes this automaton like {@link #toDFA()}, but expands each BFS level of the subset construction
+     * concurrently on the given pool. Successor state sets are interned in a concurrent table while the workers run,
+     * the DFA states are then assigned sequentially in frontier order, so the result does not depend on scheduling.
+     *
+     * @param pool the pool to expand the frontier on
+     * @return the equivalent DFA
+     */
+    public DFA toDFA(ForkJoinPool pool)
+    {
+        if (hasSpontaneousTransitions)
+        {
+            return removeEpsilons().toDFA(pool);
+        }
+        final NFA trimmed = trim();
+        if (trimmed != this)
+        {
+            return trimmed.toDFA(pool);
+        }
+
+        final Set<State> states = new HashSet<>();
+        final Set<PlannedTransition> transitions = new HashSet<>();
+        final State start = getStartState();
+        final Set<State> accepting = new HashSet<>();
+
+        final ConcurrentMap<Set<State>, Set<State>> internTable = new ConcurrentHashMap<>();
+        // all sets are interned, so identity is sufficient and saves rehashing the sets
+        final Map<Set<State>, State> knownStates = new IdentityHashMap<>();
+
+        Set<State> initialClosure = getStartStates();
+        internTable.put(initialClosure, initialClosure);
+        knownStates.put(initialClosure, start);
+
+        states.add(start);
+        if (willAccept(initialClosure))
+        {
+            accepting.add(start);
+        }
+
+        List<Set<State>> frontier = singletonList(initialClosure);
+        while (!frontier.isEmpty())
+        {
+            final List<List<Successor>> expanded = new ArrayList<>(Collections.<List<Successor>>nCopies(frontier.size(), null));
+            pool.invoke(new FrontierExpansion(frontier, expanded, internTable, 0, frontier.size()));
+
+            final List<Set<State>> nextFrontier = new ArrayList<>();
+            for (int i = 0; i < frontier.size(); ++i)
             {
-                newStateSet = transitionExplicit(stateSet, c);
-                //System.out.print((++i) + ". Δ(" + state + ", " + c + ") = " + newStateSet);
-                if (newStateSet.isEmpty())
+                final State state = knownStates.get(frontier.get(i));
+                for (final Successor successor : expanded.get(i))
                 {
-                    continue;
+                    State alreadyKnown = knownStates.get(successor.states);
+                    if (alreadyKnown == null)
+                    {
+                        alreadyKnown = new State();
+                        states.add(alreadyKnown);
+                        nextFrontier.add(successor.states);
+                        knownStates.put(successor.states, alreadyKnown);
+                        if (willAccept(successor.states))
+                        {
+                            accepting.add(alreadyKnown);
+                        }
+                    }
+                    transitions.add(successor.toTransition(state, alreadyKnown));
                 }
+            }
+            frontier = nextFrontier;
+        }
 
-                State alreadyKnown = knownStates.get(newStateSet);
-                if (alreadyKnown == null)
+        return new DFA(states, transitions, start, accepting);
+    }
+
+    private List<Successor> successors(Set<State> stateSet)
+    {
+        final List<Successor> successors = new ArrayList<>();
+
+        // check for wildcard edges
+        Set<State> newStateSet = transition(stateSet);
+        if (!newStateSet.isEmpty())
+        {
+            successors.add(new Successor(null, newStateSet));
+        }
+
+        // check for explicit edges, overlapping ranges are split into disjoint intervals which each behave
+        // like any of their characters
+        for (CharRange range : partitionFor(stateSet))
+        {
+            newStateSet = transition(stateSet, range.getFirst());
+            if (!newStateSet.isEmpty())
+            {
+                successors.add(new Successor(range, newStateSet));
+            }
+        }
+
+        return successors;
+    }
+
+    private static final class Successor
+    {
+        private final CharRange with;
+        private final Set<State> states;
+
+        private Successor(CharRange with, Set<State> states)
+        {
+            this.with = with;
+            this.states = states;
+        }
+
+        private PlannedTransition toTransition(State origin, State destination)
+        {
+            if (with == null)
+            {
+                return new WildcardTransition(origin, destination);
+            }
+            return RangeTransition.of(origin, with, destination);
+        }
+    }
+
+    private final class FrontierExpansion extends RecursiveAction
+    {
+        private static final int THRESHOLD = 16;
+
+        private final List<Set<State>> frontier;
+        private final List<List<Successor>> expanded;
+        private final ConcurrentMap<Set<State>, Set<State>> internTable;
+        private final int from;
+        private final int to;
+
+        private FrontierExpansion(List<Set<State>> frontier, List<List<Successor>> expanded,
+                                  ConcurrentMap<Set<State>, Set<State>> internTable, int from, int to)
+        {
+            this.frontier = frontier;
+            this.expanded = expanded;
+            this.internTable = internTable;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= THRESHOLD)
+            {
+                for (int i = from; i < to; ++i)
                 {
-                    State newState = new State();
-                    states.add(newState);
-                    stateQueue.offer(pair(newState, newStateSet));
-                    knownStates.put(newStateSet, newState);
-                    transitions.add(new CharacterTransition(state, c, newState));
-                    //System.out.println(" = " + newState);
-                    if (willAccept(newStateSet))
+                    final List<Successor> successors = successors(frontier.get(i));
+                    for (int j = 0; j < successors.size(); ++j)
                     {
-                        accepting.add(newState);
+                        final Successor successor = successors.get(j);
+                        final Set<State> interned = internTable.putIfAbsent(successor.states, successor.states);
+                        if (interned != null)
+                        {
+                            successors.set(j, new Successor(successor.with, interned));
+                        }
                     }
+                    // every task writes a disjoint slice, the join in invoke() publishes the writes
+                    expanded.set(i, successors);
                 }
-                else
-                {
-                    transitions.add(new CharacterTransition(state, c, alreadyKnown));
-                    //System.out.println(" = " + alreadyKnown);
-                }
+                return;
             }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new FrontierExpansion(frontier, expanded, internTable, from, middle),
+                      new FrontierExpansion(frontier, expanded, internTable, middle, to));
         }
+    }
 
-        //System.out.println("Transitions: " + transitions.size());
+    @Override
+    public NFA trim()
+    {
+        NFA result = this.trimmed;
+        if (result == null)
+        {
+            final Trimming<Transition> trimming = trimUselessStates();
+            if (trimming == null)
+            {
+                result = this;
+            }
+            else
+            {
+                result = new NFA(trimming.states, trimming.transitions, getStartState(), trimming.accepting);
+                result.trimmed = result;
+            }
+            this.trimmed = result;
+        }
+        return result;
+    }
 
-        return new DFA(states, transitions, start, accepting);
+    @Override
+    public NFA copy()
+    {
+        final Map<State, State> fresh = createFreshStates();
+        final Set<Transition> transitions = new HashSet<>();
+        for (final Transition transition : getTransitions())
+        {
+            transitions.add(transition.withStates(fresh.get(transition.getOrigin()), fresh.get(transition.getDestination())));
+        }
+        return new NFA(new HashSet<>(fresh.values()), transitions, fresh.get(getStartState()),
+                       mapStates(getAcceptingStates(), fresh));
     }
 
     @Override
@@ -327,4 +826,55 @@ public class NFA extends FiniteAutomaton<Transition>
     {
         return this;
     }
+
+    /**
+     * The transitions of a single state in the dense numbering: sorted disjoint character intervals with the numbers
+     * of their targets, and the targets of the wildcards for all other characters.
+     */
+    private static final class IndexedRow
+    {
+        private static final IndexedRow EMPTY = new IndexedRow(emptyList(), new int[0][], new int[0]);
+
+        private final char[] firsts;
+        private final char[] lasts;
+        private final int[][] targets;
+        private final int[] wildcardTargets;
+
+        private IndexedRow(List<CharRange> ranges, int[][] targets, int[] wildcardTargets)
+        {
+            this.firsts = new char[ranges.size()];
+            this.lasts = new char[ranges.size()];
+            for (int i = 0; i < firsts.length; ++i)
+            {
+                firsts[i] = ranges.get(i).getFirst();
+                lasts[i] = ranges.get(i).getLast();
+            }
+            this.targets = targets;
+            this.wildcardTargets = wildcardTargets;
+        }
+
+        private void read(char c, BitSet out)
+        {
+            // find the last interval starting at or before c
+            int low = 0;
+            int high = firsts.length - 1;
+            while (low <= high)
+            {
+                final int middle = (low + high) >>> 1;
+                if (firsts[middle] <= c)
+                {
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle - 1;
+                }
+            }
+            final int[] states = high >= 0 && c <= lasts[high] ? targets[high] : wildcardTargets;
+            for (final int state : states)
+            {
+                out.set(state);
+            }
+        }
+    }
 }
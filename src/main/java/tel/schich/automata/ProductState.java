@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata;
+
+/**
+ * A state of a product automaton, its label is only computed when requested.
+ */
+final class ProductState extends State
+{
+    private final State left;
+    private final State right;
+
+    ProductState(State left, State right)
+    {
+        this.left = left;
+        this.right = right;
+    }
+
+    public State getLeft()
+    {
+        return left;
+    }
+
+    public State getRight()
+    {
+        return right;
+    }
+
+    @Override
+    public String getLabel()
+    {
+        return left.getLabel() + "|" + right.getLabel();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "State(" + getLabel() + ")";
+    }
+}
@@ -26,9 +26,17 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class State
 {
-    private static final AtomicInteger COUNTER = new AtomicInteger(0);
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(0);
 
-    private final int id = COUNTER.getAndIncrement();
+    private final int id = NEXT_ID.getAndIncrement();
+
+    /**
+     * @return the unique id of this state, ids are handed out sequentially in the order states are created
+     */
+    final int getId()
+    {
+        return id;
+    }
 
     public State transition(DFA a, char c)
     {
@@ -22,36 +22,60 @@
  */
 package tel.schich.automata;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import tel.schich.automata.transition.CharacterTransition;
 import tel.schich.automata.transition.PlannedTransition;
+import tel.schich.automata.transition.RangeTransition;
 import tel.schich.automata.transition.WildcardTransition;
 
+/**
+ * The outgoing transitions of a single DFA state. The explicit transitions are stored as sorted, disjoint character
+ * intervals in parallel arrays, so a lookup neither boxes the character nor hashes. Small rows are scanned linearly,
+ * larger ones are binary searched. Characters outside of all intervals fall back to the wildcard.
+ */
 public class TransitionMap
 {
+    private static final int LINEAR_SCAN_LIMIT = 8;
 
-    private final Map<Character, CharacterTransition> charTransitions;
+    private final char[] firsts;
+    private final char[] lasts;
+    private final RangeTransition[] transitions;
     private final WildcardTransition wildcard;
 
     public TransitionMap(Map<Character, CharacterTransition> charTransitions, WildcardTransition wildcard)
     {
-        this.charTransitions = charTransitions;
+        this(sortedRanges(charTransitions.values()), wildcard);
+    }
+
+    private TransitionMap(List<RangeTransition> sortedRanges, WildcardTransition wildcard)
+    {
+        final int size = sortedRanges.size();
+        this.firsts = new char[size];
+        this.lasts = new char[size];
+        this.transitions = sortedRanges.toArray(new RangeTransition[size]);
         this.wildcard = wildcard;
+
+        for (int i = 0; i < size; ++i)
+        {
+            this.firsts[i] = this.transitions[i].getFirst();
+            this.lasts[i] = this.transitions[i].getLast();
+        }
     }
 
     public static TransitionMap build(Set<PlannedTransition> transitions)
     {
-        final Map<Character, CharacterTransition> charTransitions = new HashMap<>();
+        final List<RangeTransition> ranges = new ArrayList<>();
         WildcardTransition wildcard = null;
 
         for (final PlannedTransition t : transitions)
         {
-            if (t instanceof CharacterTransition)
+            if (t instanceof RangeTransition)
             {
-                CharacterTransition ct = (CharacterTransition)t;
-                charTransitions.put(ct.getWith(), ct);
+                ranges.add((RangeTransition)t);
             }
             else if (t instanceof WildcardTransition)
             {
@@ -67,7 +91,21 @@ public class TransitionMap
             }
         }
 
-        return new TransitionMap(charTransitions, wildcard);
+        return new TransitionMap(sortedRanges(ranges), wildcard);
+    }
+
+    private static List<RangeTransition> sortedRanges(Collection<? extends RangeTransition> transitions)
+    {
+        final List<RangeTransition> ranges = new ArrayList<>(transitions);
+        ranges.sort((a, b) -> a.getFirst() - b.getFirst());
+        for (int i = 1; i < ranges.size(); ++i)
+        {
+            if (ranges.get(i - 1).getLast() >= ranges.get(i).getFirst())
+            {
+                throw new IllegalArgumentException("Overlapping transitions: " + ranges.get(i - 1) + " and " + ranges.get(i));
+            }
+        }
+        return ranges;
     }
 
     public PlannedTransition getTransitionFor(char c)
@@ -77,12 +115,65 @@ public class TransitionMap
 
     PlannedTransition getTransitionFor(char c, PlannedTransition def)
     {
-        PlannedTransition transition = this.charTransitions.get(c);
-        if (transition == null)
+        final int index = indexOf(c);
+        if (index < 0)
         {
             return def;
         }
-        return transition;
+        return this.transitions[index];
+    }
+
+    /**
+     * Finds the explicit transition for a character.
+     *
+     * @param c the character
+     * @return the position of the transition in the sorted transitions or -1 if the wildcard applies
+     */
+    int indexOf(char c)
+    {
+        final char[] firsts = this.firsts;
+        if (firsts.length <= LINEAR_SCAN_LIMIT)
+        {
+            for (int i = 0; i < firsts.length && firsts[i] <= c; ++i)
+            {
+                if (c <= this.lasts[i])
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // find the last interval starting at or before c
+        int low = 0;
+        int high = firsts.length - 1;
+        while (low <= high)
+        {
+            final int middle = (low + high) >>> 1;
+            if (firsts[middle] <= c)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+        if (high >= 0 && c <= this.lasts[high])
+        {
+            return high;
+        }
+        return -1;
+    }
+
+    int getRangeCount()
+    {
+        return this.transitions.length;
+    }
+
+    RangeTransition getRange(int index)
+    {
+        return this.transitions[index];
     }
 
     public WildcardTransition getWildcard()
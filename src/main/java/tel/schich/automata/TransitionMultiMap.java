@@ -22,40 +22,52 @@
  */
 package tel.schich.automata;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import tel.schich.automata.transition.CharacterTransition;
 import tel.schich.automata.transition.PlannedTransition;
+import tel.schich.automata.transition.RangeTransition;
 import tel.schich.automata.transition.SpontaneousTransition;
 import tel.schich.automata.transition.Transition;
 import tel.schich.automata.transition.WildcardTransition;
+import tel.schich.automata.util.CharRange;
 
+import static java.util.Collections.unmodifiableList;
 import static java.util.Collections.unmodifiableSet;
 
 final class TransitionMultiMap
 {
     private final Map<Character, Set<PlannedTransition>> plannedTransitions;
+    private final List<RangeTransition> rangeTransitions;
     private final Set<SpontaneousTransition> spontaneousTransitions;
     private final Set<Character> alphabet;
+    private final List<CharRange> ranges;
     private final Set<WildcardTransition> wildcards;
 
-    private TransitionMultiMap(Map<Character, Set<PlannedTransition>> plannedTransitions, Set<WildcardTransition> wildcards,
-                               Set<SpontaneousTransition> spontaneousTransitions, Set<Character> alphabet)
+    private TransitionMultiMap(Map<Character, Set<PlannedTransition>> plannedTransitions, List<RangeTransition> rangeTransitions,
+                               Set<WildcardTransition> wildcards, Set<SpontaneousTransition> spontaneousTransitions,
+                               Set<Character> alphabet, List<CharRange> ranges)
     {
         // set doesn't need to be copied, the sets come from a trusted source
         this.wildcards = unmodifiableSet(wildcards);
         this.plannedTransitions = plannedTransitions;
+        this.rangeTransitions = rangeTransitions;
         this.spontaneousTransitions = unmodifiableSet(spontaneousTransitions);
         this.alphabet = unmodifiableSet(alphabet);
+        this.ranges = unmodifiableList(ranges);
     }
 
     public static <T extends Transition> TransitionMultiMap build(Set<T> transitions)
     {
         Map<Character, Set<PlannedTransition>> plannedTransitions = new HashMap<>();
+        List<RangeTransition> rangeTransitions = new ArrayList<>();
         Set<SpontaneousTransition> spontaneousTransitions = new HashSet<>();
         Set<Character> expectedChars = new HashSet<>();
+        Set<CharRange> expectedRanges = new HashSet<>();
         Set<WildcardTransition> wildcards = new HashSet<>();
 
         for (Transition t : transitions)
@@ -70,6 +82,13 @@ final class TransitionMultiMap
                 Set<PlannedTransition> expected = plannedTransitions.computeIfAbsent(et.getWith(), k -> new HashSet<>());
                 expected.add(et);
                 expectedChars.add(et.getWith());
+                expectedRanges.add(et.getRange());
+            }
+            else if (t instanceof RangeTransition)
+            {
+                RangeTransition rt = (RangeTransition)t;
+                rangeTransitions.add(rt);
+                expectedRanges.add(rt.getRange());
             }
             else if (t instanceof WildcardTransition)
             {
@@ -80,7 +99,8 @@ final class TransitionMultiMap
                 throw new UnsupportedOperationException("Unknown transition type!");
             }
         }
-        return new TransitionMultiMap(plannedTransitions, wildcards, spontaneousTransitions, expectedChars);
+        return new TransitionMultiMap(plannedTransitions, rangeTransitions, wildcards, spontaneousTransitions,
+                                      expectedChars, new ArrayList<>(expectedRanges));
     }
 
     public Set<PlannedTransition> getTransitionsFor(char c)
@@ -92,6 +112,25 @@ final class TransitionMultiMap
     public Set<PlannedTransition> getTransitionsFor(char c, Set<? extends PlannedTransition> def)
     {
         Set<PlannedTransition> transitions = plannedTransitions.get(c);
+        if (!rangeTransitions.isEmpty())
+        {
+            Set<PlannedTransition> matching = null;
+            for (final RangeTransition range : rangeTransitions)
+            {
+                if (range.contains(c))
+                {
+                    if (matching == null)
+                    {
+                        matching = transitions == null ? new HashSet<>() : new HashSet<>(transitions);
+                    }
+                    matching.add(range);
+                }
+            }
+            if (matching != null)
+            {
+                return matching;
+            }
+        }
         if (transitions == null)
         {
             return (Set<PlannedTransition>)def;
@@ -114,9 +153,19 @@ final class TransitionMultiMap
         return this.alphabet;
     }
 
+    /**
+     * Returns the character ranges of all explicit transitions, single characters included. The ranges may overlap.
+     *
+     * @return the explicitly expected ranges
+     */
+    public List<CharRange> getRanges()
+    {
+        return this.ranges;
+    }
+
     @Override
     public String toString()
     {
-        return "Σ = " + getAlphabet() + ", ε-δ = " + getSpontaneousTransitions() + ", δ = " + this.plannedTransitions;
+        return "Σ = " + getRanges() + ", ε-δ = " + getSpontaneousTransitions() + ", δ = " + this.plannedTransitions + ", " + this.rangeTransitions;
     }
 }
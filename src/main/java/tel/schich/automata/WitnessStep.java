@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata;
+
+/**
+ * A node of a breadth-first search over automata, linked to the node it was reached from, so the word leading to it
+ * can be given as a witness.
+ */
+abstract class WitnessStep
+{
+    private final WitnessStep previous;
+    private final char with;
+
+    /**
+     * @param previous the step this one was reached from or null for the start
+     * @param with the character read to reach this step, ignored for the start
+     */
+    WitnessStep(WitnessStep previous, char with)
+    {
+        this.previous = previous;
+        this.with = with;
+    }
+
+    /**
+     * @return the characters read from the start to this step
+     */
+    final String word()
+    {
+        final StringBuilder word = new StringBuilder();
+        for (WitnessStep step = this; step.previous != null; step = step.previous)
+        {
+            word.append(step.with);
+        }
+        return word.reverse().toString();
+    }
+}
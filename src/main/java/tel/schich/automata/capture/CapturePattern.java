@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.capture;
+
+import tel.schich.automata.match.PatternParser;
+import tel.schich.automata.match.pattern.Node;
+
+/**
+ * Extracts capturing groups from whole matches in a single pass over the input. The pattern is compiled to a tagged
+ * NFA whose tags record positions in capture slots. If the NFA is one-pass, it is turned into a tagged DFA that sets
+ * the slots on its transitions, otherwise all threads are simulated together by a Pike VM. Either way the captures
+ * are those of the path of highest priority: alternatives are tried from left to right and repetitions are greedy, a
+ * group repeated by a quantifier captures its last iteration. This agrees with java.util.regex for most patterns, but
+ * not for all of them, for example groups in repetitions that match the empty string like {@code (((b)?)*)}.
+ */
+public final class CapturePattern
+{
+    private final String pattern;
+    private final Program program;
+    private final OnePassDFA onePass;
+    private final PikeVM vm;
+
+    private CapturePattern(String pattern, Program program)
+    {
+        this.pattern = pattern;
+        this.program = program;
+        this.onePass = OnePassDFA.build(program);
+        this.vm = onePass == null ? new PikeVM(program) : null;
+    }
+
+    public static CapturePattern compile(String pattern)
+    {
+        return compile(pattern, 0);
+    }
+
+    /**
+     * @param pattern the pattern
+     * @param flags the flags as defined by {@link java.util.regex.Pattern}, see
+     *              {@link PatternParser#parseCapturing(String, int)}
+     * @return the compiled pattern
+     */
+    public static CapturePattern compile(String pattern, int flags)
+    {
+        return compile(pattern, PatternParser.parseCapturing(pattern, flags));
+    }
+
+    /**
+     * @param pattern the pattern the tree was parsed from
+     * @param node a tree parsed by {@link PatternParser#parseCapturing(String, int)}
+     * @return the compiled pattern
+     */
+    public static CapturePattern compile(String pattern, Node node)
+    {
+        return new CapturePattern(pattern, Program.compile(node));
+    }
+
+    /**
+     * Matches the whole input.
+     *
+     * @param input the input
+     * @return the captures or null if the input doesn't match
+     */
+    public Captures match(CharSequence input)
+    {
+        final int[] slots = onePass != null ? onePass.match(input) : vm.match(input);
+        return slots == null ? null : new Captures(input, slots);
+    }
+
+    public boolean matches(CharSequence input)
+    {
+        return match(input) != null;
+    }
+
+    public int getGroupCount()
+    {
+        return program.getSlotCount() / 2 - 1;
+    }
+
+    /**
+     * @return whether matches run on the one-pass DFA instead of the Pike VM
+     */
+    public boolean isOnePass()
+    {
+        return onePass != null;
+    }
+
+    public String getPattern()
+    {
+        return pattern;
+    }
+
+    @Override
+    public String toString()
+    {
+        return pattern;
+    }
+}
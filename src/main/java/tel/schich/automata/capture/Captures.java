@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.capture;
+
+/**
+ * The groups captured by a successful match.
+ */
+public final class Captures
+{
+    private final CharSequence input;
+    private final int[] slots;
+
+    Captures(CharSequence input, int[] slots)
+    {
+        this.input = input;
+        this.slots = slots;
+    }
+
+    /**
+     * @return the number of groups, not counting group 0, which is the whole match
+     */
+    public int getGroupCount()
+    {
+        return slots.length / 2 - 1;
+    }
+
+    /**
+     * @param group the group
+     * @return the index of the first character of the group or -1 if the group didn't participate in the match
+     */
+    public int start(int group)
+    {
+        return slots[checked(group) * 2];
+    }
+
+    /**
+     * @param group the group
+     * @return the index after the last character of the group or -1 if the group didn't participate in the match
+     */
+    public int end(int group)
+    {
+        return slots[checked(group) * 2 + 1];
+    }
+
+    /**
+     * @param group the group
+     * @return the captured text or null if the group didn't participate in the match
+     */
+    public String group(int group)
+    {
+        final int start = start(group);
+        return start == -1 ? null : input.subSequence(start, end(group)).toString();
+    }
+
+    private int checked(int group)
+    {
+        if (group < 0 || group > getGroupCount())
+        {
+            throw new IndexOutOfBoundsException("No group " + group);
+        }
+        return group;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder out = new StringBuilder("Captures[");
+        for (int group = 0; group <= getGroupCount(); ++group)
+        {
+            if (group > 0)
+            {
+                out.append(", ");
+            }
+            out.append(group).append('=').append(group(group));
+        }
+        return out.append(']').toString();
+    }
+}
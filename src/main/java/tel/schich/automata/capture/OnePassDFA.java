@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.capture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import tel.schich.automata.util.CharRange;
+
+/**
+ * A tagged DFA for programs that are one-pass: whatever was read so far, at most one thread can read the next
+ * character. Its states are the reading instructions plus the start, every transition carries the slots to set to
+ * the position before the character is read, so matching needs neither threads nor copies of slots.
+ */
+final class OnePassDFA
+{
+    static final int MAXIMUM_TABLE_SIZE = 1 << 20;
+
+    private static final int[] NO_SLOTS = new int[0];
+
+    private final char[] classStarts;
+    private final int classCount;
+    private final int slotCount;
+    private final int[] targets;
+    private final int[][] tags;
+    private final int[][] matchTags;
+
+    private OnePassDFA(char[] classStarts, int slotCount, int[] targets, int[][] tags, int[][] matchTags)
+    {
+        this.classStarts = classStarts;
+        this.classCount = classStarts.length;
+        this.slotCount = slotCount;
+        this.targets = targets;
+        this.tags = tags;
+        this.matchTags = matchTags;
+    }
+
+    /**
+     * @param program the program
+     * @return the DFA or null if the program is not one-pass or its table would be too large
+     */
+    static OnePassDFA build(Program program)
+    {
+        final int size = program.size();
+
+        // the characters where the sets of reading instructions change start the classes
+        final TreeSet<Character> boundaries = new TreeSet<>();
+        boundaries.add(Character.MIN_VALUE);
+        for (int pc = 0; pc < size; ++pc)
+        {
+            if (program.op(pc) == Program.CHAR)
+            {
+                for (final CharRange range : program.ranges(pc))
+                {
+                    boundaries.add(range.getFirst());
+                    if (range.getLast() < Character.MAX_VALUE)
+                    {
+                        boundaries.add((char)(range.getLast() + 1));
+                    }
+                }
+            }
+        }
+        final char[] classStarts = new char[boundaries.size()];
+        int index = 0;
+        for (final char boundary : boundaries)
+        {
+            classStarts[index++] = boundary;
+        }
+
+        // state 0 is the start, the others are the reading instructions after they read
+        final int[] states = new int[size];
+        final List<Integer> entries = new ArrayList<>();
+        entries.add(program.getStart());
+        for (int pc = 0; pc < size; ++pc)
+        {
+            final int op = program.op(pc);
+            if (op == Program.CHAR || op == Program.ANY)
+            {
+                states[pc] = entries.size();
+                entries.add(program.next(pc));
+            }
+        }
+        if ((long)entries.size() * classStarts.length > MAXIMUM_TABLE_SIZE)
+        {
+            return null;
+        }
+
+        final int classCount = classStarts.length;
+        final int[] targets = new int[entries.size() * classCount];
+        final int[][] tags = new int[targets.length][];
+        final int[][] matchTags = new int[entries.size()][];
+        Arrays.fill(targets, -1);
+        final Closure closure = new Closure(program);
+        for (int state = 0; state < entries.size(); ++state)
+        {
+            closure.compute(entries.get(state));
+            for (int item = 0; item < closure.count; ++item)
+            {
+                final int pc = closure.pcs[item];
+                if (program.op(pc) == Program.MATCH)
+                {
+                    matchTags[state] = closure.tags[item];
+                    continue;
+                }
+                for (int charClass = 0; charClass < classCount; ++charClass)
+                {
+                    if (program.reads(pc, classStarts[charClass]))
+                    {
+                        final int cell = state * classCount + charClass;
+                        if (targets[cell] != -1)
+                        {
+                            // two threads could read the same character
+                            return null;
+                        }
+                        targets[cell] = states[pc];
+                        tags[cell] = closure.tags[item];
+                    }
+                }
+            }
+        }
+        return new OnePassDFA(classStarts, program.getSlotCount(), targets, tags, matchTags);
+    }
+
+    /**
+     * @return the capture slots or null if the input doesn't match
+     */
+    int[] match(CharSequence input)
+    {
+        final int[] slots = new int[slotCount];
+        Arrays.fill(slots, -1);
+        int state = 0;
+        for (int i = 0, length = input.length(); i < length; ++i)
+        {
+            final int cell = state * classCount + classOf(input.charAt(i));
+            state = targets[cell];
+            if (state == -1)
+            {
+                return null;
+            }
+            for (final int slot : tags[cell])
+            {
+                slots[slot] = i;
+            }
+        }
+        final int[] tags = matchTags[state];
+        if (tags == null)
+        {
+            return null;
+        }
+        for (final int slot : tags)
+        {
+            slots[slot] = input.length();
+        }
+        return slots;
+    }
+
+    private int classOf(char c)
+    {
+        final int index = Arrays.binarySearch(classStarts, c);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * The reading and matching instructions reachable by spontaneous instructions, in the order of their priority,
+     * together with the slots saved on the way.
+     */
+    private static final class Closure
+    {
+        private final Program program;
+        private final int[] marks;
+        private final int[] pcs;
+        private final int[][] tags;
+        private final int[] stack;
+        private final int[][] stackTags;
+        private int generation = 0;
+        private int count = 0;
+
+        private Closure(Program program)
+        {
+            this.program = program;
+            this.marks = new int[program.size()];
+            this.pcs = new int[program.size()];
+            this.tags = new int[program.size()][];
+            this.stack = new int[2 * program.size() + 1];
+            this.stackTags = new int[2 * program.size() + 1][];
+        }
+
+        private void compute(int entry)
+        {
+            ++generation;
+            count = 0;
+            int top = 0;
+            stack[top] = entry;
+            stackTags[top++] = NO_SLOTS;
+            while (top > 0)
+            {
+                final int pc = stack[--top];
+                final int[] saved = stackTags[top];
+                if (marks[pc] == generation)
+                {
+                    continue;
+                }
+                marks[pc] = generation;
+                switch (program.op(pc))
+                {
+                    case Program.SPLIT:
+                        stack[top] = program.arg(pc);
+                        stackTags[top++] = saved;
+                        stack[top] = program.next(pc);
+                        stackTags[top++] = saved;
+                        break;
+                    case Program.SAVE:
+                        final int[] extended = Arrays.copyOf(saved, saved.length + 1);
+                        extended[saved.length] = program.arg(pc);
+                        stack[top] = program.next(pc);
+                        stackTags[top++] = extended;
+                        break;
+                    default:
+                        pcs[count] = pc;
+                        tags[count++] = saved;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.capture;
+
+import java.util.Arrays;
+
+/**
+ * Runs a program as a Pike VM: all threads advance in lockstep, one character at a time, so the input is read once
+ * and the work per character is bounded by the size of the program. Threads are kept in the order of their priority
+ * and a thread reaching an instruction that a thread of higher priority already reached is dropped, so the captures
+ * are those of the path of highest priority.
+ */
+final class PikeVM
+{
+    private final Program program;
+
+    PikeVM(Program program)
+    {
+        this.program = program;
+    }
+
+    /**
+     * @return the capture slots or null if the input doesn't match
+     */
+    int[] match(CharSequence input)
+    {
+        final int size = program.size();
+        Threads current = new Threads(size);
+        Threads next = new Threads(size);
+        final int[] slots = new int[program.getSlotCount()];
+        Arrays.fill(slots, -1);
+
+        int generation = 1;
+        final int[] marks = new int[size];
+        final int[] stack = new int[2 * size + 1];
+        final int[][] stackSlots = new int[2 * size + 1][];
+        add(current, program.getStart(), slots, 0, marks, generation, stack, stackSlots);
+
+        for (int i = 0, length = input.length(); i < length; ++i)
+        {
+            if (current.count == 0)
+            {
+                return null;
+            }
+            final char c = input.charAt(i);
+            ++generation;
+            next.count = 0;
+            for (int t = 0; t < current.count; ++t)
+            {
+                final int pc = current.pcs[t];
+                if (program.op(pc) != Program.MATCH && program.reads(pc, c))
+                {
+                    add(next, program.next(pc), current.slots[t], i + 1, marks, generation, stack, stackSlots);
+                }
+            }
+            final Threads swap = current;
+            current = next;
+            next = swap;
+        }
+
+        for (int t = 0; t < current.count; ++t)
+        {
+            if (program.op(current.pcs[t]) == Program.MATCH)
+            {
+                return current.slots[t];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Follows the spontaneous instructions from the given one depth first, preferred targets first, and adds the
+     * reading and matching instructions it reaches. Slots are copied when a save changes them.
+     */
+    private void add(Threads threads, int pc, int[] slots, int position, int[] marks, int generation, int[] stack, int[][] stackSlots)
+    {
+        int top = 0;
+        stack[top] = pc;
+        stackSlots[top++] = slots;
+        while (top > 0)
+        {
+            final int at = stack[--top];
+            final int[] current = stackSlots[top];
+            if (marks[at] == generation)
+            {
+                continue;
+            }
+            marks[at] = generation;
+            switch (program.op(at))
+            {
+                case Program.SPLIT:
+                    stack[top] = program.arg(at);
+                    stackSlots[top++] = current;
+                    stack[top] = program.next(at);
+                    stackSlots[top++] = current;
+                    break;
+                case Program.SAVE:
+                    final int[] saved = current.clone();
+                    saved[program.arg(at)] = position;
+                    stack[top] = program.next(at);
+                    stackSlots[top++] = saved;
+                    break;
+                default:
+                    threads.pcs[threads.count] = at;
+                    threads.slots[threads.count++] = current;
+            }
+        }
+    }
+
+    private static final class Threads
+    {
+        private final int[] pcs;
+        private final int[][] slots;
+        private int count = 0;
+
+        private Threads(int size)
+        {
+            pcs = new int[size];
+            slots = new int[size][];
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.capture;
+
+import java.util.Arrays;
+import java.util.List;
+
+import tel.schich.automata.match.pattern.Alternation;
+import tel.schich.automata.match.pattern.CharClass;
+import tel.schich.automata.match.pattern.Complement;
+import tel.schich.automata.match.pattern.Epsilon;
+import tel.schich.automata.match.pattern.Group;
+import tel.schich.automata.match.pattern.Intersection;
+import tel.schich.automata.match.pattern.Node;
+import tel.schich.automata.match.pattern.NodeVisitor;
+import tel.schich.automata.match.pattern.Repetition;
+import tel.schich.automata.match.pattern.Sequence;
+import tel.schich.automata.match.pattern.Wildcard;
+import tel.schich.automata.util.CharRange;
+
+/**
+ * A tagged NFA as a program of instructions. Characters are read by {@link #CHAR} and {@link #ANY} instructions, all
+ * other instructions are spontaneous: {@link #SPLIT} prefers its first target over its second, which orders the paths
+ * like a backtracking matcher would try them, and {@link #SAVE} is the tag that records the current position in a
+ * capture slot. Group {@code i} starts in slot {@code 2i} and ends in slot {@code 2i + 1}, group 0 is the whole match.
+ */
+final class Program
+{
+    static final int CHAR = 0;
+    static final int ANY = 1;
+    static final int SPLIT = 2;
+    static final int SAVE = 3;
+    static final int MATCH = 4;
+
+    private int[] ops = new int[16];
+    private int[] nexts = new int[16];
+    private int[] args = new int[16];
+    private CharRange[][] ranges = new CharRange[16][];
+    private int size = 0;
+
+    private final int start;
+    private final int slotCount;
+
+    private Program(Node node, int groupCount)
+    {
+        this.slotCount = 2 * (groupCount + 1);
+        final int match = add(MATCH, -1, 0, null);
+        final int end = add(SAVE, match, 1, null);
+        this.start = add(SAVE, node.accept(new Compiler(end)), 0, null);
+    }
+
+    /**
+     * @param node a tree parsed with captures
+     * @return the program matching the tree
+     */
+    static Program compile(Node node)
+    {
+        return new Program(node, node.accept(new GroupCounter()));
+    }
+
+    private int add(int op, int next, int arg, CharRange[] ranges)
+    {
+        if (size == ops.length)
+        {
+            final int capacity = size * 2;
+            ops = Arrays.copyOf(ops, capacity);
+            nexts = Arrays.copyOf(nexts, capacity);
+            args = Arrays.copyOf(args, capacity);
+            this.ranges = Arrays.copyOf(this.ranges, capacity);
+        }
+        ops[size] = op;
+        nexts[size] = next;
+        args[size] = arg;
+        this.ranges[size] = ranges;
+        return size++;
+    }
+
+    int getStart()
+    {
+        return start;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    int getSlotCount()
+    {
+        return slotCount;
+    }
+
+    int op(int pc)
+    {
+        return ops[pc];
+    }
+
+    /**
+     * @return the target of an instruction, the preferred one of a split
+     */
+    int next(int pc)
+    {
+        return nexts[pc];
+    }
+
+    /**
+     * @return the second target of a split or the slot of a save
+     */
+    int arg(int pc)
+    {
+        return args[pc];
+    }
+
+    CharRange[] ranges(int pc)
+    {
+        return ranges[pc];
+    }
+
+    boolean reads(int pc, char c)
+    {
+        if (ops[pc] == ANY)
+        {
+            return true;
+        }
+        for (final CharRange range : ranges[pc])
+        {
+            if (range.contains(c))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles nodes back to front: each node is compiled with the entry of its continuation and returns its own
+     * entry.
+     */
+    private final class Compiler implements NodeVisitor<Integer>
+    {
+        private int next;
+
+        private Compiler(int next)
+        {
+            this.next = next;
+        }
+
+        private int compile(Node node, int next)
+        {
+            final int previous = this.next;
+            this.next = next;
+            final int entry = node.accept(this);
+            this.next = previous;
+            return entry;
+        }
+
+        @Override
+        public Integer visitEpsilon(Epsilon node)
+        {
+            return next;
+        }
+
+        @Override
+        public Integer visitCharClass(CharClass node)
+        {
+            return add(CHAR, next, 0, node.getRanges().toArray(new CharRange[0]));
+        }
+
+        @Override
+        public Integer visitWildcard(Wildcard node)
+        {
+            return add(ANY, next, 0, null);
+        }
+
+        @Override
+        public Integer visitSequence(Sequence node)
+        {
+            final List<Node> elements = node.getElements();
+            int entry = next;
+            for (int i = elements.size() - 1; i >= 0; --i)
+            {
+                entry = compile(elements.get(i), entry);
+            }
+            return entry;
+        }
+
+        @Override
+        public Integer visitAlternation(Alternation node)
+        {
+            final List<Node> alternatives = node.getAlternatives();
+            int entry = compile(alternatives.get(alternatives.size() - 1), next);
+            for (int i = alternatives.size() - 2; i >= 0; --i)
+            {
+                entry = add(SPLIT, compile(alternatives.get(i), next), entry, null);
+            }
+            return entry;
+        }
+
+        @Override
+        public Integer visitRepetition(Repetition node)
+        {
+            int entry;
+            if (node.isUnbounded())
+            {
+                // the loop prefers another iteration over leaving
+                entry = add(SPLIT, -1, next, null);
+                // compiling the body may grow the arrays, so they are only read afterwards
+                final int body = compile(node.getBody(), entry);
+                nexts[entry] = body;
+            }
+            else
+            {
+                // optional iterations are nested, so each one is only tried after the previous one matched
+                entry = next;
+                for (int i = node.getMin(); i < node.getMax(); ++i)
+                {
+                    entry = add(SPLIT, compile(node.getBody(), entry), next, null);
+                }
+            }
+            for (int i = 0; i < node.getMin(); ++i)
+            {
+                entry = compile(node.getBody(), entry);
+            }
+            return entry;
+        }
+
+        @Override
+        public Integer visitGroup(Group node)
+        {
+            final int end = add(SAVE, next, 2 * node.getIndex() + 1, null);
+            return add(SAVE, compile(node.getNode(), end), 2 * node.getIndex(), null);
+        }
+
+        @Override
+        public Integer visitIntersection(Intersection node)
+        {
+            throw new IllegalArgumentException("Intersections don't support captures: " + node);
+        }
+
+        @Override
+        public Integer visitComplement(Complement node)
+        {
+            throw new IllegalArgumentException("Complements don't support captures: " + node);
+        }
+    }
+
+    /**
+     * Finds the highest group number.
+     */
+    private static final class GroupCounter implements NodeVisitor<Integer>
+    {
+        @Override
+        public Integer visitEpsilon(Epsilon node)
+        {
+            return 0;
+        }
+
+        @Override
+        public Integer visitCharClass(CharClass node)
+        {
+            return 0;
+        }
+
+        @Override
+        public Integer visitWildcard(Wildcard node)
+        {
+            return 0;
+        }
+
+        @Override
+        public Integer visitSequence(Sequence node)
+        {
+            return max(node.getElements());
+        }
+
+        @Override
+        public Integer visitAlternation(Alternation node)
+        {
+            return max(node.getAlternatives());
+        }
+
+        @Override
+        public Integer visitRepetition(Repetition node)
+        {
+            return node.getBody().accept(this);
+        }
+
+        @Override
+        public Integer visitGroup(Group node)
+        {
+            return Math.max(node.getIndex(), node.getNode().accept(this));
+        }
+
+        @Override
+        public Integer visitIntersection(Intersection node)
+        {
+            return max(node.getOperands());
+        }
+
+        @Override
+        public Integer visitComplement(Complement node)
+        {
+            return node.getBody().accept(this);
+        }
+
+        private int max(List<Node> nodes)
+        {
+            int max = 0;
+            for (final Node node : nodes)
+            {
+                max = Math.max(max, node.accept(this));
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import tel.schich.automata.util.CaseFolding;
+
+/**
+ * A compiled DFA with its transition table in a heap array.
+ */
+public final class ArrayDFA extends CompiledDFA
+{
+    private final int[] table;
+    private final long[] accepting;
+    private final int[] patternIds;
+
+    ArrayDFA(ClassMap classMap, int stateCount, int[] table, long[] accepting, int[] patternIds)
+    {
+        super(classMap, stateCount);
+        this.table = table;
+        this.accepting = accepting;
+        this.patternIds = patternIds;
+    }
+
+    /**
+     * @param folding the case folding
+     * @return this DFA over the folded alphabet with a {@link ClassMap#foldCase(CaseFolding) folded class map}
+     */
+    public ArrayDFA foldCase(CaseFolding folding)
+    {
+        return new ArrayDFA(getClassMap().foldCase(folding), getStateCount(), table, accepting, patternIds);
+    }
+
+    @Override
+    public boolean matches(CharSequence input)
+    {
+        final ClassMap classMap = getClassMap();
+        final int[] table = this.table;
+        final int classCount = getClassCount();
+        final int dead = getStateCount();
+        int state = 0;
+        for (int i = 0, length = input.length(); i < length; ++i)
+        {
+            state = table[state * classCount + classMap.classOf(input.charAt(i))];
+            if (state == dead)
+            {
+                return false;
+            }
+        }
+        return isAccepting(state);
+    }
+
+    @Override
+    public boolean matches(char[] input, int offset, int length)
+    {
+        final ClassMap classMap = getClassMap();
+        final int[] table = this.table;
+        final int classCount = getClassCount();
+        final int dead = getStateCount();
+        int state = 0;
+        for (int i = offset, end = offset + length; i < end; ++i)
+        {
+            state = table[state * classCount + classMap.classOf(input[i])];
+            if (state == dead)
+            {
+                return false;
+            }
+        }
+        return isAccepting(state);
+    }
+
+    @Override
+    public int target(int state, int charClass)
+    {
+        return table[state * getClassCount() + charClass];
+    }
+
+    @Override
+    public boolean isAccepting(int state)
+    {
+        return (accepting[state >>> 6] & (1L << state)) != 0;
+    }
+
+    @Override
+    public boolean hasPatternIds()
+    {
+        return patternIds != null;
+    }
+
+    @Override
+    public int getPatternId(int state)
+    {
+        return patternIds == null ? NO_PATTERN : patternIds[state];
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tel.schich.automata.NFA;
+import tel.schich.automata.util.CaseFolding;
+import tel.schich.automata.State;
+import tel.schich.automata.transition.RangeTransition;
+import tel.schich.automata.transition.Transition;
+import tel.schich.automata.transition.WildcardTransition;
+import tel.schich.automata.util.CharRange;
+
+/**
+ * Simulates an NFA of at most 64 states with the set of active states in a single long. This requires all
+ * transitions into a state to read the same characters, which holds for position automata: the next set is then the
+ * union of the successors of the active states masked by the states entered by the character's class. The successors of 8
+ * states at a time are looked up in tables.
+ */
+final class BitParallelMatcher implements CompiledMatcher
+{
+    static final int MAXIMUM_STATES = Long.SIZE;
+
+    private final ClassMap classMap;
+    private final long[] classMasks;
+    private final long[][] successors;
+    private final long accepting;
+
+    private BitParallelMatcher(ClassMap classMap, long[] classMasks, long[][] successors, long accepting)
+    {
+        this.classMap = classMap;
+        this.classMasks = classMasks;
+        this.successors = successors;
+        this.accepting = accepting;
+    }
+
+    /**
+     * @param nfa an epsilon-free NFA
+     * @param folding the folding of the alphabet of the NFA, which the class map applies to inputs, or null
+     * @return the matcher or null if the NFA has too many states or states entered by different characters
+     */
+    static BitParallelMatcher create(NFA nfa, CaseFolding folding)
+    {
+        final int stateCount = nfa.getStateCount();
+        if (stateCount > MAXIMUM_STATES)
+        {
+            return null;
+        }
+
+        final List<CharRange> runs = CompiledDFA.coveringRuns(nfa.getExplicitRanges());
+        final char[] starts = new char[runs.size()];
+        for (int i = 0; i < starts.length; ++i)
+        {
+            starts[i] = runs.get(i).getFirst();
+        }
+
+        // a wildcard only reads all characters if its origin has no explicit transitions
+        final Set<State> explicitOrigins = new HashSet<>();
+        for (final Transition transition : nfa.getTransitions())
+        {
+            if (transition instanceof RangeTransition)
+            {
+                explicitOrigins.add(transition.getOrigin());
+            }
+        }
+
+        // the runs by which each origin enters each destination, several ranges may lead to the same destination
+        final long[][][] labels = new long[stateCount][stateCount][];
+        final long[] follow = new long[stateCount];
+        for (final Transition transition : nfa.getTransitions())
+        {
+            final int origin = nfa.indexOf(transition.getOrigin());
+            final int destination = nfa.indexOf(transition.getDestination());
+            if (labels[origin][destination] == null)
+            {
+                labels[origin][destination] = new long[CompiledDFA.words(starts.length)];
+            }
+            final long[] label = labels[origin][destination];
+            if (transition instanceof WildcardTransition)
+            {
+                if (explicitOrigins.contains(transition.getOrigin()))
+                {
+                    return null;
+                }
+                for (int run = 0; run < starts.length; ++run)
+                {
+                    label[run >>> 6] |= 1L << run;
+                }
+            }
+            else if (transition instanceof RangeTransition)
+            {
+                final RangeTransition range = (RangeTransition)transition;
+                for (int run = 0; run < starts.length; ++run)
+                {
+                    if (range.contains(starts[run]))
+                    {
+                        label[run >>> 6] |= 1L << run;
+                    }
+                }
+            }
+            else
+            {
+                return null;
+            }
+            follow[origin] |= 1L << destination;
+        }
+
+        // every origin has to enter a destination by the same characters
+        final long[] columns = new long[starts.length];
+        for (int destination = 0; destination < stateCount; ++destination)
+        {
+            long[] entering = null;
+            for (int origin = 0; origin < stateCount; ++origin)
+            {
+                final long[] label = labels[origin][destination];
+                if (label == null)
+                {
+                    continue;
+                }
+                if (entering == null)
+                {
+                    entering = label;
+                }
+                else if (!Arrays.equals(entering, label))
+                {
+                    return null;
+                }
+            }
+            if (entering != null)
+            {
+                for (int run = 0; run < starts.length; ++run)
+                {
+                    if ((entering[run >>> 6] & (1L << run)) != 0)
+                    {
+                        columns[run] |= 1L << destination;
+                    }
+                }
+            }
+        }
+
+        // runs entering the same states form one class
+        final Map<Long, Integer> classIds = new HashMap<>();
+        final int[] classes = new int[starts.length];
+        final long[] classMasks = new long[starts.length];
+        for (int run = 0; run < starts.length; ++run)
+        {
+            final Integer known = classIds.get(columns[run]);
+            if (known == null)
+            {
+                classes[run] = classIds.size();
+                classMasks[classes[run]] = columns[run];
+                classIds.put(columns[run], classes[run]);
+            }
+            else
+            {
+                classes[run] = known;
+            }
+        }
+
+        final long[][] successors = new long[(stateCount + 7) / 8][256];
+        for (int chunk = 0; chunk < successors.length; ++chunk)
+        {
+            for (int bits = 1; bits < 256; ++bits)
+            {
+                // extends the entry without the lowest bit by the successors of the lowest bit's state
+                final int lowest = Integer.numberOfTrailingZeros(bits);
+                final int state = chunk * 8 + lowest;
+                successors[chunk][bits] = successors[chunk][bits & (bits - 1)] | (state < stateCount ? follow[state] : 0);
+            }
+        }
+
+        long accepting = 0;
+        for (int state = 0; state < stateCount; ++state)
+        {
+            if (nfa.isAccepting(state))
+            {
+                accepting |= 1L << state;
+            }
+        }
+        final ClassMap classMap = new ClassMap(starts, classes, classIds.size());
+        return new BitParallelMatcher(folding != null ? classMap.foldCase(folding) : classMap,
+                                      Arrays.copyOf(classMasks, classIds.size()), successors, accepting);
+    }
+
+    @Override
+    public boolean matches(CharSequence input)
+    {
+        long states = 1;
+        for (int i = 0, length = input.length(); i < length; ++i)
+        {
+            states = step(states, input.charAt(i));
+            if (states == 0)
+            {
+                return false;
+            }
+        }
+        return (states & accepting) != 0;
+    }
+
+    @Override
+    public boolean matches(char[] input, int offset, int length)
+    {
+        long states = 1;
+        for (int i = offset, end = offset + length; i < end; ++i)
+        {
+            states = step(states, input[i]);
+            if (states == 0)
+            {
+                return false;
+            }
+        }
+        return (states & accepting) != 0;
+    }
+
+    private long step(long states, char c)
+    {
+        final long[][] successors = this.successors;
+        long next = 0;
+        for (int chunk = 0; chunk < successors.length; ++chunk)
+        {
+            next |= successors[chunk][(int)(states >>> (chunk * 8)) & 0xFF];
+        }
+        return next & classMasks[classMap.classOf(c)];
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A compiled DFA that reads its transition table, accepting states and pattern ids directly from a buffer in the
+ * {@link DFAFormat}, without copying them to the heap. Only the class map is read into memory. Backed by a memory
+ * mapped file, the table is loaded lazily by the operating system and shared through the page cache by all processes
+ * mapping the same file.
+ * <p>
+ * Only absolute reads are used, so a single instance can be used by several threads, as long as nobody modifies the
+ * buffer.
+ * <p>
+ * {@link #wrap(ByteBuffer)} and {@link #map(Path)} check every target state of the table once, which is still far
+ * cheaper than compiling the pattern again. {@link #wrapTrusted(ByteBuffer)} skips that check for buffers known to be
+ * valid, a corrupt table then fails in the middle of a match or gives wrong results.
+ */
+public final class BufferDFA extends CompiledDFA
+{
+    private final ByteBuffer buffer;
+    private final int stateWidth;
+    private final int tableOffset;
+    private final int acceptingOffset;
+    private final int patternIdsOffset;
+
+    private BufferDFA(ClassMap classMap, int stateCount, ByteBuffer buffer, int tableOffset, boolean hasPatternIds)
+    {
+        super(classMap, stateCount);
+        this.buffer = buffer;
+        this.stateWidth = DFAFormat.width(stateCount);
+        this.tableOffset = tableOffset;
+        this.acceptingOffset = tableOffset + stateCount * classMap.getClassCount() * stateWidth;
+        this.patternIdsOffset = hasPatternIds ? acceptingOffset + words(stateCount) * Long.BYTES : -1;
+    }
+
+    /**
+     * Uses the serialized DFA starting at the position of the given buffer, after checking that all of its target
+     * states exist. The position of the buffer is not changed.
+     *
+     * @param buffer the buffer
+     * @return the DFA reading from the buffer
+     * @throws IllegalArgumentException if the buffer doesn't contain a valid DFA
+     */
+    public static BufferDFA wrap(ByteBuffer buffer)
+    {
+        final BufferDFA dfa = wrapTrusted(buffer);
+        final int stateCount = dfa.getStateCount();
+        final int classCount = dfa.getClassCount();
+        for (int state = 0; state < stateCount; ++state)
+        {
+            for (int charClass = 0; charClass < classCount; ++charClass)
+            {
+                final int target = dfa.target(state, charClass);
+                if (target < 0 || target > stateCount)
+                {
+                    throw new IllegalArgumentException("Illegal target state " + target + " of " + stateCount);
+                }
+            }
+        }
+        return dfa;
+    }
+
+    /**
+     * Like {@link #wrap(ByteBuffer)}, but only checks the header and the length, the table is trusted.
+     *
+     * @param buffer the buffer
+     * @return the DFA reading from the buffer
+     * @throws IllegalArgumentException if the header is invalid or the buffer is too short
+     */
+    public static BufferDFA wrapTrusted(ByteBuffer buffer)
+    {
+        final ByteBuffer data = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        checkLength(data, DFAFormat.HEADER_SIZE);
+        final int flags = DFAFormat.readHeader(data.getInt(0), data.getInt(4), data.getInt(8));
+        final int stateCount = data.getInt(12);
+        final int classCount = data.getInt(16);
+        final int runCount = data.getInt(20);
+        DFAFormat.checkCounts(stateCount, classCount, runCount);
+        final int classWidth = DFAFormat.width(classCount - 1);
+        checkLength(data, DFAFormat.HEADER_SIZE + (long)runCount * (Character.BYTES + classWidth));
+
+        int offset = DFAFormat.HEADER_SIZE;
+        final char[] starts = new char[runCount];
+        for (int run = 0; run < runCount; ++run)
+        {
+            starts[run] = data.getChar(offset);
+            offset += Character.BYTES;
+        }
+        final int[] classes = new int[runCount];
+        for (int run = 0; run < runCount; ++run)
+        {
+            classes[run] = read(data, offset, classWidth);
+            offset += classWidth;
+        }
+
+        final boolean hasPatternIds = (flags & DFAFormat.FLAG_PATTERN_IDS) != 0;
+        long end = offset + (long)stateCount * classCount * DFAFormat.width(stateCount);
+        end += (long)words(stateCount) * Long.BYTES;
+        if (hasPatternIds)
+        {
+            end += (long)stateCount * Integer.BYTES;
+        }
+        checkLength(data, end);
+        return new BufferDFA(new ClassMap(starts, classes, classCount), stateCount, data, offset, hasPatternIds);
+    }
+
+    /**
+     * Maps the given file read-only and uses the DFA at its start, checked like {@link #wrap(ByteBuffer)}.
+     *
+     * @param file a file containing a serialized DFA
+     * @return the DFA reading from the mapped file
+     * @throws IOException if the file can't be mapped
+     * @throws IllegalArgumentException if the file doesn't contain a valid DFA
+     */
+    public static BufferDFA map(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return wrap(mapped);
+        }
+    }
+
+    private static void checkLength(ByteBuffer data, long end)
+    {
+        if (end > data.limit())
+        {
+            throw new IllegalArgumentException("The buffer ends before the DFA: " + data.limit() + " < " + end);
+        }
+    }
+
+    private static int read(ByteBuffer buffer, int offset, int width)
+    {
+        switch (width)
+        {
+            case 1:
+                return buffer.get(offset) & 0xFF;
+            case 2:
+                return buffer.getChar(offset);
+            default:
+                return buffer.getInt(offset);
+        }
+    }
+
+    @Override
+    public boolean matches(CharSequence input)
+    {
+        final ClassMap classMap = getClassMap();
+        final int dead = getStateCount();
+        int state = 0;
+        for (int i = 0, length = input.length(); i < length; ++i)
+        {
+            state = target(state, classMap.classOf(input.charAt(i)));
+            if (state == dead)
+            {
+                return false;
+            }
+        }
+        return isAccepting(state);
+    }
+
+    @Override
+    public boolean matches(char[] input, int offset, int length)
+    {
+        final ClassMap classMap = getClassMap();
+        final int dead = getStateCount();
+        int state = 0;
+        for (int i = offset, end = offset + length; i < end; ++i)
+        {
+            state = target(state, classMap.classOf(input[i]));
+            if (state == dead)
+            {
+                return false;
+            }
+        }
+        return isAccepting(state);
+    }
+
+    @Override
+    public int target(int state, int charClass)
+    {
+        final int width = this.stateWidth;
+        return read(buffer, tableOffset + (state * getClassCount() + charClass) * width, width);
+    }
+
+    @Override
+    public boolean isAccepting(int state)
+    {
+        return (buffer.getLong(acceptingOffset + (state >>> 6) * Long.BYTES) & (1L << state)) != 0;
+    }
+
+    @Override
+    public boolean hasPatternIds()
+    {
+        return patternIdsOffset >= 0;
+    }
+
+    @Override
+    public int getPatternId(int state)
+    {
+        return patternIdsOffset < 0 ? NO_PATTERN : buffer.getInt(patternIdsOffset + state * Integer.BYTES);
+    }
+}
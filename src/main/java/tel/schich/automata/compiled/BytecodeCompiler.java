@@ -0,0 +1,577 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tel.schich.automata.DFA;
+
+/**
+ * Generates a class per compiled DFA that implements the match loop as nested switches over the state and the
+ * equivalence class, so the JIT can keep the state in a register and predict the transitions of hot states.
+ * <p>
+ * Classes are defined as hidden classes on Java 15 and later and by a class loader of their own on older versions,
+ * either way they can be unloaded together with their matcher. DFAs whose match loop would exceed the code size limit
+ * are not generated, instead the table is returned, as the JIT does not compile huge methods.
+ */
+public final class BytecodeCompiler
+{
+    /**
+     * HotSpot does not compile methods larger than 8000 bytes of code.
+     */
+    public static final int DEFAULT_MAXIMUM_CODE_SIZE = 8000;
+
+    private static final int MAXIMUM_METHOD_SIZE = 65535;
+
+    private static final String CLASS_NAME = "tel/schich/automata/compiled/GeneratedMatcher";
+    private static final String MATCHER_NAME = "tel/schich/automata/compiled/CompiledMatcher";
+    private static final String CLASS_MAP_NAME = "tel/schich/automata/compiled/ClassMap";
+    private static final String CLASS_MAP_DESCRIPTOR = "L" + CLASS_MAP_NAME + ";";
+    private static final String FIELD_NAME = "classMap";
+
+    // class files before version 50 need no stack map frames
+    private static final int CLASS_VERSION = 49;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final Method DEFINE_HIDDEN_CLASS;
+    private static final Object NO_CLASS_OPTIONS;
+
+    static
+    {
+        Method defineHiddenClass = null;
+        Object options = null;
+        try
+        {
+            final Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            options = Array.newInstance(optionClass, 0);
+            defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+        }
+        catch (ClassNotFoundException | NoSuchMethodException e)
+        {
+            // before Java 15 the class loader is used
+        }
+        DEFINE_HIDDEN_CLASS = defineHiddenClass;
+        NO_CLASS_OPTIONS = options;
+    }
+
+    private BytecodeCompiler()
+    {
+    }
+
+    public static CompiledMatcher compile(DFA dfa)
+    {
+        return compile(CompiledDFA.compile(dfa));
+    }
+
+    public static CompiledMatcher compile(CompiledDFA dfa)
+    {
+        return compile(dfa, DEFAULT_MAXIMUM_CODE_SIZE);
+    }
+
+    /**
+     * Generates a matcher for the given compiled DFA.
+     *
+     * @param dfa the compiled DFA
+     * @param maximumCodeSize the maximum number of bytes of code of each match method
+     * @return the generated matcher or the given DFA itself if the generated code would be too large
+     */
+    public static CompiledMatcher compile(CompiledDFA dfa, int maximumCodeSize)
+    {
+        final byte[] bytes = generate(dfa, maximumCodeSize);
+        if (bytes == null)
+        {
+            return dfa;
+        }
+        return instantiate(DEFINE_HIDDEN_CLASS != null ? defineHidden(bytes) : defineLoaded(bytes), dfa.getClassMap());
+    }
+
+    /**
+     * @param dfa the compiled DFA
+     * @param maximumCodeSize the maximum number of bytes of code of each match method
+     * @return the class file or null if the code would be too large
+     */
+    static byte[] generate(CompiledDFA dfa, int maximumCodeSize)
+    {
+        if (dfa.getStateCount() > Short.MAX_VALUE)
+        {
+            return null;
+        }
+        final ConstantPool pool = new ConstantPool();
+        final int fieldRef = pool.member(9, CLASS_NAME, FIELD_NAME, CLASS_MAP_DESCRIPTOR);
+
+        final Code constructor = new Code();
+        constructor.op(0x2A); // aload_0
+        constructor.op(0xB7).u2(pool.member(10, "java/lang/Object", "<init>", "()V")); // invokespecial
+        constructor.op(0x2A); // aload_0
+        constructor.op(0x2B); // aload_1
+        constructor.op(0xB5).u2(fieldRef); // putfield
+        constructor.op(0xB1); // return
+
+        final int classOf = pool.member(10, CLASS_MAP_NAME, "classOf", "(C)I");
+
+        // locals: this, input, classMap, state, i, length, charClass
+        final Code sequence = new Code();
+        sequence.op(0x2A).op(0xB4).u2(fieldRef).store(0x3A, 2); // classMap = this.classMap
+        sequence.pushInt(0).store(0x36, 3); // state = 0
+        sequence.pushInt(0).store(0x36, 4); // i = 0
+        sequence.op(0x2B).op(0xB9).u2(pool.member(11, "java/lang/CharSequence", "length", "()I")).u1(1).u1(0);
+        sequence.store(0x36, 5); // length = input.length()
+        final int charAt = pool.member(11, "java/lang/CharSequence", "charAt", "(I)C");
+        matchLoop(sequence, dfa, classOf, 4, 5, 3, 6, () -> {
+            sequence.load(0x19, 2).op(0x2B).load(0x15, 4); // classMap, input, i
+            sequence.op(0xB9).u2(charAt).u1(2).u1(0); // invokeinterface
+        });
+
+        // locals: this, input, offset, length, classMap, state, i, end, charClass
+        final Code array = new Code();
+        array.op(0x2A).op(0xB4).u2(fieldRef).store(0x3A, 4); // classMap = this.classMap
+        array.pushInt(0).store(0x36, 5); // state = 0
+        array.load(0x15, 2).store(0x36, 6); // i = offset
+        array.load(0x15, 2).load(0x15, 3).op(0x60).store(0x36, 7); // end = offset + length
+        matchLoop(array, dfa, classOf, 6, 7, 5, 8, () -> array.load(0x19, 4).op(0x2B).load(0x15, 6).op(0x34)); // classMap, input[i]
+
+        final int codeLimit = Math.min(maximumCodeSize, MAXIMUM_METHOD_SIZE);
+        if (sequence.size() > codeLimit || array.size() > codeLimit)
+        {
+            return null;
+        }
+        final byte[] constructorCode = constructor.resolve();
+        final byte[] sequenceCode = sequence.resolve();
+        final byte[] arrayCode = array.resolve();
+        if (sequenceCode == null || arrayCode == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            final int thisClass = pool.classRef(CLASS_NAME);
+            final int superClass = pool.classRef("java/lang/Object");
+            final int matcher = pool.classRef(MATCHER_NAME);
+            final int fieldName = pool.utf8(FIELD_NAME);
+            final int fieldDescriptor = pool.utf8(CLASS_MAP_DESCRIPTOR);
+            final int code = pool.utf8("Code");
+            final int[] methodNames = {pool.utf8("<init>"), pool.utf8("matches"), pool.utf8("matches")};
+            final int[] methodDescriptors = {pool.utf8("(" + CLASS_MAP_DESCRIPTOR + ")V"), pool.utf8("(Ljava/lang/CharSequence;)Z"), pool.utf8("([CII)Z")};
+            final byte[][] methodCodes = {constructorCode, sequenceCode, arrayCode};
+            final int[] maxStacks = {2, 3, 3};
+            final int[] maxLocals = {2, 7, 9};
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            pool.write(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(matcher);
+
+            out.writeShort(1);
+            out.writeShort(ACC_PRIVATE | ACC_FINAL);
+            out.writeShort(fieldName);
+            out.writeShort(fieldDescriptor);
+            out.writeShort(0);
+
+            out.writeShort(methodCodes.length);
+            for (int i = 0; i < methodCodes.length; ++i)
+            {
+                out.writeShort(ACC_PUBLIC);
+                out.writeShort(methodNames[i]);
+                out.writeShort(methodDescriptors[i]);
+                out.writeShort(1);
+                out.writeShort(code);
+                out.writeInt(12 + methodCodes[i].length);
+                out.writeShort(maxStacks[i]);
+                out.writeShort(maxLocals[i]);
+                out.writeInt(methodCodes[i].length);
+                out.write(methodCodes[i]);
+                out.writeShort(0); // exception table
+                out.writeShort(0); // attributes
+            }
+            out.writeShort(0);
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Emits the match loop: each character is mapped to its class, the index advanced and the transition taken by
+     * switching over the state and then the class. Transitions to the dead state return false right away, self loops
+     * continue without storing the state. Once the index reaches the end, the loop returns whether the state is
+     * accepting.
+     *
+     * @param loadCharacter emits the code that pushes the class map and the character at the index
+     */
+    private static void matchLoop(Code code, CompiledDFA dfa, int classOf, int index, int end, int state, int charClass, Runnable loadCharacter)
+    {
+        final int stateCount = dfa.getStateCount();
+        final int classCount = dfa.getClassCount();
+        final Label loop = new Label();
+        final Label done = new Label();
+        final Label accept = new Label();
+        final Label reject = new Label();
+
+        code.mark(loop);
+        code.load(0x15, index).load(0x15, end).jump(0xA2, done); // if_icmpge
+        loadCharacter.run();
+        code.op(0xB6).u2(classOf).store(0x36, charClass); // invokevirtual
+        code.op(0x84).u1(index).u1(1); // iinc
+        final Label[] states = new Label[stateCount];
+        for (int s = 0; s < stateCount; ++s)
+        {
+            states[s] = new Label();
+        }
+        code.load(0x15, state).tableSwitch(reject, states);
+
+        for (int s = 0; s < stateCount; ++s)
+        {
+            code.mark(states[s]);
+            final Map<Integer, Label> assignments = new LinkedHashMap<>();
+            final Label[] targets = new Label[classCount];
+            for (int c = 0; c < classCount; ++c)
+            {
+                final int target = dfa.target(s, c);
+                if (target == stateCount)
+                {
+                    targets[c] = reject;
+                }
+                else if (target == s)
+                {
+                    targets[c] = loop;
+                }
+                else
+                {
+                    targets[c] = assignments.computeIfAbsent(target, t -> new Label());
+                }
+            }
+            code.load(0x15, charClass).tableSwitch(reject, targets);
+            for (final Map.Entry<Integer, Label> assignment : assignments.entrySet())
+            {
+                code.mark(assignment.getValue());
+                code.pushInt(assignment.getKey()).store(0x36, state);
+                code.jump(0xA7, loop); // goto
+            }
+        }
+
+        final Label[] accepting = new Label[stateCount];
+        for (int s = 0; s < stateCount; ++s)
+        {
+            accepting[s] = dfa.isAccepting(s) ? accept : reject;
+        }
+        code.mark(done);
+        code.load(0x15, state).tableSwitch(reject, accepting);
+        code.mark(accept);
+        code.pushInt(1).op(0xAC); // ireturn
+        code.mark(reject);
+        code.pushInt(0).op(0xAC); // ireturn
+    }
+
+    private static Class<?> defineHidden(byte[] bytes)
+    {
+        try
+        {
+            final MethodHandles.Lookup lookup = (MethodHandles.Lookup)DEFINE_HIDDEN_CLASS.invoke(MethodHandles.lookup(), bytes, true, NO_CLASS_OPTIONS);
+            return lookup.lookupClass();
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException("Failed to define the matcher class!", e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new IllegalStateException("Failed to define the matcher class!", e.getCause());
+        }
+    }
+
+    static Class<?> defineLoaded(byte[] bytes)
+    {
+        return new MatcherLoader(BytecodeCompiler.class.getClassLoader()).define(bytes);
+    }
+
+    private static CompiledMatcher instantiate(Class<?> matcherClass, ClassMap classMap)
+    {
+        try
+        {
+            return (CompiledMatcher)matcherClass.getConstructor(ClassMap.class).newInstance(classMap);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Failed to instantiate the matcher class!", e);
+        }
+    }
+
+    static CompiledMatcher instantiateLoaded(byte[] bytes, ClassMap classMap)
+    {
+        return instantiate(defineLoaded(bytes), classMap);
+    }
+
+    /**
+     * Defines a single matcher class, so it can be unloaded with its matcher.
+     */
+    private static final class MatcherLoader extends ClassLoader
+    {
+        private MatcherLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        private Class<?> define(byte[] bytes)
+        {
+            return defineClass(CLASS_NAME.replace('/', '.'), bytes, 0, bytes.length);
+        }
+    }
+
+    private static final class Label
+    {
+        private int position = -1;
+    }
+
+    /**
+     * A method body with forward references to labels, which are resolved at the end.
+     */
+    private static final class Code
+    {
+        private byte[] bytes = new byte[256];
+        private int size;
+        private final List<int[]> references = new ArrayList<>();
+        private final List<Label> referenced = new ArrayList<>();
+
+        private Code u1(int value)
+        {
+            if (size == bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte)value;
+            return this;
+        }
+
+        private Code u2(int value)
+        {
+            return u1(value >>> 8).u1(value);
+        }
+
+        private Code u4(int value)
+        {
+            return u2(value >>> 16).u2(value);
+        }
+
+        private Code op(int opcode)
+        {
+            return u1(opcode);
+        }
+
+        private Code load(int opcode, int local)
+        {
+            return op(opcode).u1(local);
+        }
+
+        private Code store(int opcode, int local)
+        {
+            return op(opcode).u1(local);
+        }
+
+        private Code pushInt(int value)
+        {
+            if (value >= -1 && value <= 5)
+            {
+                return op(0x03 + value); // iconst
+            }
+            if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+            {
+                return op(0x10).u1(value); // bipush
+            }
+            if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+            {
+                return op(0x11).u2(value); // sipush
+            }
+            throw new IllegalArgumentException("Constant out of range: " + value);
+        }
+
+        private Label mark(Label label)
+        {
+            label.position = size;
+            return label;
+        }
+
+        private Code jump(int opcode, Label label)
+        {
+            final int instruction = size;
+            op(opcode);
+            reference(label, instruction, 2);
+            return u2(0);
+        }
+
+        private Code tableSwitch(Label defaultLabel, Label[] labels)
+        {
+            final int instruction = size;
+            op(0xAA); // tableswitch
+            while (size % 4 != 0)
+            {
+                u1(0);
+            }
+            reference(defaultLabel, instruction, 4);
+            u4(0);
+            u4(0);
+            u4(labels.length - 1);
+            for (final Label label : labels)
+            {
+                reference(label, instruction, 4);
+                u4(0);
+            }
+            return this;
+        }
+
+        private void reference(Label label, int instruction, int width)
+        {
+            references.add(new int[] {instruction, size, width});
+            referenced.add(label);
+        }
+
+        private int size()
+        {
+            return size;
+        }
+
+        /**
+         * @return the code or null if a jump is out of range
+         */
+        private byte[] resolve()
+        {
+            for (int i = 0; i < references.size(); ++i)
+            {
+                final int[] reference = references.get(i);
+                final int offset = referenced.get(i).position - reference[0];
+                int at = reference[1];
+                if (reference[2] == 2)
+                {
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                    {
+                        return null;
+                    }
+                }
+                else
+                {
+                    bytes[at++] = (byte)(offset >>> 24);
+                    bytes[at++] = (byte)(offset >>> 16);
+                }
+                bytes[at++] = (byte)(offset >>> 8);
+                bytes[at] = (byte)offset;
+            }
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    private static final class ConstantPool
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        private int utf8(String value)
+        {
+            return entry("1:" + value, () -> out.writeUTF(value), 1);
+        }
+
+        private int classRef(String name)
+        {
+            final int nameIndex = utf8(name);
+            return entry("7:" + name, () -> out.writeShort(nameIndex), 7);
+        }
+
+        /**
+         * @param tag the tag of a field, method or interface method reference
+         */
+        private int member(int tag, String owner, String name, String descriptor)
+        {
+            final int ownerIndex = classRef(owner);
+            final int nameIndex = utf8(name);
+            final int descriptorIndex = utf8(descriptor);
+            final int nameAndType = entry("12:" + name + ":" + descriptor, () -> {
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            }, 12);
+            return entry(tag + ":" + owner + "." + name + ":" + descriptor, () -> {
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            }, tag);
+        }
+
+        private int entry(String key, Body body, int tag)
+        {
+            final Integer existing = entries.get(key);
+            if (existing != null)
+            {
+                return existing;
+            }
+            try
+            {
+                out.writeByte(tag);
+                body.write();
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            entries.put(key, count);
+            return count++;
+        }
+
+        private void write(DataOutputStream target) throws IOException
+        {
+            out.flush();
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+
+        private interface Body
+        {
+            void write() throws IOException;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import java.util.Arrays;
+
+import tel.schich.automata.util.CaseFolding;
+
+/**
+ * Maps characters to equivalence classes: characters of the same class lead to the same target in every state of a
+ * compiled automaton, so transition tables only need one column per class instead of one per character. The classes
+ * are stored as runs of consecutive characters, with a direct table for the first 256 characters.
+ */
+public final class ClassMap
+{
+    private static final int DIRECT_LIMIT = 256;
+
+    private final char[] starts;
+    private final int[] classes;
+    private final int classCount;
+    private final int[] direct;
+
+    /**
+     * @param starts the first characters of the runs, ascending and starting with 0
+     * @param classes the class of every run
+     * @param classCount the number of classes
+     */
+    ClassMap(char[] starts, int[] classes, int classCount)
+    {
+        if (starts.length == 0 || starts[0] != 0 || starts.length != classes.length)
+        {
+            throw new IllegalArgumentException("The runs must start at character 0 and have a class each!");
+        }
+        for (int i = 0; i < starts.length; ++i)
+        {
+            if (i > 0 && starts[i] <= starts[i - 1])
+            {
+                throw new IllegalArgumentException("The runs must be ascending!");
+            }
+            if (classes[i] < 0 || classes[i] >= classCount)
+            {
+                throw new IllegalArgumentException("Illegal class " + classes[i] + " of " + classCount);
+            }
+        }
+        this.starts = starts;
+        this.classes = classes;
+        this.classCount = classCount;
+        this.direct = new int[DIRECT_LIMIT];
+        for (int c = 0; c < DIRECT_LIMIT; ++c)
+        {
+            this.direct[c] = classOfRun((char)c);
+        }
+    }
+
+    public int classOf(char c)
+    {
+        if (c < DIRECT_LIMIT)
+        {
+            return direct[c];
+        }
+        return classOfRun(c);
+    }
+
+    private int classOfRun(char c)
+    {
+        // find the last run starting at or before c
+        int low = 0;
+        int high = starts.length - 1;
+        while (low <= high)
+        {
+            final int middle = (low + high) >>> 1;
+            if (starts[middle] <= c)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+        return classes[high];
+    }
+
+    public int getClassCount()
+    {
+        return classCount;
+    }
+
+    public int getRunCount()
+    {
+        return starts.length;
+    }
+
+    public char getRunStart(int run)
+    {
+        return starts[run];
+    }
+
+    /**
+     * @param run the run
+     * @return the last character of the run
+     */
+    public char getRunEnd(int run)
+    {
+        return run + 1 < starts.length ? (char)(starts[run + 1] - 1) : Character.MAX_VALUE;
+    }
+
+    public int getRunClass(int run)
+    {
+        return classes[run];
+    }
+
+    /**
+     * Maps every character to the class of its canonical character. Automata over the folded alphabet match
+     * case-insensitively with the folded map, at the cost of more runs but with the same classes.
+     *
+     * @param folding the case folding
+     * @return the folded class map
+     */
+    public ClassMap foldCase(CaseFolding folding)
+    {
+        final char[] foldedStarts = new char[Character.MAX_VALUE + 1];
+        final int[] foldedClasses = new int[Character.MAX_VALUE + 1];
+        int runCount = 0;
+        for (int c = 0; c <= Character.MAX_VALUE; ++c)
+        {
+            final int charClass = classOf(folding.fold((char)c));
+            if (runCount == 0 || foldedClasses[runCount - 1] != charClass)
+            {
+                foldedStarts[runCount] = (char)c;
+                foldedClasses[runCount] = charClass;
+                ++runCount;
+            }
+        }
+        return new ClassMap(Arrays.copyOf(foldedStarts, runCount), Arrays.copyOf(foldedClasses, runCount), classCount);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof ClassMap))
+        {
+            return false;
+        }
+        final ClassMap that = (ClassMap)o;
+        return classCount == that.classCount && Arrays.equals(starts, that.starts) && Arrays.equals(classes, that.classes);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * Arrays.hashCode(starts) + Arrays.hashCode(classes);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+import tel.schich.automata.DFA;
+import tel.schich.automata.State;
+import tel.schich.automata.transition.PlannedTransition;
+import tel.schich.automata.transition.RangeTransition;
+import tel.schich.automata.util.CharRange;
+
+/**
+ * A DFA compiled to a transition table: states are numbered densely with the start state at 0, characters are mapped
+ * to equivalence classes by a {@link ClassMap} and the table holds the target of every state and class. The number of
+ * states is used as the id of the dead state, which replaces the error state and ends matching early.
+ * <p>
+ * Accepting states can optionally carry the id of the pattern they belong to.
+ */
+public abstract class CompiledDFA implements CompiledMatcher
+{
+    public static final int NO_PATTERN = -1;
+
+    private final ClassMap classMap;
+    private final int stateCount;
+
+    CompiledDFA(ClassMap classMap, int stateCount)
+    {
+        this.classMap = classMap;
+        this.stateCount = stateCount;
+    }
+
+    public static ArrayDFA compile(DFA dfa)
+    {
+        return compile(dfa, null);
+    }
+
+    /**
+     * Compiles the given DFA into a table.
+     *
+     * @param dfa the DFA
+     * @param patternIds the pattern ids of the states or null to compile without pattern ids
+     * @return the compiled DFA
+     */
+    public static ArrayDFA compile(DFA dfa, ToIntFunction<State> patternIds)
+    {
+        final int stateCount = dfa.getStateCount();
+        final int dead = stateCount;
+
+        // every elementary interval of the explicit alphabet and every gap between them gets a column,
+        // equal columns share an equivalence class
+        final List<CharRange> runs = coveringRuns(dfa.getExplicitRanges());
+        final Map<Column, Integer> classes = new HashMap<>();
+        final List<int[]> columns = new ArrayList<>();
+        final char[] starts = new char[runs.size()];
+        final int[] runClasses = new int[runs.size()];
+        int runCount = 0;
+        for (final CharRange run : runs)
+        {
+            final int[] targets = new int[stateCount];
+            for (int state = 0; state < stateCount; ++state)
+            {
+                final int target = dfa.transition(state, run.getFirst());
+                targets[state] = target == DFA.ERROR_INDEX ? dead : target;
+            }
+            Integer charClass = classes.get(new Column(targets));
+            if (charClass == null)
+            {
+                charClass = columns.size();
+                classes.put(new Column(targets), charClass);
+                columns.add(targets);
+            }
+            // adjacent runs of the same class are merged
+            if (runCount == 0 || runClasses[runCount - 1] != charClass)
+            {
+                starts[runCount] = run.getFirst();
+                runClasses[runCount] = charClass;
+                ++runCount;
+            }
+        }
+
+        final int classCount = columns.size();
+        if ((long)stateCount * classCount > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("The table of " + stateCount + " states and " + classCount + " classes is too large!");
+        }
+        final int[] table = new int[stateCount * classCount];
+        for (int charClass = 0; charClass < classCount; ++charClass)
+        {
+            final int[] column = columns.get(charClass);
+            for (int state = 0; state < stateCount; ++state)
+            {
+                table[state * classCount + charClass] = column[state];
+            }
+        }
+
+        final long[] accepting = new long[words(stateCount)];
+        int[] ids = null;
+        if (patternIds != null)
+        {
+            ids = new int[stateCount];
+        }
+        for (int state = 0; state < stateCount; ++state)
+        {
+            if (dfa.isAccepting(state))
+            {
+                accepting[state >>> 6] |= 1L << state;
+            }
+            if (ids != null)
+            {
+                ids[state] = patternIds.applyAsInt(dfa.getState(state));
+            }
+        }
+
+        final ClassMap classMap = new ClassMap(Arrays.copyOf(starts, runCount), Arrays.copyOf(runClasses, runCount), classCount);
+        return new ArrayDFA(classMap, stateCount, table, accepting, ids);
+    }
+
+    /**
+     * Adds the gaps to the given sorted, disjoint ranges, so together they cover all characters.
+     */
+    static List<CharRange> coveringRuns(List<CharRange> ranges)
+    {
+        final List<CharRange> runs = new ArrayList<>(ranges.size() * 2 + 1);
+        int next = Character.MIN_VALUE;
+        for (final CharRange range : ranges)
+        {
+            if (range.getFirst() > next)
+            {
+                runs.add(new CharRange((char)next, (char)(range.getFirst() - 1)));
+            }
+            runs.add(range);
+            next = range.getLast() + 1;
+        }
+        if (next <= Character.MAX_VALUE)
+        {
+            runs.add(new CharRange((char)next, Character.MAX_VALUE));
+        }
+        return runs;
+    }
+
+    static int words(int bits)
+    {
+        return (bits + 63) >>> 6;
+    }
+
+    public ClassMap getClassMap()
+    {
+        return classMap;
+    }
+
+    /**
+     * @return the number of states, which is also the id of the dead state
+     */
+    public int getStateCount()
+    {
+        return stateCount;
+    }
+
+    public int getClassCount()
+    {
+        return classMap.getClassCount();
+    }
+
+    /**
+     * Looks up the table.
+     *
+     * @param state the state, not the dead state
+     * @param charClass the equivalence class of the character read
+     * @return the target state, which is the state count for the dead state
+     */
+    public abstract int target(int state, int charClass);
+
+    public abstract boolean isAccepting(int state);
+
+    public abstract boolean hasPatternIds();
+
+    /**
+     * @param state the state
+     * @return the pattern id of the state or {@link #NO_PATTERN} if there are no pattern ids
+     */
+    public abstract int getPatternId(int state);
+
+    /**
+     * Converts the table back into a DFA with the same numbering of states. The dead state is left implicit.
+     *
+     * @return the equivalent DFA
+     */
+    public DFA toDFA()
+    {
+        final State[] states = new State[stateCount];
+        final Set<State> accepting = new HashSet<>();
+        for (int state = 0; state < stateCount; ++state)
+        {
+            states[state] = new State();
+            if (isAccepting(state))
+            {
+                accepting.add(states[state]);
+            }
+        }
+
+        final Set<PlannedTransition> transitions = new HashSet<>();
+        for (int state = 0; state < stateCount; ++state)
+        {
+            int first = 0;
+            int target = target(state, classMap.getRunClass(0));
+            for (int run = 1; run <= classMap.getRunCount(); ++run)
+            {
+                final int next = run < classMap.getRunCount() ? target(state, classMap.getRunClass(run)) : -1;
+                if (next != target)
+                {
+                    if (target != stateCount)
+                    {
+                        final CharRange range = new CharRange((char)first, classMap.getRunEnd(run - 1));
+                        transitions.add(RangeTransition.of(states[state], range, states[target]));
+                    }
+                    if (run < classMap.getRunCount())
+                    {
+                        first = classMap.getRunStart(run);
+                    }
+                    target = next;
+                }
+            }
+        }
+        return new DFA(new HashSet<>(Arrays.asList(states)), transitions, states[0], accepting);
+    }
+
+    private static final class Column
+    {
+        private final int[] targets;
+        private final int hash;
+
+        private Column(int[] targets)
+        {
+            this.targets = targets;
+            this.hash = Arrays.hashCode(targets);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Column && Arrays.equals(targets, ((Column)o).targets);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tel.schich.automata.DFA;
+import tel.schich.automata.DeterminizationBudgetException;
+import tel.schich.automata.FiniteAutomaton;
+import tel.schich.automata.NFA;
+import tel.schich.automata.State;
+import tel.schich.automata.match.PatternParser;
+import tel.schich.automata.match.pattern.Node;
+import tel.schich.automata.transition.RangeTransition;
+import tel.schich.automata.transition.Transition;
+import tel.schich.automata.transition.WildcardTransition;
+import tel.schich.automata.util.CaseFolding;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * A pattern matched by the engine that suits it best. The planner analyzes the epsilon-free NFA of the pattern and
+ * picks the first engine that applies:
+ * <ol>
+ * <li>literal: the pattern only matches a single string, which is compared directly</li>
+ * <li>compiled DFA: the determinization stays within {@link #DFA_STATE_BUDGET} states and
+ * {@link #DFA_TIME_BUDGET_MILLIS}, the minimal DFA is compiled to a table</li>
+ * <li>bit-parallel: the NFA has at most 64 states and all transitions into a state read the same characters, as in
+ * position automata</li>
+ * <li>lazy DFA: the tables of the {@link LazyDFA} caches stay within {@link #LAZY_TABLE_LIMIT} entries</li>
+ * <li>NFA simulation otherwise</li>
+ * </ol>
+ * The engines that don't reject at the first mismatching character by themselves check the literal prefix of the
+ * pattern first. Case-insensitive patterns are planned over the folded alphabet and fold their inputs with the class
+ * maps of the engines, see {@link ClassMap#foldCase(CaseFolding)}. {@link #explain()} describes the choice.
+ */
+public final class CompiledPattern implements CompiledMatcher
+{
+    public static final int DFA_STATE_BUDGET = 1024;
+    public static final long DFA_TIME_BUDGET_MILLIS = 100;
+    public static final long LAZY_TABLE_LIMIT = 1 << 22;
+
+    public enum Engine
+    {
+        LITERAL("literal"),
+        COMPILED_DFA("compiled DFA"),
+        BIT_PARALLEL("bit-parallel"),
+        LAZY_DFA("lazy DFA"),
+        NFA_SIMULATION("NFA simulation");
+
+        private final String description;
+
+        Engine(String description)
+        {
+            this.description = description;
+        }
+
+        public String getDescription()
+        {
+            return description;
+        }
+    }
+
+    private final Engine engine;
+    private final CompiledMatcher matcher;
+    private final String prefix;
+    private final boolean prefiltered;
+    private final CaseFolding folding;
+    private final String explanation;
+
+    private CompiledPattern(Engine engine, CompiledMatcher matcher, String prefix, CaseFolding folding, String explanation)
+    {
+        this.engine = engine;
+        this.matcher = matcher;
+        this.prefix = prefix;
+        this.folding = folding;
+        this.prefiltered = !prefix.isEmpty() && engine != Engine.LITERAL && engine != Engine.COMPILED_DFA;
+        this.explanation = explanation;
+    }
+
+    public static CompiledPattern compile(String pattern)
+    {
+        return compile(pattern, 0);
+    }
+
+    /**
+     * Compiles the given pattern. Patterns that don't distinguish case anywhere, like those compiled with
+     * {@link java.util.regex.Pattern#CASE_INSENSITIVE}, are planned over the folded alphabet.
+     *
+     * @param pattern the pattern
+     * @param flags the flags as defined by {@link java.util.regex.Pattern}, see {@link PatternParser#parse(String, int)}
+     * @return the pattern
+     */
+    public static CompiledPattern compile(String pattern, int flags)
+    {
+        final Node node = PatternParser.parse(pattern, flags);
+        final CaseFolding folding = CaseFolding.of(flags);
+        final Node folded = node.foldCase(folding);
+        if (folded != null && !folded.equals(node))
+        {
+            return plan(folded.toNFA(), folding);
+        }
+        return plan(node.toNFA(), null);
+    }
+
+    /**
+     * Plans the engine for the given automaton. DFAs are compiled to tables directly, they are only minimized if they
+     * are within the state budget.
+     *
+     * @param automaton the automaton
+     * @return the pattern
+     */
+    public static CompiledPattern plan(FiniteAutomaton<? extends Transition> automaton)
+    {
+        return plan(automaton, null);
+    }
+
+    /**
+     * Plans the engine for the given automaton like {@link #plan(FiniteAutomaton)}.
+     *
+     * @param automaton the automaton
+     * @param folding the folding of the alphabet of the automaton, see {@link Node#foldCase(CaseFolding)}, which is
+     *                applied to inputs before they are matched, or null if the automaton distinguishes case
+     * @return the pattern
+     */
+    public static CompiledPattern plan(FiniteAutomaton<? extends Transition> automaton, CaseFolding folding)
+    {
+        final NFA nfa = automaton.toNFA().removeEpsilons();
+        final Map<State, List<Transition>> outgoing = new HashMap<>();
+        boolean wildcards = false;
+        for (final Transition transition : nfa.getTransitions())
+        {
+            outgoing.computeIfAbsent(transition.getOrigin(), s -> new ArrayList<>()).add(transition);
+            wildcards |= transition instanceof WildcardTransition;
+        }
+        final int classCount = CompiledDFA.coveringRuns(nfa.getExplicitRanges()).size();
+
+        // the prefix is read along states with a single transition reading a single character
+        final StringBuilder prefix = new StringBuilder();
+        final Set<State> visited = new HashSet<>();
+        String literal = null;
+        State state = nfa.getStartState();
+        while (visited.add(state))
+        {
+            final List<Transition> transitions = outgoing.getOrDefault(state, emptyList());
+            if (nfa.isAccepting(state))
+            {
+                if (transitions.isEmpty())
+                {
+                    literal = prefix.toString();
+                }
+                break;
+            }
+            if (transitions.size() != 1 || !(transitions.get(0) instanceof RangeTransition))
+            {
+                break;
+            }
+            final RangeTransition transition = (RangeTransition)transitions.get(0);
+            if (transition.getFirst() != transition.getLast())
+            {
+                break;
+            }
+            prefix.append(transition.getFirst());
+            state = transition.getDestination();
+        }
+
+        final String facts = "\nstates: " + nfa.getStateCount() + "\nclasses: " + classCount + "\nliteral prefix: "
+                             + (prefix.length() == 0 ? "none" : "\"" + prefix + "\"") + "\nwildcards: "
+                             + (wildcards ? "yes" : "no") + "\ncase folding: " + (folding == CaseFolding.UNICODE ? "unicode" : folding == CaseFolding.ASCII ? "ascii" : "none");
+        if (literal != null)
+        {
+            return new CompiledPattern(Engine.LITERAL, new LiteralMatcher(literal, folding), literal, folding,
+                                       explain(Engine.LITERAL, "the pattern only matches \"" + literal + "\"", facts));
+        }
+
+        DFA dfa = null;
+        String reason;
+        if (automaton instanceof DFA)
+        {
+            dfa = (DFA)automaton;
+            reason = "the automaton is deterministic";
+        }
+        else
+        {
+            try
+            {
+                dfa = nfa.toDFA(DFA_STATE_BUDGET, DFA_TIME_BUDGET_MILLIS);
+                reason = "the DFA is within the budget";
+            }
+            catch (DeterminizationBudgetException e)
+            {
+                reason = "the DFA exceeded the budget after " + e.getStates() + " states and " + e.getElapsedMillis() + " ms";
+            }
+        }
+        if (dfa != null)
+        {
+            if (dfa.getStateCount() <= DFA_STATE_BUDGET)
+            {
+                dfa = dfa.minimize();
+            }
+            final ArrayDFA table = folding != null ? CompiledDFA.compile(dfa).foldCase(folding) : CompiledDFA.compile(dfa);
+            return new CompiledPattern(Engine.COMPILED_DFA, table, prefix.toString(), folding,
+                                       explain(Engine.COMPILED_DFA, reason + ", its table has " + table.getStateCount()
+                                                                    + " states and " + table.getClassCount() + " classes", facts));
+        }
+
+        final BitParallelMatcher bitParallel = BitParallelMatcher.create(nfa, folding);
+        if (bitParallel != null)
+        {
+            return new CompiledPattern(Engine.BIT_PARALLEL, bitParallel, prefix.toString(), folding,
+                                       explain(Engine.BIT_PARALLEL, reason + ", the NFA fits into a long and its states are entered by uniform characters", facts));
+        }
+        reason += nfa.getStateCount() > BitParallelMatcher.MAXIMUM_STATES ? ", the NFA has too many states to be bit-parallel"
+                                                                           : ", the NFA enters states by different characters";
+
+        if (LazyDFA.fitsTableLimit(classCount))
+        {
+            return new CompiledPattern(Engine.LAZY_DFA, new LazyDFA(nfa, LazyDFA.DEFAULT_MAXIMUM_STATES, folding), prefix.toString(),
+                                       folding, explain(Engine.LAZY_DFA, reason, facts));
+        }
+        return new CompiledPattern(Engine.NFA_SIMULATION, new NFASimulation(nfa, folding), prefix.toString(), folding,
+                                   explain(Engine.NFA_SIMULATION, reason + ", there are too many classes for a lazy DFA", facts));
+    }
+
+    private static String explain(Engine engine, String reason, String facts)
+    {
+        return "engine: " + engine.getDescription() + "\nreason: " + reason + facts;
+    }
+
+    @Override
+    public boolean matches(CharSequence input)
+    {
+        if (prefiltered)
+        {
+            if (input.length() < prefix.length())
+            {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); ++i)
+            {
+                if (fold(input.charAt(i)) != prefix.charAt(i))
+                {
+                    return false;
+                }
+            }
+        }
+        return matcher.matches(input);
+    }
+
+    @Override
+    public boolean matches(char[] input, int offset, int length)
+    {
+        if (prefiltered)
+        {
+            if (length < prefix.length())
+            {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); ++i)
+            {
+                if (fold(input[offset + i]) != prefix.charAt(i))
+                {
+                    return false;
+                }
+            }
+        }
+        return matcher.matches(input, offset, length);
+    }
+
+    private char fold(char c)
+    {
+        return folding != null ? folding.fold(c) : c;
+    }
+
+    public Engine getEngine()
+    {
+        return engine;
+    }
+
+    /**
+     * @return the literal prefix every match starts with, which is empty if there is none
+     */
+    public String getLiteralPrefix()
+    {
+        return prefix;
+    }
+
+    /**
+     * Describes the chosen engine, why it was chosen and the properties of the pattern the choice was based on, one
+     * per line.
+     *
+     * @return the description
+     */
+    public String explain()
+    {
+        return explanation;
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary format of compiled DFAs. All numbers are big-endian:
+ * <pre>
+ * int       magic ("ADFA")
+ * int       version
+ * int       flags (1: pattern ids present)
+ * int       state count n, the dead state is n
+ * int       class count k
+ * int       run count r
+ * char[r]   first characters of the class map runs
+ * id[r]     class of every run, with the width of class ids
+ * id[n * k] transition table row by row, with the width of state ids
+ * long[]    accepting states as a bit set of n bits
+ * int[n]    pattern id of every state, only if the flag is set
+ * </pre>
+ * Ids are stored with 1, 2 or 4 bytes, whichever is enough for the largest id: k - 1 for classes, n for states.
+ */
+public final class DFAFormat
+{
+    public static final int MAGIC = 0x41444641;
+    public static final int VERSION = 1;
+
+    static final int FLAG_PATTERN_IDS = 1;
+    static final int HEADER_SIZE = 6 * Integer.BYTES;
+
+    private DFAFormat()
+    {
+    }
+
+    static int width(int maxId)
+    {
+        if (maxId <= 0xFF)
+        {
+            return 1;
+        }
+        if (maxId <= 0xFFFF)
+        {
+            return 2;
+        }
+        return 4;
+    }
+
+    public static void write(CompiledDFA dfa, DataOutput out) throws IOException
+    {
+        final ClassMap classMap = dfa.getClassMap();
+        final int stateCount = dfa.getStateCount();
+        final int classCount = dfa.getClassCount();
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(dfa.hasPatternIds() ? FLAG_PATTERN_IDS : 0);
+        out.writeInt(stateCount);
+        out.writeInt(classCount);
+        out.writeInt(classMap.getRunCount());
+
+        for (int run = 0; run < classMap.getRunCount(); ++run)
+        {
+            out.writeChar(classMap.getRunStart(run));
+        }
+        final int classWidth = width(classCount - 1);
+        for (int run = 0; run < classMap.getRunCount(); ++run)
+        {
+            writeId(out, classWidth, classMap.getRunClass(run));
+        }
+
+        final int stateWidth = width(stateCount);
+        for (int state = 0; state < stateCount; ++state)
+        {
+            for (int charClass = 0; charClass < classCount; ++charClass)
+            {
+                writeId(out, stateWidth, dfa.target(state, charClass));
+            }
+        }
+
+        for (int word = 0; word < CompiledDFA.words(stateCount); ++word)
+        {
+            long bits = 0;
+            for (int bit = 0; bit < 64 && word * 64 + bit < stateCount; ++bit)
+            {
+                if (dfa.isAccepting(word * 64 + bit))
+                {
+                    bits |= 1L << bit;
+                }
+            }
+            out.writeLong(bits);
+        }
+
+        if (dfa.hasPatternIds())
+        {
+            for (int state = 0; state < stateCount; ++state)
+            {
+                out.writeInt(dfa.getPatternId(state));
+            }
+        }
+    }
+
+    private static void writeId(DataOutput out, int width, int id) throws IOException
+    {
+        switch (width)
+        {
+            case 1:
+                out.writeByte(id);
+                break;
+            case 2:
+                out.writeShort(id);
+                break;
+            default:
+                out.writeInt(id);
+        }
+    }
+
+    public static byte[] toBytes(CompiledDFA dfa)
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try
+        {
+            write(dfa, new DataOutputStream(bytes));
+        }
+        catch (IOException e)
+        {
+            // byte array streams don't fail
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Packs the DFA into strings of Latin-1 characters, one per byte, so it can be embedded in source code as string
+     * constants, which are limited in length.
+     *
+     * @param dfa the DFA
+     * @param chunkLength the maximum length of each string
+     * @return the strings
+     */
+    public static List<String> pack(CompiledDFA dfa, int chunkLength)
+    {
+        final byte[] bytes = toBytes(dfa);
+        final List<String> chunks = new ArrayList<>(bytes.length / chunkLength + 1);
+        for (int offset = 0; offset < bytes.length; offset += chunkLength)
+        {
+            chunks.add(new String(bytes, offset, Math.min(chunkLength, bytes.length - offset), StandardCharsets.ISO_8859_1));
+        }
+        return chunks;
+    }
+
+    /**
+     * Reads a DFA packed by {@link #pack(CompiledDFA, int)}.
+     *
+     * @param chunks the strings
+     * @return the DFA
+     */
+    public static ArrayDFA unpack(String... chunks)
+    {
+        final StringBuilder packed = new StringBuilder();
+        for (final String chunk : chunks)
+        {
+            packed.append(chunk);
+        }
+        return read(ByteBuffer.wrap(packed.toString().getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    public static ArrayDFA read(DataInput in) throws IOException
+    {
+        return read(new Input()
+        {
+            @Override
+            public int readInt() throws IOException
+            {
+                return in.readInt();
+            }
+
+            @Override
+            public long readLong() throws IOException
+            {
+                return in.readLong();
+            }
+
+            @Override
+            public char readChar() throws IOException
+            {
+                return in.readChar();
+            }
+
+            @Override
+            public int readId(int width) throws IOException
+            {
+                switch (width)
+                {
+                    case 1:
+                        return in.readUnsignedByte();
+                    case 2:
+                        return in.readUnsignedShort();
+                    default:
+                        return in.readInt();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads a DFA from the position of the given buffer into heap arrays, the position is advanced past the DFA.
+     *
+     * @param buffer the buffer
+     * @return the DFA
+     */
+    public static ArrayDFA read(ByteBuffer buffer)
+    {
+        try
+        {
+            return read(new Input()
+            {
+                @Override
+                public int readInt()
+                {
+                    return buffer.getInt();
+                }
+
+                @Override
+                public long readLong()
+                {
+                    return buffer.getLong();
+                }
+
+                @Override
+                public char readChar()
+                {
+                    return buffer.getChar();
+                }
+
+                @Override
+                public int readId(int width)
+                {
+                    switch (width)
+                    {
+                        case 1:
+                            return buffer.get() & 0xFF;
+                        case 2:
+                            return buffer.getChar();
+                        default:
+                            return buffer.getInt();
+                    }
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            // buffers don't throw checked exceptions
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ArrayDFA read(Input in) throws IOException
+    {
+        final int flags = readHeader(in.readInt(), in.readInt(), in.readInt());
+        final int stateCount = in.readInt();
+        final int classCount = in.readInt();
+        final int runCount = in.readInt();
+        checkCounts(stateCount, classCount, runCount);
+
+        final char[] starts = new char[runCount];
+        for (int run = 0; run < runCount; ++run)
+        {
+            starts[run] = in.readChar();
+        }
+        final int classWidth = width(classCount - 1);
+        final int[] classes = new int[runCount];
+        for (int run = 0; run < runCount; ++run)
+        {
+            classes[run] = in.readId(classWidth);
+        }
+        final ClassMap classMap = new ClassMap(starts, classes, classCount);
+
+        final int stateWidth = width(stateCount);
+        final int[] table = new int[stateCount * classCount];
+        for (int i = 0; i < table.length; ++i)
+        {
+            table[i] = in.readId(stateWidth);
+            if (table[i] < 0 || table[i] > stateCount)
+            {
+                throw new IllegalArgumentException("Illegal target state " + table[i] + " of " + stateCount);
+            }
+        }
+
+        final long[] accepting = new long[CompiledDFA.words(stateCount)];
+        for (int word = 0; word < accepting.length; ++word)
+        {
+            accepting[word] = in.readLong();
+        }
+
+        int[] patternIds = null;
+        if ((flags & FLAG_PATTERN_IDS) != 0)
+        {
+            patternIds = new int[stateCount];
+            for (int state = 0; state < stateCount; ++state)
+            {
+                patternIds[state] = in.readInt();
+            }
+        }
+        return new ArrayDFA(classMap, stateCount, table, accepting, patternIds);
+    }
+
+    /**
+     * Validates the fixed start of the format.
+     *
+     * @return the flags
+     */
+    static int readHeader(int magic, int version, int flags)
+    {
+        if (magic != MAGIC)
+        {
+            throw new IllegalArgumentException("Not a serialized DFA!");
+        }
+        if (version != VERSION)
+        {
+            throw new IllegalArgumentException("Unsupported version " + version + ", expected " + VERSION);
+        }
+        if ((flags & ~FLAG_PATTERN_IDS) != 0)
+        {
+            throw new IllegalArgumentException("Unknown flags: " + flags);
+        }
+        return flags;
+    }
+
+    static void checkCounts(int stateCount, int classCount, int runCount)
+    {
+        if (stateCount < 1 || classCount < 1 || runCount < 1 || (long)stateCount * classCount > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Illegal table dimensions: " + stateCount + " states, " + classCount + " classes, " + runCount + " runs");
+        }
+    }
+
+    /**
+     * The primitive reads of the format, over either a {@link DataInput} or a {@link ByteBuffer}.
+     */
+    private interface Input
+    {
+        int readInt() throws IOException;
+
+        long readLong() throws IOException;
+
+        char readChar() throws IOException;
+
+        int readId(int width) throws IOException;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+import tel.schich.automata.DFA;
+import tel.schich.automata.match.PatternCache;
+
+/**
+ * Persists compiled patterns in a directory, so they survive restarts. Every pattern is stored in its own file, named
+ * by the SHA-256 hash of the pattern, its flags, the {@link DFAFormat#VERSION} and the {@link #COMPILER_REVISION}, so
+ * changes to the format or the compiler never load stale files. Cached files are memory mapped by {@link BufferDFA}.
+ * <p>
+ * Missing patterns are compiled and written to a temporary file first, which is then moved to its final name
+ * atomically, so concurrent processes never see partial files. The cache is best-effort: unreadable or corrupt files
+ * are compiled again and replaced, failed writes only skip the caching.
+ * <p>
+ * To add a disk cache to the in-memory cache, use {@link #getDFA(String, int)} as its compiler:
+ * {@code new PatternCache(size, weight, diskCache::getDFA)}.
+ */
+public class DiskCache
+{
+    /**
+     * The revision of the pattern compiler, it must be increased whenever compiling the same pattern can give a
+     * different automaton.
+     */
+    public static final int COMPILER_REVISION = 2;
+
+    private static final String SUFFIX = ".dfa";
+
+    private final Path directory;
+    private final BiFunction<String, Integer, DFA> compiler;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+
+    public DiskCache(Path directory) throws IOException
+    {
+        this(directory, PatternCache.DEFAULT_COMPILER);
+    }
+
+    /**
+     * @param directory the directory to store the compiled patterns in, it is created if necessary
+     * @param compiler compiles a pattern with the given flags
+     * @throws IOException if the directory can't be created
+     */
+    public DiskCache(Path directory, BiFunction<String, Integer, DFA> compiler) throws IOException
+    {
+        this.directory = Files.createDirectories(directory);
+        this.compiler = compiler;
+    }
+
+    public CompiledDFA get(String pattern)
+    {
+        return get(pattern, 0);
+    }
+
+    /**
+     * Loads the compiled pattern from the directory or compiles and stores it.
+     *
+     * @param pattern the pattern
+     * @param flags the flags to compile the pattern with, in the format of {@link java.util.regex.Pattern#flags()}
+     * @return the compiled pattern
+     */
+    public CompiledDFA get(String pattern, int flags)
+    {
+        final Path file = fileFor(pattern, flags);
+        if (Files.isRegularFile(file))
+        {
+            try
+            {
+                final CompiledDFA cached = BufferDFA.map(file);
+                hits.increment();
+                return cached;
+            }
+            catch (IOException | RuntimeException e)
+            {
+                // unreadable or corrupt, compile it again and replace it
+            }
+        }
+
+        misses.increment();
+        final ArrayDFA compiled = CompiledDFA.compile(compiler.apply(pattern, flags));
+        store(file, compiled);
+        return compiled;
+    }
+
+    /**
+     * Like {@link #get(String, int)}, but converts the compiled pattern back into a DFA.
+     *
+     * @param pattern the pattern
+     * @param flags the flags to compile the pattern with
+     * @return the DFA of the pattern
+     */
+    public DFA getDFA(String pattern, int flags)
+    {
+        return get(pattern, flags).toDFA();
+    }
+
+    private void store(Path file, CompiledDFA compiled)
+    {
+        Path temporary = null;
+        try
+        {
+            temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE))
+            {
+                final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                DFAFormat.write(compiled, new DataOutputStream(out));
+                out.flush();
+                // the file must be complete on disk before it becomes visible under its final name
+                channel.force(true);
+            }
+            try
+            {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e)
+        {
+            writeFailures.increment();
+            if (temporary != null)
+            {
+                try
+                {
+                    Files.deleteIfExists(temporary);
+                }
+                catch (IOException ignored)
+                {
+                    // nothing left to do
+                }
+            }
+        }
+    }
+
+    /**
+     * @param pattern the pattern
+     * @param flags the flags of the pattern
+     * @return the file the compiled pattern is stored in
+     */
+    public Path fileFor(String pattern, int flags)
+    {
+        final MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        final String key = DFAFormat.VERSION + ":" + COMPILER_REVISION + ":" + flags + ":" + pattern;
+        final StringBuilder name = new StringBuilder();
+        for (final byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8)))
+        {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return directory.resolve(name.append(SUFFIX).toString());
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getWriteFailures()
+    {
+        return writeFailures.sum();
+    }
+}
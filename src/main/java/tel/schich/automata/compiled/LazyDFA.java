@@ -0,0 +1,268 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tel.schich.automata.NFA;
+import tel.schich.automata.util.CaseFolding;
+import tel.schich.automata.util.CharRange;
+
+/**
+ * Matches by determinizing an NFA lazily: the subsets of NFA states are numbered when they are first reached and
+ * their transitions are computed on first use, so only the part of the DFA the inputs actually visit is built. Every
+ * thread has a cache of its own, which is flushed once it holds the maximum number of states, so memory stays bounded
+ * even for patterns whose DFA would be exponentially large.
+ */
+public final class LazyDFA implements CompiledMatcher
+{
+    public static final int DEFAULT_MAXIMUM_STATES = 4096;
+
+    private static final int DEAD = -1;
+    private static final int UNKNOWN = -2;
+
+    private final ClassMap classMap;
+    private final ThreadLocal<Cache> caches;
+
+    public LazyDFA(NFA nfa)
+    {
+        this(nfa, DEFAULT_MAXIMUM_STATES);
+    }
+
+    /**
+     * @param nfa the NFA
+     * @param maximumStates the maximum number of states cached by each thread
+     */
+    public LazyDFA(NFA nfa, int maximumStates)
+    {
+        this(nfa, maximumStates, null);
+    }
+
+    /**
+     * @param nfa the NFA
+     * @param maximumStates the maximum number of states cached by each thread
+     * @param folding the folding of the alphabet of the NFA, which folds the inputs, see
+     *                {@link ClassMap#foldCase(CaseFolding)}, or null if the NFA distinguishes case
+     */
+    public LazyDFA(NFA nfa, int maximumStates, CaseFolding folding)
+    {
+        if (maximumStates < 1)
+        {
+            throw new IllegalArgumentException("The maximum number of states must be positive: " + maximumStates);
+        }
+        final NFA trimmed = nfa.trim();
+
+        // the elementary intervals of the explicit alphabet and their gaps each get a class
+        final List<CharRange> runs = CompiledDFA.coveringRuns(trimmed.getExplicitRanges());
+        final char[] starts = new char[runs.size()];
+        final int[] classes = new int[runs.size()];
+        for (int i = 0; i < starts.length; ++i)
+        {
+            starts[i] = runs.get(i).getFirst();
+            classes[i] = i;
+        }
+        final ClassMap runMap = new ClassMap(starts, classes, starts.length);
+        this.classMap = folding != null ? runMap.foldCase(folding) : runMap;
+        this.caches = ThreadLocal.withInitial(() -> new Cache(trimmed, starts, maximumStates));
+    }
+
+    /**
+     * Creates a lazy DFA for the given NFA, unless the table of each thread could grow beyond
+     * {@link CompiledPattern#LAZY_TABLE_LIMIT} entries because the NFA distinguishes too many classes. The NFA is then
+     * simulated instead, which needs no memory per class.
+     *
+     * @param nfa the NFA
+     * @param folding the folding of the alphabet of the NFA, or null if the NFA distinguishes case
+     * @return the matcher
+     */
+    public static CompiledMatcher create(NFA nfa, CaseFolding folding)
+    {
+        final NFA simple = nfa.removeEpsilons();
+        if (fitsTableLimit(CompiledDFA.coveringRuns(simple.getExplicitRanges()).size()))
+        {
+            return new LazyDFA(simple, DEFAULT_MAXIMUM_STATES, folding);
+        }
+        return new NFASimulation(simple, folding);
+    }
+
+    static boolean fitsTableLimit(int classCount)
+    {
+        return (long)classCount * DEFAULT_MAXIMUM_STATES <= CompiledPattern.LAZY_TABLE_LIMIT;
+    }
+
+    @Override
+    public boolean matches(CharSequence input)
+    {
+        final Cache cache = caches.get();
+        int state = cache.start();
+        for (int i = 0, length = input.length(); i < length; ++i)
+        {
+            state = cache.next(state, classMap.classOf(input.charAt(i)));
+            if (state == DEAD)
+            {
+                return false;
+            }
+        }
+        return cache.isAccepting(state);
+    }
+
+    @Override
+    public boolean matches(char[] input, int offset, int length)
+    {
+        final Cache cache = caches.get();
+        int state = cache.start();
+        for (int i = offset, end = offset + length; i < end; ++i)
+        {
+            state = cache.next(state, classMap.classOf(input[i]));
+            if (state == DEAD)
+            {
+                return false;
+            }
+        }
+        return cache.isAccepting(state);
+    }
+
+    public int getClassCount()
+    {
+        return classMap.getClassCount();
+    }
+
+    /**
+     * @return the number of states cached by the current thread
+     */
+    public int getCachedStates()
+    {
+        return caches.get().sets.size();
+    }
+
+    /**
+     * @return the number of times the cache of the current thread was flushed
+     */
+    public int getFlushes()
+    {
+        return caches.get().flushes;
+    }
+
+    /**
+     * The cache doesn't refer to its matcher, so the entries of the thread local can be expunged once the matcher is
+     * no longer used.
+     */
+    private static final class Cache
+    {
+        private final NFA nfa;
+        private final char[] representatives;
+        private final int maximumStates;
+        private final List<BitSet> sets = new ArrayList<>();
+        private final Map<BitSet, Integer> ids = new HashMap<>();
+        private final BitSet accepting = new BitSet();
+        private int[] table = new int[0];
+        private int start = UNKNOWN;
+        private int flushes = 0;
+
+        private Cache(NFA nfa, char[] representatives, int maximumStates)
+        {
+            this.nfa = nfa;
+            this.representatives = representatives;
+            this.maximumStates = maximumStates;
+        }
+
+        private int start()
+        {
+            if (start == UNKNOWN)
+            {
+                start = add(nfa.getStartIndices());
+            }
+            return start;
+        }
+
+        private int next(int state, int charClass)
+        {
+            final int classCount = representatives.length;
+            final int cached = table[state * classCount + charClass];
+            if (cached != UNKNOWN)
+            {
+                return cached;
+            }
+            final BitSet targets = nfa.transition(sets.get(state), representatives[charClass]);
+            if (targets.isEmpty())
+            {
+                table[state * classCount + charClass] = DEAD;
+                return DEAD;
+            }
+            final Integer known = ids.get(targets);
+            if (known != null)
+            {
+                table[state * classCount + charClass] = known;
+                return known;
+            }
+            if (sets.size() >= maximumStates)
+            {
+                // the current state is dropped along with all others, only the target survives the flush
+                flush();
+                return add(targets);
+            }
+            final int target = add(targets);
+            table[state * classCount + charClass] = target;
+            return target;
+        }
+
+        private int add(BitSet states)
+        {
+            final int classCount = representatives.length;
+            final int id = sets.size();
+            sets.add(states);
+            ids.put(states, id);
+            if (nfa.isAccepting(states))
+            {
+                accepting.set(id);
+            }
+            if (table.length < (id + 1) * classCount)
+            {
+                final int previous = table.length;
+                table = Arrays.copyOf(table, Math.max((id + 1) * classCount, previous * 2));
+                Arrays.fill(table, previous, table.length, UNKNOWN);
+            }
+            return id;
+        }
+
+        private boolean isAccepting(int state)
+        {
+            return accepting.get(state);
+        }
+
+        private void flush()
+        {
+            sets.clear();
+            ids.clear();
+            accepting.clear();
+            Arrays.fill(table, UNKNOWN);
+            start = UNKNOWN;
+            ++flushes;
+        }
+    }
+}
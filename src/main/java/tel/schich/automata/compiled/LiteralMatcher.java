@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import tel.schich.automata.util.CaseFolding;
+
+/**
+ * Matches a single string, optionally comparing the folded input to a folded literal.
+ */
+final class LiteralMatcher implements CompiledMatcher
+{
+    private final String literal;
+    private final CaseFolding folding;
+
+    /**
+     * @param folding the folding of the literal, which is applied to inputs, or null
+     */
+    LiteralMatcher(String literal, CaseFolding folding)
+    {
+        this.literal = literal;
+        this.folding = folding;
+    }
+
+    @Override
+    public boolean matches(CharSequence input)
+    {
+        if (folding == null)
+        {
+            return input.length() == literal.length() && literal.contentEquals(input);
+        }
+        if (input.length() != literal.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); ++i)
+        {
+            if (folding.fold(input.charAt(i)) != literal.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean matches(char[] input, int offset, int length)
+    {
+        if (length != literal.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < length; ++i)
+        {
+            final char c = input[offset + i];
+            if ((folding != null ? folding.fold(c) : c) != literal.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import java.util.BitSet;
+
+import tel.schich.automata.NFA;
+import tel.schich.automata.util.CaseFolding;
+
+/**
+ * Simulates an NFA on the sets of its active states, which needs no memory beyond two sets per character.
+ */
+final class NFASimulation implements CompiledMatcher
+{
+    private final NFA nfa;
+    private final CaseFolding folding;
+
+    /**
+     * @param folding the folding of the alphabet of the NFA, which is applied to inputs, or null
+     */
+    NFASimulation(NFA nfa, CaseFolding folding)
+    {
+        this.nfa = nfa;
+        this.folding = folding;
+    }
+
+    @Override
+    public boolean matches(CharSequence input)
+    {
+        BitSet states = nfa.getStartIndices();
+        for (int i = 0, length = input.length(); i < length; ++i)
+        {
+            states = nfa.transition(states, fold(input.charAt(i)));
+            if (states.isEmpty())
+            {
+                return false;
+            }
+        }
+        return nfa.isAccepting(states);
+    }
+
+    @Override
+    public boolean matches(char[] input, int offset, int length)
+    {
+        BitSet states = nfa.getStartIndices();
+        for (int i = offset, end = offset + length; i < end; ++i)
+        {
+            states = nfa.transition(states, fold(input[i]));
+            if (states.isEmpty())
+            {
+                return false;
+            }
+        }
+        return nfa.isAccepting(states);
+    }
+
+    private char fold(char c)
+    {
+        return folding != null ? folding.fold(c) : c;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic;
+
+import tel.schich.automata.DeterminizationBudgetException;
+import tel.schich.automata.compiled.CompiledDFA;
+import tel.schich.automata.compiled.DFAFormat;
+import tel.schich.automata.compiled.PrecompiledPattern;
+import tel.schich.automata.match.PatternCache;
+
+/**
+ * Compiles the constants marked with {@link PrecompiledPattern} and generates a class per enclosing class that
+ * unpacks the tables on initialization. The patterns are compiled like {@link PatternCache#BUDGETED_COMPILER} does at
+ * runtime, patterns exceeding its budget are reported as errors instead of stalling the build.
+ * <p>
+ * The processor is not registered as a service, so it never runs in compilations that don't ask for it. It has to be
+ * named explicitly, with {@code -processor tel.schich.automata.compiled.processor.PatternProcessor} or the
+ * {@code annotationProcessors} of the maven-compiler-plugin.
+ */
+public final class PatternProcessor extends AbstractProcessor
+{
+    public static final String CLASS_SUFFIX = "Patterns";
+
+    // string constants are limited to 65535 bytes of modified UTF-8, which takes at most 2 bytes per Latin-1 character
+    private static final int CHUNK_LENGTH = 0x7FFF;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes()
+    {
+        return Collections.singleton(PrecompiledPattern.class.getName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        final Map<TypeElement, List<VariableElement>> constants = new LinkedHashMap<>();
+        for (final Element element : roundEnv.getElementsAnnotatedWith(PrecompiledPattern.class))
+        {
+            final VariableElement field = (VariableElement)element;
+            if (!(field.getConstantValue() instanceof String))
+            {
+                error(field, "Precompiled patterns must be string constants!");
+                continue;
+            }
+            constants.computeIfAbsent((TypeElement)field.getEnclosingElement(), type -> new ArrayList<>()).add(field);
+        }
+
+        for (final Map.Entry<TypeElement, List<VariableElement>> entry : constants.entrySet())
+        {
+            generate(entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type, List<VariableElement> fields)
+    {
+        final String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        final String className = generatedName(type);
+
+        final StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty())
+        {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import ").append(CompiledDFA.class.getName()).append(";\n");
+        source.append("import ").append(DFAFormat.class.getName()).append(";\n\n");
+        source.append("/**\n * The precompiled patterns of {@link ").append(type.getQualifiedName()).append("}.\n */\n");
+        source.append("public final class ").append(className).append("\n{\n");
+        for (final VariableElement field : fields)
+        {
+            final String pattern = (String)field.getConstantValue();
+            final CompiledDFA dfa;
+            try
+            {
+                final int flags = field.getAnnotation(PrecompiledPattern.class).flags();
+                dfa = CompiledDFA.compile(PatternCache.BUDGETED_COMPILER.apply(pattern, flags));
+            }
+            catch (DeterminizationBudgetException e)
+            {
+                error(field, "The pattern is too complex to precompile: " + e.getMessage());
+                return;
+            }
+            catch (RuntimeException e)
+            {
+                error(field, "Failed to compile the pattern: " + e);
+                return;
+            }
+            source.append("    public static final CompiledDFA ").append(field.getSimpleName()).append(" = DFAFormat.unpack(");
+            final List<String> chunks = DFAFormat.pack(dfa, CHUNK_LENGTH);
+            for (int i = 0; i < chunks.size(); ++i)
+            {
+                source.append(i == 0 ? "\n" : ",\n").append("        ");
+                appendLiteral(source, chunks.get(i));
+            }
+            source.append(");\n\n");
+        }
+        source.append("    private ").append(className).append("()\n    {\n    }\n}\n");
+
+        final String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter())
+        {
+            writer.write(source.toString());
+        }
+        catch (IOException e)
+        {
+            error(type, "Failed to write " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Nested classes are named after all their enclosing classes, joined by underscores.
+     */
+    private static String generatedName(TypeElement type)
+    {
+        final StringBuilder name = new StringBuilder(type.getSimpleName());
+        Element enclosing = type.getEnclosingElement();
+        while (enclosing.getKind().isClass() || enclosing.getKind().isInterface())
+        {
+            name.insert(0, '_').insert(0, enclosing.getSimpleName());
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name.append(CLASS_SUFFIX).toString();
+    }
+
+    /**
+     * Appends a string literal of Latin-1 characters. Octal escapes are used instead of unicode escapes, which javac
+     * would translate before parsing.
+     */
+    private static void appendLiteral(StringBuilder source, String value)
+    {
+        source.append('"');
+        for (int i = 0; i < value.length(); ++i)
+        {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                source.append('\\').append(c);
+            }
+            else if (c >= ' ' && c <= '~')
+            {
+                source.append(c);
+            }
+            else
+            {
+                source.append('\\').append(Integer.toOctalString(01000 | c).substring(1));
+            }
+        }
+        source.append('"');
+    }
+
+    private void error(Element element, String message)
+    {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.eval;
+
+import java.util.List;
+
+import tel.schich.automata.match.pattern.CharClass;
+import tel.schich.automata.match.pattern.Node;
+import tel.schich.automata.match.pattern.Repetition;
+import tel.schich.automata.match.pattern.Sequence;
+import tel.schich.automata.match.pattern.Wildcard;
+import tel.schich.automata.util.CharRange;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Evaluates a sequence of single character classes, each of which may be repeated, like {@code \d{1,1000}x[a-f]{8}},
+ * without unrolling the repetitions into states. Every element keeps the steps at which the active runs through it
+ * were entered, ordered from oldest to newest. The count of a run is the distance to the current step, so all counts
+ * advance together for free, runs beyond the maximum fall off the front, and the oldest run decides whether the
+ * element can be left. The cost per character is amortized constant per element, independent of the counts.
+ */
+public class CountingEvaluator implements StateMachineEvaluator
+{
+    private final CharClass[] classes;
+    private final int[] min;
+    private final int[] max;
+    private final EntrySteps[] entries;
+    private final boolean[] ready;
+    private int step = 0;
+    private boolean currentlyAccepting;
+
+    public CountingEvaluator(Node pattern)
+    {
+        if (!isApplicable(pattern))
+        {
+            throw new IllegalArgumentException("Not a sequence of repeated character classes: " + pattern);
+        }
+        final List<Node> elements = elementsOf(pattern);
+        final int n = elements.size();
+        this.classes = new CharClass[n];
+        this.min = new int[n];
+        this.max = new int[n];
+        this.entries = new EntrySteps[n];
+        this.ready = new boolean[n + 1];
+        for (int i = 0; i < n; ++i)
+        {
+            Node element = elements.get(i);
+            if (element instanceof Repetition)
+            {
+                final Repetition repetition = (Repetition)element;
+                min[i] = repetition.getMin();
+                max[i] = repetition.getMax();
+                element = repetition.getBody();
+            }
+            else
+            {
+                min[i] = 1;
+                max[i] = 1;
+            }
+            // a wildcard is represented by a null class
+            classes[i] = element instanceof CharClass ? (CharClass)element : null;
+            entries[i] = new EntrySteps();
+        }
+        this.currentlyAccepting = updateReady();
+    }
+
+    /**
+     * Checks whether the given pattern can be evaluated by counting.
+     *
+     * @param pattern the pattern
+     * @return true if the pattern is a sequence of character classes and wildcards, each of which may be repeated
+     */
+    public static boolean isApplicable(Node pattern)
+    {
+        for (final Node element : elementsOf(pattern))
+        {
+            final Node symbol = element instanceof Repetition ? ((Repetition)element).getBody() : element;
+            if (!(symbol instanceof CharClass) && !(symbol instanceof Wildcard))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Node> elementsOf(Node pattern)
+    {
+        return pattern instanceof Sequence ? ((Sequence)pattern).getElements() : singletonList(pattern);
+    }
+
+    @Override
+    public boolean transition(char c)
+    {
+        for (int i = 0; i < classes.length; ++i)
+        {
+            final EntrySteps runs = entries[i];
+            if (!matches(i, c))
+            {
+                runs.clear();
+                continue;
+            }
+            if (max[i] != Repetition.UNBOUNDED)
+            {
+                // runs that already reached the maximum can't take another character
+                while (!runs.isEmpty() && step - runs.first() >= max[i])
+                {
+                    runs.removeFirst();
+                }
+            }
+            if (ready[i])
+            {
+                runs.addLast(step);
+            }
+        }
+        ++step;
+
+        for (int i = 0; i < classes.length; ++i)
+        {
+            final EntrySteps runs = entries[i];
+            if (max[i] == Repetition.UNBOUNDED)
+            {
+                // beyond the minimum all runs of an unbounded element behave the same, the oldest one is enough
+                while (runs.size() >= 2 && step - runs.second() >= min[i])
+                {
+                    runs.removeFirst();
+                }
+            }
+        }
+
+        this.currentlyAccepting = updateReady();
+        return isCurrentAccepting();
+    }
+
+    /**
+     * Calculates for every element whether a run can be right before it, the last entry tells whether a run can
+     * have passed all elements.
+     */
+    private boolean updateReady()
+    {
+        ready[0] = step == 0;
+        for (int i = 0; i < classes.length; ++i)
+        {
+            final EntrySteps runs = entries[i];
+            ready[i + 1] = ready[i] && min[i] == 0 || !runs.isEmpty() && step - runs.first() >= min[i];
+        }
+        return ready[classes.length];
+    }
+
+    private boolean matches(int element, char c)
+    {
+        final CharClass charClass = classes[element];
+        if (charClass == null)
+        {
+            return true;
+        }
+        for (final CharRange range : charClass.getRanges())
+        {
+            if (range.contains(c))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isCurrentAccepting()
+    {
+        return this.currentlyAccepting;
+    }
+
+    /**
+     * A queue of ascending step numbers backed by a growing ring buffer.
+     */
+    private static final class EntrySteps
+    {
+        private int[] steps = new int[8];
+        private int head = 0;
+        private int size = 0;
+
+        private boolean isEmpty()
+        {
+            return size == 0;
+        }
+
+        private int size()
+        {
+            return size;
+        }
+
+        private int first()
+        {
+            return steps[head];
+        }
+
+        private int second()
+        {
+            return steps[(head + 1) % steps.length];
+        }
+
+        private void addLast(int step)
+        {
+            if (size == steps.length)
+            {
+                final int[] grown = new int[steps.length * 2];
+                for (int i = 0; i < size; ++i)
+                {
+                    grown[i] = steps[(head + i) % steps.length];
+                }
+                steps = grown;
+                head = 0;
+            }
+            steps[(head + size) % steps.length] = step;
+            ++size;
+        }
+
+        private void removeFirst()
+        {
+            head = (head + 1) % steps.length;
+            --size;
+        }
+
+        private void clear()
+        {
+            head = 0;
+            size = 0;
+        }
+    }
+}
@@ -23,35 +23,39 @@
 package tel.schich.automata.eval;
 
 import tel.schich.automata.DFA;
-import tel.schich.automata.State;
+import tel.schich.automata.ErrorState;
 
 public class DFAEvaluator implements StateMachineEvaluator
 {
     private final DFA automaton;
-    private State current;
+    private int current;
 
     public DFAEvaluator(DFA automaton)
     {
         this.automaton = automaton;
-        this.current = automaton.getStartState();
+        this.current = automaton.indexOf(automaton.getStartState());
     }
 
     @Override
     public boolean transition(char c)
     {
-        this.current = this.current.transition(this.automaton, c);
+        this.current = this.automaton.transition(this.current, c);
         return isCurrentAccepting();
     }
 
     @Override
     public boolean isCurrentAccepting()
     {
-        return this.automaton.isAccepting(this.current);
+        return this.current != DFA.ERROR_INDEX && this.automaton.isAccepting(this.current);
     }
 
     @Override
     public String toString()
     {
-        return this.current.toString();
+        if (this.current == DFA.ERROR_INDEX)
+        {
+            return ErrorState.ERROR.toString();
+        }
+        return this.automaton.getState(this.current).toString();
     }
 }
@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.eval;
+
+import tel.schich.automata.match.pattern.DerivativeAutomaton;
+import tel.schich.automata.match.pattern.DerivativeAutomaton.DerivativeState;
+
+public class DerivativeEvaluator implements StateMachineEvaluator
+{
+    private final DerivativeAutomaton automaton;
+    private DerivativeState current;
+
+    public DerivativeEvaluator(DerivativeAutomaton automaton)
+    {
+        this.automaton = automaton;
+        this.current = automaton.getStartState();
+    }
+
+    @Override
+    public boolean transition(char c)
+    {
+        this.current = this.automaton.transition(this.current, c);
+        return isCurrentAccepting();
+    }
+
+    @Override
+    public boolean isCurrentAccepting()
+    {
+        return this.current.isAccepting();
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.current.toString();
+    }
+}
@@ -22,21 +22,20 @@
  */
 package tel.schich.automata.eval;
 
-import java.util.Set;
+import java.util.BitSet;
 import tel.schich.automata.NFA;
-import tel.schich.automata.State;
 
 public class NFAEvaluator implements StateMachineEvaluator
 {
     private final NFA automaton;
-    private Set<State> currentStates;
+    private BitSet currentStates;
     private boolean currentlyAccepting;
 
     public NFAEvaluator(NFA automaton)
     {
-        this.automaton = automaton;
-        this.currentStates = automaton.getStartStates();
-        this.currentlyAccepting = automaton.isAccepting(this.currentStates);
+        this.automaton = automaton.removeEpsilons();
+        this.currentStates = this.automaton.getStartIndices();
+        this.currentlyAccepting = this.automaton.isAccepting(this.currentStates);
     }
 
     @Override
@@ -56,6 +55,15 @@ public class NFAEvaluator implements StateMachineEvaluator
     @Override
     public String toString()
     {
-        return this.currentStates.toString();
+        final StringBuilder states = new StringBuilder("[");
+        for (int i = this.currentStates.nextSetBit(0); i >= 0; i = this.currentStates.nextSetBit(i + 1))
+        {
+            if (states.length() > 1)
+            {
+                states.append(", ");
+            }
+            states.append(this.automaton.getState(i));
+        }
+        return states.append(']').toString();
     }
 }
@@ -129,8 +129,15 @@ public final class CharBuffer
      */
     public char peekAhead(int n)
     {
-        // peeking means going backwards in the circle
-        Node node = this.hook.previous;
+        // peeking means going backwards in the circle, starting at the current element or, if nothing has been
+        // read yet, at the tail, which is the first unread element. Checkpoints can keep older elements around,
+        // so the tail is not necessarily the current element.
+        Node node = this.pointer;
+        if (node == null)
+        {
+            node = this.hook.previous;
+            n--;
+        }
         while (n > 0 && node != this.hook)
         {
             n--;
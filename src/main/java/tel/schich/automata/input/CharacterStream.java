@@ -45,6 +45,10 @@ public final class CharacterStream implements Iterator<Character>, Iterable<Char
     @Override
     public boolean hasNext()
     {
+        if (buffer.hasReadableElements())
+        {
+            return true;
+        }
         try
         {
             return !source.isDepleted();
@@ -0,0 +1,316 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.ToLongFunction;
+
+import tel.schich.automata.DeterminizationBudgetException;
+
+/**
+ * The bounded, single-flight cache behind {@link PatternCache}, for any kind of compiled pattern. The values are
+ * handed out as they are, so they must either be immutable or be copied by the caller.
+ *
+ * @param <T> the type of the compiled patterns
+ */
+final class CompilationCache<T>
+{
+    private static final long COMPILING = -1;
+    private static final int SAMPLE_SIZE = 8;
+
+    private final int maximumSize;
+    private final long maximumWeight;
+    private final BiFunction<String, Integer, T> compiler;
+    private final ToLongFunction<T> weigher;
+
+    private final ConcurrentMap<Key, Entry<T>> entries = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final Object evictionLock = new Object();
+    private final List<Entry<T>> residents = new ArrayList<>();
+    private long weight = 0;
+
+    /**
+     * @param maximumSize the maximum number of cached patterns
+     * @param maximumWeight the maximum total weight of the cached patterns
+     * @param compiler compiles a pattern with the given flags
+     * @param weigher the weight of a compiled pattern
+     */
+    CompilationCache(int maximumSize, long maximumWeight, BiFunction<String, Integer, T> compiler, ToLongFunction<T> weigher)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException("The maximum size must be positive: " + maximumSize);
+        }
+        if (maximumWeight < 1)
+        {
+            throw new IllegalArgumentException("The maximum weight must be positive: " + maximumWeight);
+        }
+        this.maximumSize = maximumSize;
+        this.maximumWeight = maximumWeight;
+        this.compiler = compiler;
+        this.weigher = weigher;
+    }
+
+    T get(String pattern, int flags)
+    {
+        final Key key = new Key(pattern, flags);
+        final Entry<T> existing = entries.get(key);
+        if (existing != null)
+        {
+            return hit(key, existing);
+        }
+
+        final Entry<T> created = new Entry<>(key, new FutureTask<>(() -> compiler.apply(pattern, flags)), clock.incrementAndGet());
+        final Entry<T> raced = entries.putIfAbsent(key, created);
+        if (raced != null)
+        {
+            return hit(key, raced);
+        }
+
+        misses.increment();
+        created.task.run();
+        final T compiled;
+        try
+        {
+            compiled = await(key, created);
+        }
+        catch (DeterminizationBudgetException e)
+        {
+            settle(key, created, 0);
+            throw e;
+        }
+        settle(key, created, weigher.applyAsLong(compiled));
+        return compiled;
+    }
+
+    private void settle(Key key, Entry<T> entry, long entryWeight)
+    {
+        synchronized (evictionLock)
+        {
+            // the entry might have been cleared while it was compiling
+            if (entries.get(key) == entry)
+            {
+                entry.weight = entryWeight;
+                entry.slot = residents.size();
+                residents.add(entry);
+                weight += entryWeight;
+                evictIfNecessary();
+            }
+        }
+    }
+
+    private T hit(Key key, Entry<T> entry)
+    {
+        hits.increment();
+        entry.lastAccess = clock.incrementAndGet();
+        return await(key, entry);
+    }
+
+    private T await(Key key, Entry<T> entry)
+    {
+        try
+        {
+            return entry.task.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the compilation of " + key.pattern, e);
+        }
+        catch (ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if (!(cause instanceof DeterminizationBudgetException))
+            {
+                entries.remove(key, entry);
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException("Failed to compile " + key.pattern, cause);
+        }
+    }
+
+    /**
+     * Evicts compiled entries until both bounds hold again, each time the least recently used one of a sample of the
+     * compiled entries. Entries that are still compiling are never evicted. Must be called while holding the eviction
+     * lock.
+     */
+    private void evictIfNecessary()
+    {
+        while ((entries.size() > maximumSize || weight > maximumWeight) && !residents.isEmpty())
+        {
+            final Entry<T> victim = sampleLeastRecentlyUsed();
+            entries.remove(victim.key, victim);
+            evict(victim);
+            weight -= victim.weight;
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Samples distinct residents with Floyd's algorithm, all of them if there are no more than the sample size.
+     */
+    private Entry<T> sampleLeastRecentlyUsed()
+    {
+        final int count = residents.size();
+        final int sampleSize = Math.min(SAMPLE_SIZE, count);
+        final int[] sampled = new int[sampleSize];
+        Entry<T> oldest = null;
+        for (int i = 0, bound = count - sampleSize; i < sampleSize; ++i, ++bound)
+        {
+            int candidate = ThreadLocalRandom.current().nextInt(bound + 1);
+            for (int j = 0; j < i; ++j)
+            {
+                if (sampled[j] == candidate)
+                {
+                    candidate = bound;
+                    break;
+                }
+            }
+            sampled[i] = candidate;
+            final Entry<T> entry = residents.get(candidate);
+            if (oldest == null || entry.lastAccess < oldest.lastAccess)
+            {
+                oldest = entry;
+            }
+        }
+        return oldest;
+    }
+
+    private void evict(Entry<T> entry)
+    {
+        final Entry<T> last = residents.remove(residents.size() - 1);
+        if (last != entry)
+        {
+            last.slot = entry.slot;
+            residents.set(entry.slot, last);
+        }
+    }
+
+    long getHits()
+    {
+        return hits.sum();
+    }
+
+    long getMisses()
+    {
+        return misses.sum();
+    }
+
+    long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    int size()
+    {
+        return entries.size();
+    }
+
+    long getWeight()
+    {
+        synchronized (evictionLock)
+        {
+            return weight;
+        }
+    }
+
+    void clear()
+    {
+        synchronized (evictionLock)
+        {
+            entries.clear();
+            residents.clear();
+            weight = 0;
+        }
+    }
+
+    private static final class Entry<T>
+    {
+        private final Key key;
+        private final FutureTask<T> task;
+        private volatile long lastAccess;
+        private volatile long weight = COMPILING;
+        // the index in the residents, guarded by the eviction lock
+        private int slot = -1;
+
+        private Entry(Key key, FutureTask<T> task, long lastAccess)
+        {
+            this.key = key;
+            this.task = task;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private static final class Key
+    {
+        private final String pattern;
+        private final int flags;
+
+        private Key(String pattern, int flags)
+        {
+            this.pattern = pattern;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            final Key key = (Key)o;
+            return flags == key.flags && pattern.equals(key.pattern);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * pattern.hashCode() + flags;
+        }
+    }
+}
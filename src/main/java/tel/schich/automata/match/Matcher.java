@@ -22,15 +22,26 @@
  */
 package tel.schich.automata.match;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Pattern;
 
 import tel.schich.automata.DFA;
+import tel.schich.automata.DeterminizationBudgetException;
+import tel.schich.automata.NFA;
 import tel.schich.automata.State;
+import tel.schich.automata.compiled.ArrayDFA;
+import tel.schich.automata.compiled.CompiledDFA;
+import tel.schich.automata.compiled.CompiledMatcher;
+import tel.schich.automata.compiled.LazyDFA;
+import tel.schich.automata.match.pattern.Node;
 import tel.schich.automata.transition.CharacterTransition;
 import tel.schich.automata.transition.PlannedTransition;
+import tel.schich.automata.transition.RangeTransition;
 import tel.schich.automata.transition.WildcardTransition;
+import tel.schich.automata.util.CaseFolding;
+import tel.schich.automata.util.CharRange;
 
 import static java.util.Collections.emptySet;
 import static java.util.Collections.singleton;
@@ -38,10 +49,26 @@ import static tel.schich.automata.util.Util.asSet;
 
 public abstract class Matcher
 {
+    private static final PatternCache PATTERN_CACHE = new PatternCache();
+    // matchers are immutable, so they are shared; the fallbacks weigh as much as the states a thread may cache
+    private static final CompilationCache<CompiledMatcher> MATCHER_CACHE =
+            new CompilationCache<>(PatternCache.DEFAULT_MAXIMUM_SIZE, PatternCache.DEFAULT_MAXIMUM_WEIGHT, Matcher::compileMatcher,
+                                   matcher -> matcher instanceof CompiledDFA ? ((CompiledDFA)matcher).getStateCount() : LazyDFA.DEFAULT_MAXIMUM_STATES);
+
     private Matcher()
     {
     }
 
+    /**
+     * Returns the cache shared by {@link #matchJavaCompatibleRegex(String)} and {@link #match(Pattern)}.
+     *
+     * @return the shared pattern cache
+     */
+    public static PatternCache getPatternCache()
+    {
+        return PATTERN_CACHE;
+    }
+
     public static DFA matchWildcard()
     {
         final State start = new State();
@@ -94,13 +121,89 @@ public abstract class Matcher
         return new DFA(asSet(start, end), transitions, start, singleton(end));
     }
 
+    public static DFA matchRange(char first, char last)
+    {
+        return matchRanges(singleton(CharRange.range(first, last)));
+    }
+
+    public static DFA matchRanges(Collection<CharRange> ranges)
+    {
+        Set<PlannedTransition> transitions = new HashSet<>();
+        State start = new State();
+        State end = new State();
+
+        for (CharRange range : CharRange.normalize(ranges))
+        {
+            transitions.add(RangeTransition.of(start, range, end));
+        }
+
+        return new DFA(asSet(start, end), transitions, start, singleton(end));
+    }
+
     public static DFA matchJavaCompatibleRegex(String regex)
     {
-        return PatternParser.toDFA(regex).minimize();
+        return PATTERN_CACHE.get(regex);
     }
 
     public static DFA match(Pattern pattern)
     {
-        return matchJavaCompatibleRegex(pattern.toString());
+        return PATTERN_CACHE.get(pattern.pattern(), pattern.flags());
+    }
+
+    /**
+     * Compiles the given regex to a matcher. The DFA of the regex is determinized within the budget of
+     * {@link PatternCache#BUDGETED_COMPILER} and compiled to a table. Regexes whose determinization exceeds the budget
+     * are matched by a {@link LazyDFA} instead, which only builds the states the inputs visit, or by simulating their NFA
+     * if they have too many classes for the tables of a lazy DFA, see {@link LazyDFA#create(NFA, CaseFolding)}. The
+     * matchers are cached and shared, so compiling the same regex again is cheap.
+     *
+     * @param regex the regex
+     * @return the matcher
+     */
+    public static CompiledMatcher compile(String regex)
+    {
+        return compile(regex, 0);
+    }
+
+    /**
+     * Compiles the given regex with the given flags like {@link #compile(String)}. Regexes that don't distinguish case
+     * anywhere, like those compiled with {@link Pattern#CASE_INSENSITIVE}, are compiled over the folded alphabet and
+     * fold case in their class map instead of their transitions, so the automaton is as large as for the
+     * case-sensitive regex, see {@link Node#foldCase(CaseFolding)}.
+     *
+     * @param regex the regex
+     * @param flags the flags as defined by {@link Pattern}
+     * @return the matcher
+     */
+    public static CompiledMatcher compile(String regex, int flags)
+    {
+        return MATCHER_CACHE.get(regex, flags);
+    }
+
+    private static CompiledMatcher compileMatcher(String regex, int flags)
+    {
+        final Node node = PatternParser.parse(regex, flags);
+        final CaseFolding folding = CaseFolding.of(flags);
+        final Node folded = node.foldCase(folding);
+        if (folded != null && !folded.equals(node))
+        {
+            return compileWithinBudget(folded.toNFA(), folding);
+        }
+        return compileWithinBudget(node.toNFA(), null);
+    }
+
+    private static CompiledMatcher compileWithinBudget(NFA nfa, CaseFolding folding)
+    {
+        final DFA dfa;
+        try
+        {
+            dfa = nfa.toDFA(PatternCache.DEFAULT_STATE_BUDGET, PatternCache.DEFAULT_TIME_BUDGET_MILLIS).minimize();
+        }
+        catch (DeterminizationBudgetException e)
+        {
+            return LazyDFA.create(nfa, folding);
+        }
+        final ArrayDFA table = CompiledDFA.compile(dfa);
+        return folding != null ? table.foldCase(folding) : table;
     }
 }
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match;
+
+import java.util.function.BiFunction;
+
+import tel.schich.automata.DFA;
+import tel.schich.automata.DeterminizationBudgetException;
+import tel.schich.automata.NFA;
+
+/**
+ * A concurrent cache of compiled patterns, keyed by the pattern and its flags. The cache is bounded both by the number
+ * of entries and by their total weight, which is the number of states of the compiled automata. When either bound is
+ * exceeded, entries are evicted in approximately least recently used order: each eviction picks the least recently
+ * used of a few randomly sampled entries, so it takes constant time regardless of the size of the cache.
+ * <p>
+ * Compilations are single-flight: concurrent callers asking for the same missing pattern wait for one compilation
+ * instead of compiling it themselves. A failed compilation is not cached, its exception is rethrown to all callers
+ * that waited for it. Compilations that exceed their {@link DeterminizationBudgetException budget} are the exception:
+ * compiling them again would only spend the budget again, so the failure is cached without weight and rethrown to
+ * later callers until it is evicted.
+ * <p>
+ * Cached automata are never handed out directly, callers always receive a copy with fresh states.
+ */
+public class PatternCache
+{
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 1 << 20;
+
+    public static final int DEFAULT_STATE_BUDGET = 1 << 16;
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 5000;
+
+    /**
+     * Compiles patterns to minimized DFAs. The flags are interpreted by {@link PatternParser#parse(String, int)}.
+     */
+    public static final BiFunction<String, Integer, DFA> DEFAULT_COMPILER =
+            (pattern, flags) -> PatternParser.toNFA(pattern, flags).toDFA().minimize();
+
+    /**
+     * Compiles patterns like {@link #DEFAULT_COMPILER}, but within the default budget, see
+     * {@link NFA#toDFA(int, long)}. Compilations exceeding it throw a
+     * {@link tel.schich.automata.DeterminizationBudgetException}.
+     */
+    public static final BiFunction<String, Integer, DFA> BUDGETED_COMPILER =
+            (pattern, flags) -> PatternParser.toNFA(pattern, flags).toDFA(DEFAULT_STATE_BUDGET, DEFAULT_TIME_BUDGET_MILLIS).minimize();
+
+    private final CompilationCache<DFA> cache;
+
+    public PatternCache()
+    {
+        this(DEFAULT_MAXIMUM_SIZE, DEFAULT_MAXIMUM_WEIGHT);
+    }
+
+    public PatternCache(int maximumSize, long maximumWeight)
+    {
+        this(maximumSize, maximumWeight, DEFAULT_COMPILER);
+    }
+
+    /**
+     * @param maximumSize the maximum number of cached patterns
+     * @param maximumWeight the maximum number of states of all cached automata together
+     * @param compiler compiles a pattern with the given flags
+     */
+    public PatternCache(int maximumSize, long maximumWeight, BiFunction<String, Integer, DFA> compiler)
+    {
+        this.cache = new CompilationCache<>(maximumSize, maximumWeight, compiler, automaton -> automaton.getStates().size());
+    }
+
+    public DFA get(String pattern)
+    {
+        return get(pattern, 0);
+    }
+
+    /**
+     * Returns the compiled automaton of the given pattern, compiling it if it isn't cached yet.
+     *
+     * @param pattern the pattern
+     * @param flags the flags to compile the pattern with, in the format of {@link java.util.regex.Pattern#flags()}
+     * @return a copy of the compiled automaton
+     */
+    public DFA get(String pattern, int flags)
+    {
+        return cache.get(pattern, flags).copy();
+    }
+
+    public long getHits()
+    {
+        return cache.getHits();
+    }
+
+    public long getMisses()
+    {
+        return cache.getMisses();
+    }
+
+    public long getEvictions()
+    {
+        return cache.getEvictions();
+    }
+
+    /**
+     * @return the share of lookups answered by the cache, 0 if there were none yet
+     */
+    public double getHitRate()
+    {
+        final long hits = getHits();
+        final long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double)hits / lookups;
+    }
+
+    public int size()
+    {
+        return cache.size();
+    }
+
+    /**
+     * @return the total number of states of all cached automata
+     */
+    public long getWeight()
+    {
+        return cache.getWeight();
+    }
+
+    public void clear()
+    {
+        cache.clear();
+    }
+}
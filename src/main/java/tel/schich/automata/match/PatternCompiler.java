@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tel.schich.automata.DFA;
+import tel.schich.automata.FiniteAutomaton;
+import tel.schich.automata.NFA;
+import tel.schich.automata.match.pattern.Alternation;
+import tel.schich.automata.match.pattern.CharClass;
+import tel.schich.automata.match.pattern.Complement;
+import tel.schich.automata.match.pattern.Epsilon;
+import tel.schich.automata.match.pattern.Intersection;
+import tel.schich.automata.match.pattern.Node;
+import tel.schich.automata.match.pattern.NodeVisitor;
+import tel.schich.automata.match.pattern.Repetition;
+import tel.schich.automata.match.pattern.Sequence;
+import tel.schich.automata.match.pattern.Wildcard;
+import tel.schich.automata.transition.Transition;
+
+/**
+ * Compiles patterns to minimized DFAs and shares the work between patterns: the minimized automaton of every composite
+ * sub-expression is cached under its tree, which is normalized and compared structurally, so equal sub-expressions of
+ * different patterns are only compiled once. The cache holds a bounded number of entries and evicts the least recently
+ * used one when full.
+ * <p>
+ * Cached automata are never handed out directly, callers always receive a copy with fresh states. All methods are
+ * thread-safe. The lock is only held to look up and insert sub-expressions, so unrelated patterns compile
+ * concurrently. Threads compiling the same missing sub-expression at the same time may both compile it.
+ */
+public class PatternCompiler
+{
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Map<Node, DFA> cache;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public PatternCompiler()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PatternCompiler(final int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+        this.cache = new LinkedHashMap<Node, DFA>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Node, DFA> eldest)
+            {
+                if (size() > capacity)
+                {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public DFA compile(String pattern)
+    {
+        return compile(PatternParser.parse(pattern));
+    }
+
+    public DFA compile(Node pattern)
+    {
+        return pattern.accept(new Compilation()).copy();
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * @return the share of sub-expression lookups answered by the cache, 0 if there were none yet
+     */
+    public synchronized double getHitRate()
+    {
+        final long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double)hits / lookups;
+    }
+
+    public synchronized int size()
+    {
+        return cache.size();
+    }
+
+    public synchronized void clear()
+    {
+        cache.clear();
+    }
+
+    /**
+     * Compiles a tree bottom-up. Leaves are built directly, composite nodes are looked up in the cache first and
+     * otherwise assembled from copies of their compiled children and minimized.
+     */
+    private final class Compilation implements NodeVisitor<DFA>
+    {
+        private DFA cached(Node node)
+        {
+            final DFA automaton;
+            synchronized (PatternCompiler.this)
+            {
+                automaton = cache.get(node);
+                if (automaton == null)
+                {
+                    misses++;
+                    return null;
+                }
+                hits++;
+            }
+            return automaton.copy();
+        }
+
+        private DFA store(Node node, FiniteAutomaton<? extends Transition> automaton)
+        {
+            final DFA minimized = automaton.toDFA().minimize();
+            synchronized (PatternCompiler.this)
+            {
+                cache.put(node, minimized);
+            }
+            return minimized;
+        }
+
+        @Override
+        public DFA visitEpsilon(Epsilon node)
+        {
+            return Matcher.match("");
+        }
+
+        @Override
+        public DFA visitCharClass(CharClass node)
+        {
+            return Matcher.matchRanges(node.getRanges());
+        }
+
+        @Override
+        public DFA visitWildcard(Wildcard node)
+        {
+            return Matcher.matchWildcard();
+        }
+
+        @Override
+        public DFA visitSequence(Sequence node)
+        {
+            final DFA cached = cached(node);
+            if (cached != null)
+            {
+                return cached;
+            }
+            NFA automaton = node.getElements().get(0).accept(this).toNFA();
+            for (final Node element : node.getElements().subList(1, node.getElements().size()))
+            {
+                automaton = automaton.concat(element.accept(this));
+            }
+            return store(node, automaton);
+        }
+
+        @Override
+        public DFA visitAlternation(Alternation node)
+        {
+            final DFA cached = cached(node);
+            if (cached != null)
+            {
+                return cached;
+            }
+            NFA automaton = node.getAlternatives().get(0).accept(this).toNFA();
+            for (final Node alternative : node.getAlternatives().subList(1, node.getAlternatives().size()))
+            {
+                automaton = automaton.or(alternative.accept(this));
+            }
+            return store(node, automaton);
+        }
+
+        @Override
+        public DFA visitRepetition(Repetition node)
+        {
+            final DFA cached = cached(node);
+            if (cached != null)
+            {
+                return cached;
+            }
+            final DFA body = node.getBody().accept(this);
+            // every repetition gets its own copy of the body, so the concatenated parts don't share states
+            NFA automaton = Matcher.match("").toNFA();
+            for (int i = 0; i < node.getMin(); ++i)
+            {
+                automaton = automaton.concat(body.copy());
+            }
+            if (node.isUnbounded())
+            {
+                automaton = automaton.concat(body.copy().kleeneStar());
+            }
+            else
+            {
+                for (int i = node.getMin(); i < node.getMax(); ++i)
+                {
+                    automaton = automaton.concat(body.copy().or(Matcher.match("")));
+                }
+            }
+            return store(node, automaton);
+        }
+
+        @Override
+        public DFA visitIntersection(Intersection node)
+        {
+            final DFA cached = cached(node);
+            if (cached != null)
+            {
+                return cached;
+            }
+            DFA automaton = node.getOperands().get(0).accept(this);
+            for (final Node operand : node.getOperands().subList(1, node.getOperands().size()))
+            {
+                automaton = automaton.intersectWith(operand.accept(this));
+            }
+            return store(node, automaton);
+        }
+
+        @Override
+        public DFA visitComplement(Complement node)
+        {
+            final DFA cached = cached(node);
+            if (cached != null)
+            {
+                return cached;
+            }
+            return store(node, node.getBody().accept(this).complement());
+        }
+    }
+}
@@ -26,20 +26,38 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 import tel.schich.automata.input.CharacterStream;
 import tel.schich.automata.DFA;
-import tel.schich.automata.FiniteAutomaton;
 import tel.schich.automata.NFA;
-import tel.schich.automata.transition.Transition;
 import tel.schich.automata.input.source.CharSequenceSource;
-import tel.schich.automata.util.Util;
+import tel.schich.automata.match.pattern.Alternation;
+import tel.schich.automata.match.pattern.CharClass;
+import tel.schich.automata.match.pattern.DerivativeAutomaton;
+import tel.schich.automata.match.pattern.Group;
+import tel.schich.automata.match.pattern.Node;
+import tel.schich.automata.match.pattern.Repetition;
+import tel.schich.automata.match.pattern.Sequence;
+import tel.schich.automata.match.pattern.Wildcard;
+import tel.schich.automata.util.CaseFolding;
+import tel.schich.automata.util.CharRange;
 import tel.schich.automata.input.CharBuffer;
 
-import static tel.schich.automata.match.Matcher.*;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableList;
 
 public abstract class PatternParser
 {
+    private static final List<CharRange> SPACE = unmodifiableList(asList(CharRange.range('\t', '\r'), CharRange.single(' ')));
+    private static final List<CharRange> DIGIT = singletonList(CharRange.range('0', '9'));
+    private static final List<CharRange> WORD = unmodifiableList(asList(CharRange.range('0', '9'), CharRange.range('A', 'Z'),
+                                                                        CharRange.single('_'), CharRange.range('a', 'z')));
+    private static final String PREDEFINED_CLASSES = "sSdDwW";
+    private static final List<CharRange> LINE_BREAK = unmodifiableList(asList(CharRange.range('\n', '\r'), CharRange.single('\u0085'),
+                                                                              CharRange.range('\u2028', '\u2029')));
+
     private PatternParser()
     {}
 
@@ -48,104 +66,233 @@ public abstract class PatternParser
         return toNFA(pattern).toDFA();
     }
 
+    public static DFA toDFA(String pattern, int flags)
+    {
+        return toNFA(pattern, flags).toDFA();
+    }
+
+    /**
+     * Parses the given pattern and builds its position automaton, see {@link Node#toNFA()}.
+     *
+     * @param pattern the pattern
+     * @return an epsilon-free NFA matching the pattern
+     */
     public static NFA toNFA(String pattern)
     {
-        return readExpression(new CharacterStream(new CharSequenceSource(pattern)), 0);
+        return parse(pattern).toNFA();
+    }
+
+    public static NFA toNFA(String pattern, int flags)
+    {
+        return parse(pattern, flags).toNFA();
+    }
+
+    /**
+     * Parses the given pattern into an automaton of derivatives, which computes its states lazily while matching
+     * instead of building an NFA first.
+     *
+     * @param pattern the pattern
+     * @return the lazy automaton matching the pattern
+     */
+    public static DerivativeAutomaton toDerivativeAutomaton(String pattern)
+    {
+        return new DerivativeAutomaton(parse(pattern));
+    }
+
+    public static Node parse(String pattern)
+    {
+        return parse(pattern, 0);
     }
 
-    private static NFA readExpression(CharacterStream stream, int depth)
+    /**
+     * Parses the given pattern with the given flags. Of the flags only {@link Pattern#CASE_INSENSITIVE} and
+     * {@link Pattern#UNICODE_CASE} are supported, which select the {@link CaseFolding}. The inline flags
+     * {@code (?i)} and {@code (?-i)} switch case-insensitivity for the rest of the enclosing group, {@code (?i:X)} and
+     * {@code (?-i:X)} only for X. Case-insensitive characters and ranges match all their case variants, the
+     * predefined classes like {@code \w} are not folded, just like java.util.regex does.
+     *
+     * @param pattern the pattern
+     * @param flags the flags as defined by {@link Pattern}
+     * @return the tree
+     */
+    public static Node parse(String pattern, int flags)
     {
-        LinkedList<FiniteAutomaton<? extends Transition>> elements = new LinkedList<>();
+        final boolean caseInsensitive = (flags & Pattern.CASE_INSENSITIVE) != 0;
+        return readAlternatives(new CharacterStream(new CharSequenceSource(pattern)), 0, null, CaseFolding.of(flags),
+                                caseInsensitive);
+    }
+
+    /**
+     * Parses the given pattern like {@link #parse(String)}, but keeps its capturing groups as {@link Group} nodes,
+     * numbered by their opening parenthesis. Groups opened by {@code (?:} don't capture.
+     *
+     * @param pattern the pattern
+     * @return the tree with groups
+     */
+    public static Node parseCapturing(String pattern)
+    {
+        return parseCapturing(pattern, 0);
+    }
+
+    /**
+     * Parses the given pattern with groups like {@link #parseCapturing(String)} and with flags like
+     * {@link #parse(String, int)}.
+     *
+     * @param pattern the pattern
+     * @param flags the flags as defined by {@link Pattern}
+     * @return the tree with groups
+     */
+    public static Node parseCapturing(String pattern, int flags)
+    {
+        final boolean caseInsensitive = (flags & Pattern.CASE_INSENSITIVE) != 0;
+        return readAlternatives(new CharacterStream(new CharSequenceSource(pattern)), 0, new int[] {0}, CaseFolding.of(flags),
+                                caseInsensitive);
+    }
+
+    /**
+     * @param groups the number of groups opened so far or null if groups are not captured
+     * @param folding the folding of case-insensitive parts
+     * @param caseInsensitive whether the group starts case-insensitive
+     */
+    private static Node readAlternatives(CharacterStream stream, int depth, int[] groups, CaseFolding folding,
+                                         boolean caseInsensitive)
+    {
+        boolean insensitive = caseInsensitive;
+        List<Node> alternatives = new ArrayList<>();
+        LinkedList<Node> elements = new LinkedList<>();
 
         for (final char c : stream)
         {
+            final CaseFolding active = insensitive ? folding : null;
             switch (c)
             {
                 case '[':
-                    elements.addLast(readCharacterClass(stream, 0));
+                    elements.addLast(readCharacterClass(stream, active));
                     break;
                 case '(':
-                    elements.addLast(readExpression(stream, depth + 1));
+                    final int flagLength = inlineCaseFlagLength(stream);
+                    if (flagLength > 0)
+                    {
+                        final boolean flag = stream.peekAhead(2) != '-';
+                        for (int i = 0; i < flagLength; ++i)
+                        {
+                            stream.advance();
+                        }
+                        if (stream.current() == ')')
+                        {
+                            insensitive = flag;
+                        }
+                        else
+                        {
+                            elements.addLast(readAlternatives(stream, depth + 1, groups, folding, flag));
+                        }
+                    }
+                    else if (stream.canPeekAhead(2) && stream.peekAhead() == '?' && stream.peekAhead(2) == ':')
+                    {
+                        stream.advance();
+                        stream.advance();
+                        elements.addLast(readAlternatives(stream, depth + 1, groups, folding, insensitive));
+                    }
+                    else if (groups != null)
+                    {
+                        final int index = ++groups[0];
+                        elements.addLast(Group.of(index, readAlternatives(stream, depth + 1, groups, folding, insensitive)));
+                    }
+                    else
+                    {
+                        elements.addLast(readAlternatives(stream, depth + 1, null, folding, insensitive));
+                    }
                     break;
                 case ')':
                     if (depth > 0)
                     {
-                        break;
+                        alternatives.add(Sequence.of(elements));
+                        return Alternation.of(alternatives);
                     }
+                    elements.addLast(CharClass.literal(c));
+                    break;
                 case '|':
-                    NFA left = bakeAutomaton(elements);
-                    NFA right = readExpression(stream, depth);
-                    elements.clear();
-                    elements.add(left.or(right));
+                    alternatives.add(Sequence.of(elements));
+                    elements = new LinkedList<>();
                     break;
                 case '+':
                 case '*':
                 case '{':
                 case '?':
-                    if (!elements.isEmpty())
+                    final Node quantified = elements.isEmpty() ? null : readQuantifier(stream, elements.getLast());
+                    if (quantified != null)
                     {
-                        elements.addLast(readQuantifier(stream, elements.removeLast()));
+                        elements.removeLast();
+                        elements.addLast(quantified);
                     }
                     else
                     {
-                        elements.addLast(readCharacter(stream, false));
+                        elements.addLast(readCharacter(stream, false, active));
                     }
                     break;
                 case '.':
-                    elements.add(matchWildcard());
+                    elements.addLast(Wildcard.INSTANCE);
                     break;
                 default:
-                    elements.addLast(readCharacter(stream, true));
+                    elements.addLast(readCharacter(stream, true, active));
             }
         }
-        return bakeAutomaton(elements);
+        alternatives.add(Sequence.of(elements));
+        return Alternation.of(alternatives);
     }
 
-    static NFA bakeAutomaton(LinkedList<FiniteAutomaton<? extends Transition>> elements)
+    /**
+     * Measures the inline flags {@code (?i)}, {@code (?-i)}, {@code (?i:} and {@code (?-i:} at the current
+     * parenthesis.
+     *
+     * @return the number of characters following the parenthesis up to the closing one or the colon or 0 if there
+     *         are no inline flags
+     */
+    private static int inlineCaseFlagLength(CharacterStream s)
     {
-        if (elements.isEmpty())
+        if (!s.canPeekAhead(3) || s.peekAhead() != '?')
         {
-            return NFA.EMPTY;
+            return 0;
         }
-        NFA automaton = elements.getFirst().toNFA();
-        for (final FiniteAutomaton<? extends Transition> element : elements.subList(1, elements.size()))
+        final int length = s.peekAhead(2) == '-' ? 4 : 3;
+        if (!s.canPeekAhead(length) || s.peekAhead(length - 1) != 'i')
         {
-            automaton = automaton.concat(element);
+            return 0;
         }
-
-        return automaton;
+        final char end = s.peekAhead(length);
+        return end == ')' || end == ':' ? length : 0;
     }
 
-    private static NFA readQuantifier(CharacterStream s, FiniteAutomaton<? extends Transition> automaton)
+    private static Node readQuantifier(CharacterStream s, Node node)
     {
         switch (s.current())
         {
             case '*':
-                return automaton.kleeneStar();
+                return Repetition.of(node, 0, Repetition.UNBOUNDED);
             case '+':
-                return automaton.kleenePlus();
+                return Repetition.of(node, 1, Repetition.UNBOUNDED);
             case '?':
-                return automaton.or(NFA.EPSILON);
+                return Repetition.of(node, 0, 1);
             case '{':
-                return readSpecificQuantifier(s, automaton);
+                return readSpecificQuantifier(s, node);
             default:
-                return automaton.toNFA();
+                return null;
         }
     }
 
-    private static NFA readSpecificQuantifier(CharacterStream s, FiniteAutomaton<? extends Transition> automaton)
+    private static Node readSpecificQuantifier(CharacterStream s, Node node)
     {
         final CharBuffer.Checkpoint checkpoint = s.checkpoint();
 
         if (s.canPeekAhead() && Character.isDigit(s.peekAhead()))
         {
             int min = readNumber(s, NumberSyntax.DECIMAL);
-            char c = s.current();
+            char c = s.canPeekAhead() ? s.next() : s.current();
 
             if (c == '}')
             {
                 checkpoint.drop();
-                return automaton.repeat(min);
+                return Repetition.of(node, min, min);
             }
             else if (c == ',' && s.canPeekAhead())
             {
@@ -153,188 +300,250 @@ public abstract class PatternParser
                 if (Character.isDigit(peeked))
                 {
                     int max = readNumber(s, NumberSyntax.DECIMAL);
-                    if (s.current() == '}')
+                    if (s.canPeekAhead() && s.peekAhead() == '}' && max >= min)
                     {
                         checkpoint.drop();
                         s.advance();
-                        return automaton.repeatMinMax(min, max);
+                        return Repetition.of(node, min, max);
                     }
                 }
                 else if (peeked == '}')
                 {
                     checkpoint.drop();
-                    return automaton.repeatMin(min);
+                    s.advance();
+                    return Repetition.of(node, min, Repetition.UNBOUNDED);
                 }
             }
         }
 
         checkpoint.restore();
-
-        return automaton.concat(readCharacter(s, true));
+        return null;
     }
 
+    /**
+     * Reads the digits following the current character, at most as many as the syntax allows.
+     */
     private static int readNumber(CharacterStream s, NumberSyntax syntax)
     {
         StringBuilder buf = new StringBuilder();
-        for (final char c : s)
+        while (buf.length() < syntax.getMaxDigits() && s.canPeekAhead() && syntax.accept(s.peekAhead()))
         {
-            if (syntax.accept(c))
-            {
-                buf.append(c);
-            }
+            buf.append(s.next());
+        }
+        if (buf.length() == 0)
+        {
+            throw new IllegalArgumentException("Expected a number in base " + syntax.getBase() + " after: " + s.current());
         }
 
-        return Integer.valueOf(buf.toString(), syntax.getBase());
+        return Integer.parseInt(buf.toString(), syntax.getBase());
     }
 
-    private static DFA readCharacterClass(CharacterStream s, int depth)
+    /**
+     * @param folding the case folding or null if the class is case-sensitive
+     */
+    private static Node readCharacterClass(CharacterStream s, CaseFolding folding)
     {
-        NFA automaton = NFA.EMPTY;
+        final CharBuffer.Checkpoint checkpoint = s.checkpoint();
+        final List<CharRange> ranges = readCharacterClassRanges(s, folding);
+        if (ranges == null)
+        {
+            checkpoint.restore();
+            return readCharacter(s, true, folding);
+        }
+        checkpoint.drop();
+        return CharClass.of(ranges);
+    }
 
+    private static List<CharRange> readCharacterClassRanges(CharacterStream s, CaseFolding folding)
+    {
         if (!s.canPeekAhead(2))
         {
-            return readCharacter(s, true);
+            return null;
         }
         boolean negative = s.peekAhead() == '^';
-
-        final CharBuffer.Checkpoint checkpoint = s.checkpoint();
         if (negative)
         {
             s.advance();
         }
         if (s.peekAhead() == ']')
         {
-            checkpoint.restore();
-            return readCharacter(s, true);
+            return null;
         }
 
-        boolean hasEnded = false;
+        final List<CharRange> ranges = new ArrayList<>();
         for (final char c : s)
         {
             if (c == ']')
             {
-                hasEnded = true;
-                break;
+                // negated classes are complemented on the alphabet instead of the automaton, after folding
+                return negative ? CharRange.complement(ranges) : ranges;
             }
             if (c == '[')
             {
-                automaton = automaton.or(readCharacterClass(s, depth + 1));
+                final CharBuffer.Checkpoint checkpoint = s.checkpoint();
+                final List<CharRange> nested = readCharacterClassRanges(s, folding);
+                if (nested == null)
+                {
+                    checkpoint.restore();
+                    ranges.add(CharRange.single(c));
+                }
+                else
+                {
+                    checkpoint.drop();
+                    ranges.addAll(nested);
+                }
             }
             else
             {
-                automaton = automaton.or(readCharacter(s, false));
+                ranges.addAll(readCharacterClassMember(s, folding));
             }
         }
 
-        if (!hasEnded)
+        return null;
+    }
+
+    private static List<CharRange> readCharacterClassMember(CharacterStream s, CaseFolding folding)
+    {
+        final boolean predefined = isPredefined(s);
+        final List<CharRange> first = s.current() == '\\' ? readEscapedRanges(s) : singletonList(CharRange.single(s.current()));
+        if (first.size() != 1 || first.get(0).size() != 1 || !s.canPeekAhead(2) || s.peekAhead() != '-' || s.peekAhead(2) == ']')
         {
-            checkpoint.restore();
-            return readCharacter(s, true);
+            return predefined ? first : closed(first, folding);
         }
-        checkpoint.drop();
-        if (negative)
+
+        s.advance();
+        s.advance();
+        final List<CharRange> last = s.current() == '\\' ? readEscapedRanges(s) : singletonList(CharRange.single(s.current()));
+        if (last.size() != 1 || last.get(0).size() != 1)
         {
-            return automaton.complement();
+            throw new IllegalArgumentException("Illegal character range end: " + last);
         }
-        return automaton.toDFA();
+        return closed(singletonList(CharRange.range(first.get(0).getFirst(), last.get(0).getFirst())), folding);
     }
 
-    static DFA readCharacter(CharacterStream s, boolean allowQuote)
+    /**
+     * Checks whether the current character starts an escaped predefined class, which is not folded.
+     */
+    private static boolean isPredefined(CharacterStream s)
     {
-        char c = s.current();
-        if (c == '\\')
-        {
-            return readEscapeSequence(s, allowQuote);
-        }
-        return matchOne(c);
+        return s.current() == '\\' && s.canPeekAhead() && PREDEFINED_CLASSES.indexOf(s.peekAhead()) >= 0;
     }
 
-    private static DFA readEscapeSequence(CharacterStream s, boolean allowQuote)
+    private static List<CharRange> closed(List<CharRange> ranges, CaseFolding folding)
+    {
+        return folding == null ? ranges : folding.close(ranges);
+    }
+
+    private static List<CharRange> readEscapedRanges(CharacterStream s)
     {
         switch (s.next())
         {
             case 't':
-                return matchOne('\t');
+                return singletonList(CharRange.single('\t'));
             case 'n':
-                return matchOne('\n');
+                return singletonList(CharRange.single('\n'));
             case 'r':
-                return matchOne('\r');
+                return singletonList(CharRange.single('\r'));
             case 'f':
-                return matchOne('\f');
+                return singletonList(CharRange.single('\f'));
             case 'a':
-                return matchOne('\u0007');
+                return singletonList(CharRange.single('\u0007'));
             case 'e':
-                return matchOne('\u001B');
+                return singletonList(CharRange.single('\u001B'));
             case 's':
-                return matchOne(' ', '\t', '\n', (char)0xB, '\f', '\r');
-            case '\\':
-                return matchOne('\\');
+                return SPACE;
+            case 'S':
+                return CharRange.complement(SPACE);
             case 'd':
-                return matchOne('0', '1', '2', '3', '4', '5', '6', '7', '8', '9');
+                return DIGIT;
+            case 'D':
+                return CharRange.complement(DIGIT);
             case 'w':
-                List<Character> chars = new ArrayList<>();
-                for (int i = 'a'; i <= 'z'; ++i)
-                {
-                    chars.add((char)i);
-                }
-                for (int i = 'A'; i <= 'Z'; ++i)
-                {
-                    chars.add((char)i);
-                }
-                chars.add('_');
-                for (int i = '0'; i <= '9'; ++i)
-                {
-                    chars.add((char)i);
-                }
-                return matchOne(Util.convertCharCollectionToArray(chars));
-            case 'R':
-                return matchAll('\r', '\n').or(matchOne('\n', '\u000B', '\u000C', '\r', '\u0085', '\u2028',
-                                                        '\u2029')).toDFA();
+                return WORD;
+            case 'W':
+                return CharRange.complement(WORD);
             case '0':
-                return matchOne((char)readNumber(s, NumberSyntax.OCTAL));
+                return singletonList(CharRange.single((char)readNumber(s, NumberSyntax.OCTAL)));
             case 'x':
-                return matchOne((char)readNumber(s, NumberSyntax.HEXADECIMAL));
+                return singletonList(CharRange.single((char)readNumber(s, NumberSyntax.HEXADECIMAL)));
+            default:
+                return singletonList(CharRange.single(s.current()));
+        }
+    }
+
+    static Node readCharacter(CharacterStream s, boolean allowQuote)
+    {
+        return readCharacter(s, allowQuote, null);
+    }
+
+    private static Node readCharacter(CharacterStream s, boolean allowQuote, CaseFolding folding)
+    {
+        char c = s.current();
+        if (c == '\\' && s.canPeekAhead())
+        {
+            return readEscapeSequence(s, allowQuote, folding);
+        }
+        return literal(c, folding);
+    }
+
+    private static Node literal(char c, CaseFolding folding)
+    {
+        return folding == null ? CharClass.literal(c) : CharClass.of(folding.close(singletonList(CharRange.single(c))));
+    }
+
+    private static Node readEscapeSequence(CharacterStream s, boolean allowQuote, CaseFolding folding)
+    {
+        switch (s.peekAhead())
+        {
+            case 'R':
+                s.advance();
+                return Alternation.of(asList(Sequence.of(asList(CharClass.literal('\r'), CharClass.literal('\n'))),
+                                             CharClass.of(LINE_BREAK)));
             case 'Q':
                 if (allowQuote)
                 {
-                    return readQuoted(s);
+                    s.advance();
+                    return readQuoted(s, folding);
                 }
             default:
-                return readCharacter(s, allowQuote);
+                final boolean predefined = isPredefined(s);
+                final List<CharRange> ranges = readEscapedRanges(s);
+                return CharClass.of(predefined ? ranges : closed(ranges, folding));
         }
     }
 
-    private static DFA readQuoted(CharacterStream s)
+    /**
+     * Reads everything up to the next \E or the end of the pattern literally.
+     */
+    private static Node readQuoted(CharacterStream s, CaseFolding folding)
     {
-        LinkedList<FiniteAutomaton<? extends Transition>> elems = new LinkedList<>();
-        final CharBuffer.Checkpoint checkpoint = s.checkpoint();
-        for (final Character c : s)
+        List<Node> elements = new ArrayList<>();
+        for (final char c : s)
         {
             if (c == '\\' && s.canPeekAhead() && s.peekAhead() == 'E')
             {
                 s.advance();
-                checkpoint.drop();
-                return bakeAutomaton(elems).toDFA();
+                break;
             }
-            elems.add(readCharacter(s, false));
+            elements.add(literal(c, folding));
         }
-
-        checkpoint.restore();
-        return readCharacter(s, true);
+        return Sequence.of(elements);
     }
 
     private enum NumberSyntax
     {
-        OCTAL(8, c -> c >= '0' && c <= '7'),
-        DECIMAL(10, c -> c >= '0' && c <= '9'),
-        HEXADECIMAL(16, c -> DECIMAL.accept(c) || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F');
+        OCTAL(8, 3, c -> c >= '0' && c <= '7'),
+        DECIMAL(10, 9, c -> c >= '0' && c <= '9'),
+        HEXADECIMAL(16, 2, c -> DECIMAL.accept(c) || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F');
 
         private final int base;
+        private final int maxDigits;
         private final Predicate<Character> accept;
 
-        NumberSyntax(int base, Predicate<Character> accept)
+        NumberSyntax(int base, int maxDigits, Predicate<Character> accept)
         {
             this.base = base;
+            this.maxDigits = maxDigits;
             this.accept = accept;
         }
 
@@ -343,6 +552,11 @@ public abstract class PatternParser
             return base;
         }
 
+        public int getMaxDigits()
+        {
+            return maxDigits;
+        }
+
         public boolean accept(char c) {
             return accept.test(c);
         }
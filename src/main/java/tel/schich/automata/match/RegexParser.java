@@ -22,15 +22,20 @@
  */
 package tel.schich.automata.match;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+
 import tel.schich.automata.input.CharacterStream;
 import tel.schich.automata.DFA;
-import tel.schich.automata.FiniteAutomaton;
 import tel.schich.automata.NFA;
-import tel.schich.automata.transition.Transition;
 import tel.schich.automata.input.source.CharSequenceSource;
+import tel.schich.automata.match.pattern.Alternation;
+import tel.schich.automata.match.pattern.CharClass;
+import tel.schich.automata.match.pattern.Node;
+import tel.schich.automata.match.pattern.Repetition;
+import tel.schich.automata.match.pattern.Sequence;
 
-import static tel.schich.automata.match.PatternParser.bakeAutomaton;
 import static tel.schich.automata.match.PatternParser.readCharacter;
 
 public abstract class RegexParser
@@ -45,41 +50,49 @@ public abstract class RegexParser
 
     public static NFA toNFA(String regex)
     {
-        return readExpression(new CharacterStream(new CharSequenceSource(regex)), 0);
+        return parse(regex).toNFA();
+    }
+
+    public static Node parse(String regex)
+    {
+        return readAlternatives(new CharacterStream(new CharSequenceSource(regex)), 0);
     }
 
-    private static NFA readExpression(CharacterStream stream, int depth)
+    private static Node readAlternatives(CharacterStream stream, int depth)
     {
-        LinkedList<FiniteAutomaton<? extends Transition>> elements = new LinkedList<>();
+        List<Node> alternatives = new ArrayList<>();
+        LinkedList<Node> elements = new LinkedList<>();
 
         for (final char c : stream)
         {
             switch (c)
             {
                 case '(':
-                    elements.addLast(readExpression(stream, depth + 1));
+                    elements.addLast(readAlternatives(stream, depth + 1));
                     break;
                 case ')':
                     if (depth > 0)
                     {
-                        break;
+                        alternatives.add(Sequence.of(elements));
+                        return Alternation.of(alternatives);
                     }
+                    elements.addLast(CharClass.literal(c));
+                    break;
                 case '|':
-                    NFA left = bakeAutomaton(elements);
-                    NFA right = readExpression(stream, depth);
-                    elements.clear();
-                    elements.add(left.or(right));
+                    alternatives.add(Sequence.of(elements));
+                    elements = new LinkedList<>();
                     break;
                 case '*':
                     if (!elements.isEmpty())
                     {
-                        elements.addLast(elements.removeLast().kleeneStar());
+                        elements.addLast(Repetition.of(elements.removeLast(), 0, Repetition.UNBOUNDED));
                         break;
                     }
                 default:
                     elements.addLast(readCharacter(stream, true));
             }
         }
-        return bakeAutomaton(elements);
+        alternatives.add(Sequence.of(elements));
+        return Alternation.of(alternatives);
     }
 }
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Matches any one of its alternatives.
+ */
+public final class Alternation extends Node
+{
+    private final List<Node> alternatives;
+
+    private Alternation(List<Node> alternatives)
+    {
+        this.alternatives = unmodifiableList(alternatives);
+    }
+
+    /**
+     * Creates a node for the given alternatives, nested alternations are flattened.
+     *
+     * @param alternatives the alternatives, at least one
+     * @return an alternation or the only alternative
+     */
+    public static Node of(List<Node> alternatives)
+    {
+        List<Node> flat = new ArrayList<>();
+        for (Node alternative : alternatives)
+        {
+            if (alternative instanceof Alternation)
+            {
+                flat.addAll(((Alternation)alternative).alternatives);
+            }
+            else
+            {
+                flat.add(alternative);
+            }
+        }
+        if (flat.size() == 1)
+        {
+            return flat.get(0);
+        }
+        return new Alternation(flat);
+    }
+
+    public List<Node> getAlternatives()
+    {
+        return alternatives;
+    }
+
+    @Override
+    public <R> R accept(NodeVisitor<R> visitor)
+    {
+        return visitor.visitAlternation(this);
+    }
+
+    @Override
+    boolean isExtended()
+    {
+        for (Node node : alternatives)
+        {
+            if (node.isExtended())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    boolean isAtomic()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof Alternation))
+        {
+            return false;
+        }
+
+        return alternatives.equals(((Alternation)o).alternatives);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * alternatives.hashCode() + 2;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder out = new StringBuilder(alternatives.get(0).toString());
+        for (Node alternative : alternatives.subList(1, alternatives.size()))
+        {
+            out.append('|').append(alternative);
+        }
+        return out.toString();
+    }
+}
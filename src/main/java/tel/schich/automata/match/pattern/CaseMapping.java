@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+import tel.schich.automata.util.CaseFolding;
+import tel.schich.automata.util.CharRange;
+
+/**
+ * Rebuilds a tree with the ranges of its character classes mapped by {@link CaseFolding}.
+ */
+final class CaseMapping implements NodeVisitor<Node>
+{
+    private final Function<Collection<CharRange>, List<CharRange>> mapping;
+
+    private CaseMapping(Function<Collection<CharRange>, List<CharRange>> mapping)
+    {
+        this.mapping = mapping;
+    }
+
+    static Node fold(Node node, CaseFolding folding)
+    {
+        final boolean[] closed = {true};
+        final Node folded = node.accept(new CaseMapping(ranges -> {
+            closed[0] &= folding.isClosed(ranges);
+            return folding.fold(ranges);
+        }));
+        return closed[0] ? folded : null;
+    }
+
+    @Override
+    public Node visitEpsilon(Epsilon node)
+    {
+        return node;
+    }
+
+    @Override
+    public Node visitCharClass(CharClass node)
+    {
+        return CharClass.of(mapping.apply(node.getRanges()));
+    }
+
+    @Override
+    public Node visitWildcard(Wildcard node)
+    {
+        return node;
+    }
+
+    @Override
+    public Node visitSequence(Sequence node)
+    {
+        return Sequence.of(mapAll(node.getElements()));
+    }
+
+    @Override
+    public Node visitAlternation(Alternation node)
+    {
+        return Alternation.of(mapAll(node.getAlternatives()));
+    }
+
+    @Override
+    public Node visitRepetition(Repetition node)
+    {
+        return Repetition.of(node.getBody().accept(this), node.getMin(), node.getMax());
+    }
+
+    @Override
+    public Node visitIntersection(Intersection node)
+    {
+        return Intersection.of(mapAll(node.getOperands()));
+    }
+
+    @Override
+    public Node visitComplement(Complement node)
+    {
+        return Complement.of(node.getBody().accept(this));
+    }
+
+    @Override
+    public Node visitGroup(Group node)
+    {
+        return Group.of(node.getIndex(), node.getNode().accept(this));
+    }
+
+    private List<Node> mapAll(List<Node> nodes)
+    {
+        final List<Node> mapped = new ArrayList<>(nodes.size());
+        for (final Node node : nodes)
+        {
+            mapped.add(node.accept(this));
+        }
+        return mapped;
+    }
+}
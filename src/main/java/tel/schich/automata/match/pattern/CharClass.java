@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+import java.util.Collection;
+import java.util.List;
+
+import tel.schich.automata.util.CharRange;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Matches a single character out of a set of character ranges.
+ */
+public final class CharClass extends Node
+{
+    private static final String META_CHARACTERS = "\\.[]{}()*+?|^$-";
+
+    /**
+     * The empty class, which matches nothing.
+     */
+    public static final CharClass NONE = new CharClass(emptyList());
+
+    private final List<CharRange> ranges;
+
+    private CharClass(List<CharRange> ranges)
+    {
+        this.ranges = unmodifiableList(ranges);
+    }
+
+    public static CharClass of(Collection<CharRange> ranges)
+    {
+        return new CharClass(CharRange.normalize(ranges));
+    }
+
+    public static CharClass literal(char c)
+    {
+        return of(singleton(CharRange.single(c)));
+    }
+
+    /**
+     * @return the sorted, disjoint and non-adjacent ranges of this class
+     */
+    public List<CharRange> getRanges()
+    {
+        return ranges;
+    }
+
+    public boolean isLiteral()
+    {
+        return ranges.size() == 1 && ranges.get(0).size() == 1;
+    }
+
+    @Override
+    public <R> R accept(NodeVisitor<R> visitor)
+    {
+        return visitor.visitCharClass(this);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof CharClass))
+        {
+            return false;
+        }
+
+        return ranges.equals(((CharClass)o).ranges);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return ranges.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        if (ranges.isEmpty())
+        {
+            return "[^\\x00-\uFFFF]";
+        }
+        if (isLiteral())
+        {
+            return escape(ranges.get(0).getFirst());
+        }
+        StringBuilder out = new StringBuilder("[");
+        for (CharRange range : ranges)
+        {
+            out.append(escape(range.getFirst()));
+            if (range.size() > 1)
+            {
+                out.append('-').append(escape(range.getLast()));
+            }
+        }
+        return out.append(']').toString();
+    }
+
+    private static String escape(char c)
+    {
+        if (META_CHARACTERS.indexOf(c) >= 0)
+        {
+            return "\\" + c;
+        }
+        if (c < ' ' || c == '\u007F')
+        {
+            return String.format("\\x%02x", (int)c);
+        }
+        return String.valueOf(c);
+    }
+}
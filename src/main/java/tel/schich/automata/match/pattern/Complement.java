@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+import tel.schich.automata.FiniteAutomaton;
+import tel.schich.automata.transition.Transition;
+
+/**
+ * Matches every word its body doesn't match. There is no pattern syntax for complements, they are written as
+ * {@code ~(a)} in the string representation.
+ */
+public final class Complement extends Node
+{
+    private final Node body;
+
+    private Complement(Node body)
+    {
+        this.body = body;
+    }
+
+    public static Node of(Node body)
+    {
+        if (body instanceof Complement)
+        {
+            return ((Complement)body).body;
+        }
+        return new Complement(body);
+    }
+
+    public Node getBody()
+    {
+        return body;
+    }
+
+    @Override
+    public <R> R accept(NodeVisitor<R> visitor)
+    {
+        return visitor.visitComplement(this);
+    }
+
+    @Override
+    public FiniteAutomaton<? extends Transition> toThompsonAutomaton()
+    {
+        return body.toThompsonAutomaton().toDFA().complement();
+    }
+
+    @Override
+    boolean isExtended()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof Complement))
+        {
+            return false;
+        }
+
+        return body.equals(((Complement)o).body);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * body.hashCode() + 4;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "~(" + body + ")";
+    }
+}
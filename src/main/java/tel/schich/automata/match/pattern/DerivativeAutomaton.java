@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import tel.schich.automata.DFA;
+import tel.schich.automata.State;
+import tel.schich.automata.transition.PlannedTransition;
+import tel.schich.automata.transition.RangeTransition;
+import tel.schich.automata.transition.WildcardTransition;
+import tel.schich.automata.util.CharRange;
+
+/**
+ * A DFA whose states are the normalized derivatives of a pattern, see {@link Derivatives}. No NFA is built at all,
+ * states and transitions are computed lazily while matching and memoized, so repeated matches only pay for the parts
+ * of the automaton they actually visit. Since derivatives are defined for intersections and complements as well,
+ * this works for all nodes.
+ * <p>
+ * Instances can be shared between threads: concurrent lookups may compute the same derivative twice, but always end
+ * up with the same state.
+ */
+public final class DerivativeAutomaton
+{
+    private final ConcurrentMap<Node, DerivativeState> states = new ConcurrentHashMap<>();
+    private final DerivativeState start;
+
+    public DerivativeAutomaton(Node pattern)
+    {
+        this.start = stateFor(pattern);
+    }
+
+    public DerivativeState getStartState()
+    {
+        return start;
+    }
+
+    /**
+     * @return the number of states computed so far
+     */
+    public int getStateCount()
+    {
+        return states.size();
+    }
+
+    public DerivativeState transition(DerivativeState state, char c)
+    {
+        final int symbol = state.symbolOf(c);
+        DerivativeState next = state.successors[symbol];
+        if (next == null)
+        {
+            next = stateFor(Derivatives.derive(state.node, c));
+            state.successors[symbol] = next;
+        }
+        return next;
+    }
+
+    public boolean matches(CharSequence input)
+    {
+        DerivativeState state = start;
+        for (int i = 0; i < input.length(); ++i)
+        {
+            state = transition(state, input.charAt(i));
+            if (state.isDead())
+            {
+                return false;
+            }
+        }
+        return state.isAccepting();
+    }
+
+    /**
+     * Computes all remaining states and builds the equivalent DFA from them.
+     *
+     * @return the DFA, whose states are the {@link DerivativeState}s of this automaton
+     */
+    public DFA toDFA()
+    {
+        final Set<State> states = new HashSet<>();
+        final Set<PlannedTransition> transitions = new HashSet<>();
+        final Set<State> accepting = new HashSet<>();
+
+        final Queue<DerivativeState> queue = new ArrayDeque<>();
+        states.add(start);
+        queue.offer(start);
+        while (!queue.isEmpty())
+        {
+            final DerivativeState state = queue.poll();
+            if (state.isAccepting())
+            {
+                accepting.add(state);
+            }
+            for (int i = 0; i < state.classes.size() + 1; ++i)
+            {
+                final boolean isOther = i == state.classes.size();
+                if (isOther && state.other < 0)
+                {
+                    continue;
+                }
+                final DerivativeState next = transition(state, isOther ? (char)state.other : state.classes.get(i).getFirst());
+                if (next.isDead())
+                {
+                    continue;
+                }
+                if (states.add(next))
+                {
+                    queue.offer(next);
+                }
+                transitions.add(isOther ? new WildcardTransition(state, next) : RangeTransition.of(state, state.classes.get(i), next));
+            }
+        }
+
+        return new DFA(states, transitions, start, accepting);
+    }
+
+    private DerivativeState stateFor(Node node)
+    {
+        return states.computeIfAbsent(node, DerivativeState::new);
+    }
+
+    /**
+     * A state of a {@link DerivativeAutomaton}, identified by the derivative it represents. Its transitions are
+     * indexed by the character classes the derivative distinguishes, plus one for all other characters.
+     */
+    public static final class DerivativeState extends State
+    {
+        private final Node node;
+        private final boolean accepting;
+        private final boolean dead;
+        private final List<CharRange> classes;
+        private final int other;
+        private final DerivativeState[] successors;
+
+        private DerivativeState(Node node)
+        {
+            this.node = node;
+            this.accepting = Derivatives.isNullable(node);
+            this.dead = node.equals(CharClass.NONE);
+            this.classes = Derivatives.classes(node);
+            this.other = CharRange.firstUncovered(classes);
+            this.successors = new DerivativeState[classes.size() + 1];
+        }
+
+        public Node getNode()
+        {
+            return node;
+        }
+
+        public boolean isAccepting()
+        {
+            return accepting;
+        }
+
+        /**
+         * @return true if no word is accepted from this state
+         */
+        public boolean isDead()
+        {
+            return dead;
+        }
+
+        private int symbolOf(char c)
+        {
+            int low = 0;
+            int high = classes.size() - 1;
+            while (low <= high)
+            {
+                final int mid = (low + high) >>> 1;
+                final CharRange range = classes.get(mid);
+                if (c < range.getFirst())
+                {
+                    high = mid - 1;
+                }
+                else if (c > range.getLast())
+                {
+                    low = mid + 1;
+                }
+                else
+                {
+                    return mid;
+                }
+            }
+            return classes.size();
+        }
+
+        @Override
+        public String getLabel()
+        {
+            return node.toString();
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import tel.schich.automata.util.CharRange;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Brzozowski derivatives of pattern trees. The derivative of a node with respect to a character matches the rest of
+ * every word of the node that starts with that character. The results are normalized by smart constructors, which
+ * treat alternations and intersections as sets (associativity, commutativity and idempotence) and eliminate the
+ * neutral and absorbing elements, so that the derivatives of a node are finite up to equality.
+ */
+final class Derivatives
+{
+    static final Node ANYTHING = Repetition.of(Wildcard.INSTANCE, 0, Repetition.UNBOUNDED);
+
+    private static final Comparator<Node> CANONICAL_ORDER = Comparator.<Node>comparingInt(Node::hashCode)
+                                                                      .thenComparing(Node::toString);
+
+    private Derivatives()
+    {
+    }
+
+    static boolean isNullable(Node node)
+    {
+        return node.accept(Nullable.INSTANCE);
+    }
+
+    static Node derive(Node node, char c)
+    {
+        return node.accept(new Derive(c));
+    }
+
+    /**
+     * Collects the character ranges the given node distinguishes: all characters of one of the returned ranges, as
+     * well as all characters outside of the returned ranges, lead to the same derivative.
+     */
+    static List<CharRange> classes(Node node)
+    {
+        final List<CharRange> ranges = new ArrayList<>();
+        collectRanges(node, ranges);
+        return CharRange.partition(ranges);
+    }
+
+    private static void collectRanges(Node node, List<CharRange> ranges)
+    {
+        if (node instanceof CharClass)
+        {
+            ranges.addAll(((CharClass)node).getRanges());
+        }
+        else if (node instanceof Sequence)
+        {
+            for (final Node element : ((Sequence)node).getElements())
+            {
+                collectRanges(element, ranges);
+            }
+        }
+        else if (node instanceof Alternation)
+        {
+            for (final Node alternative : ((Alternation)node).getAlternatives())
+            {
+                collectRanges(alternative, ranges);
+            }
+        }
+        else if (node instanceof Intersection)
+        {
+            for (final Node operand : ((Intersection)node).getOperands())
+            {
+                collectRanges(operand, ranges);
+            }
+        }
+        else if (node instanceof Repetition)
+        {
+            collectRanges(((Repetition)node).getBody(), ranges);
+        }
+        else if (node instanceof Complement)
+        {
+            collectRanges(((Complement)node).getBody(), ranges);
+        }
+    }
+
+    static Node sequence(Node left, Node right)
+    {
+        if (left.equals(CharClass.NONE) || right.equals(CharClass.NONE))
+        {
+            return CharClass.NONE;
+        }
+        return Sequence.of(asList(left, right));
+    }
+
+    static Node union(List<Node> nodes)
+    {
+        final Set<Node> operands = new LinkedHashSet<>();
+        for (final Node node : nodes)
+        {
+            if (node instanceof Alternation)
+            {
+                operands.addAll(((Alternation)node).getAlternatives());
+            }
+            else
+            {
+                operands.add(node);
+            }
+        }
+        if (operands.contains(ANYTHING))
+        {
+            return ANYTHING;
+        }
+        operands.remove(CharClass.NONE);
+        if (operands.isEmpty())
+        {
+            return CharClass.NONE;
+        }
+        return Alternation.of(sorted(operands));
+    }
+
+    static Node intersection(List<Node> nodes)
+    {
+        final Set<Node> operands = new LinkedHashSet<>();
+        for (final Node node : nodes)
+        {
+            if (node instanceof Intersection)
+            {
+                operands.addAll(((Intersection)node).getOperands());
+            }
+            else
+            {
+                operands.add(node);
+            }
+        }
+        if (operands.contains(CharClass.NONE))
+        {
+            return CharClass.NONE;
+        }
+        operands.remove(ANYTHING);
+        if (operands.isEmpty())
+        {
+            return ANYTHING;
+        }
+        return Intersection.of(sorted(operands));
+    }
+
+    static Node complement(Node node)
+    {
+        if (node.equals(CharClass.NONE))
+        {
+            return ANYTHING;
+        }
+        if (node.equals(ANYTHING))
+        {
+            return CharClass.NONE;
+        }
+        return Complement.of(node);
+    }
+
+    private static List<Node> sorted(Set<Node> nodes)
+    {
+        final List<Node> list = new ArrayList<>(nodes);
+        list.sort(CANONICAL_ORDER);
+        return list;
+    }
+
+    private static final class Nullable implements NodeVisitor<Boolean>
+    {
+        private static final Nullable INSTANCE = new Nullable();
+
+        @Override
+        public Boolean visitEpsilon(Epsilon node)
+        {
+            return true;
+        }
+
+        @Override
+        public Boolean visitCharClass(CharClass node)
+        {
+            return false;
+        }
+
+        @Override
+        public Boolean visitWildcard(Wildcard node)
+        {
+            return false;
+        }
+
+        @Override
+        public Boolean visitSequence(Sequence node)
+        {
+            for (final Node element : node.getElements())
+            {
+                if (!element.accept(this))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Boolean visitAlternation(Alternation node)
+        {
+            for (final Node alternative : node.getAlternatives())
+            {
+                if (alternative.accept(this))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Boolean visitRepetition(Repetition node)
+        {
+            return node.getMin() == 0 || node.getBody().accept(this);
+        }
+
+        @Override
+        public Boolean visitIntersection(Intersection node)
+        {
+            for (final Node operand : node.getOperands())
+            {
+                if (!operand.accept(this))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Boolean visitComplement(Complement node)
+        {
+            return !node.getBody().accept(this);
+        }
+    }
+
+    private static final class Derive implements NodeVisitor<Node>
+    {
+        private final char c;
+
+        private Derive(char c)
+        {
+            this.c = c;
+        }
+
+        @Override
+        public Node visitEpsilon(Epsilon node)
+        {
+            return CharClass.NONE;
+        }
+
+        @Override
+        public Node visitCharClass(CharClass node)
+        {
+            for (final CharRange range : node.getRanges())
+            {
+                if (range.contains(c))
+                {
+                    return Epsilon.INSTANCE;
+                }
+            }
+            return CharClass.NONE;
+        }
+
+        @Override
+        public Node visitWildcard(Wildcard node)
+        {
+            return Epsilon.INSTANCE;
+        }
+
+        @Override
+        public Node visitSequence(Sequence node)
+        {
+            final List<Node> elements = node.getElements();
+            final Node head = elements.get(0);
+            final Node tail = Sequence.of(elements.subList(1, elements.size()));
+            final Node derivative = sequence(head.accept(this), tail);
+            if (isNullable(head))
+            {
+                return union(asList(derivative, tail.accept(this)));
+            }
+            return derivative;
+        }
+
+        @Override
+        public Node visitAlternation(Alternation node)
+        {
+            final List<Node> derivatives = new ArrayList<>();
+            for (final Node alternative : node.getAlternatives())
+            {
+                derivatives.add(alternative.accept(this));
+            }
+            return union(derivatives);
+        }
+
+        @Override
+        public Node visitRepetition(Repetition node)
+        {
+            // d(r{n,m}) = d(r) r{n-1,m-1}, which also holds for a nullable r, as r{n,m} equals r{0,m} then
+            final int min = Math.max(node.getMin() - 1, 0);
+            final int max = node.isUnbounded() ? Repetition.UNBOUNDED : node.getMax() - 1;
+            return sequence(node.getBody().accept(this), Repetition.of(node.getBody(), min, max));
+        }
+
+        @Override
+        public Node visitIntersection(Intersection node)
+        {
+            final List<Node> derivatives = new ArrayList<>();
+            for (final Node operand : node.getOperands())
+            {
+                derivatives.add(operand.accept(this));
+            }
+            return intersection(derivatives);
+        }
+
+        @Override
+        public Node visitComplement(Complement node)
+        {
+            return complement(node.getBody().accept(this));
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import tel.schich.automata.NFA;
+import tel.schich.automata.State;
+import tel.schich.automata.transition.RangeTransition;
+import tel.schich.automata.transition.Transition;
+import tel.schich.automata.transition.WildcardTransition;
+import tel.schich.automata.util.CharRange;
+
+/**
+ * Builds the position automaton (Glushkov automaton) of a pattern: every occurrence of a character class or a
+ * wildcard in the pattern is a position and becomes exactly one state, which is entered by reading a character of
+ * that position. Together with a start state, the transitions follow from the first, last and follow sets of the
+ * positions, so no spontaneous transitions are created and no epsilon closures are needed later on.
+ * <p>
+ * Bounded repetitions are unrolled, each copy of the body gets its own positions. Optional copies are nested, so
+ * {@code a{1,n}} needs linearly many follow pairs instead of quadratically many.
+ */
+final class GlushkovConstruction implements NodeVisitor<GlushkovConstruction.Positions>
+{
+    private final List<Node> positions = new ArrayList<>();
+    private final List<BitSet> follow = new ArrayList<>();
+
+    private GlushkovConstruction()
+    {
+    }
+
+    static NFA construct(Node node)
+    {
+        final GlushkovConstruction construction = new GlushkovConstruction();
+        return construction.build(node.accept(construction));
+    }
+
+    private NFA build(Positions root)
+    {
+        final State start = new State();
+        final State[] states = new State[positions.size()];
+        final Set<State> allStates = new HashSet<>();
+        allStates.add(start);
+        for (int i = 0; i < states.length; ++i)
+        {
+            states[i] = new State();
+            allStates.add(states[i]);
+        }
+
+        final Set<Transition> transitions = new HashSet<>();
+        addTransitions(transitions, start, root.first, states);
+        for (int i = 0; i < states.length; ++i)
+        {
+            addTransitions(transitions, states[i], follow.get(i), states);
+        }
+
+        final Set<State> accepting = new HashSet<>();
+        if (root.nullable)
+        {
+            accepting.add(start);
+        }
+        for (int i = root.last.nextSetBit(0); i >= 0; i = root.last.nextSetBit(i + 1))
+        {
+            accepting.add(states[i]);
+        }
+
+        return new NFA(allStates, transitions, start, accepting);
+    }
+
+    private void addTransitions(Set<Transition> transitions, State origin, BitSet targets, State[] states)
+    {
+        final List<CharRange> explicit = new ArrayList<>();
+        boolean hasWildcard = false;
+        for (int i = targets.nextSetBit(0); i >= 0; i = targets.nextSetBit(i + 1))
+        {
+            final Node position = positions.get(i);
+            if (position instanceof CharClass)
+            {
+                for (final CharRange range : ((CharClass)position).getRanges())
+                {
+                    transitions.add(RangeTransition.of(origin, range, states[i]));
+                    explicit.add(range);
+                }
+            }
+            else
+            {
+                hasWildcard = true;
+            }
+        }
+        if (!hasWildcard)
+        {
+            return;
+        }
+
+        // a wildcard only applies to characters without an explicit transition from the same state,
+        // so wildcard positions also need to be entered explicitly for the characters of their siblings
+        final List<CharRange> shadowed = CharRange.normalize(explicit);
+        for (int i = targets.nextSetBit(0); i >= 0; i = targets.nextSetBit(i + 1))
+        {
+            if (positions.get(i) instanceof Wildcard)
+            {
+                transitions.add(new WildcardTransition(origin, states[i]));
+                for (final CharRange range : shadowed)
+                {
+                    transitions.add(RangeTransition.of(origin, range, states[i]));
+                }
+            }
+        }
+    }
+
+    private Positions position(Node node)
+    {
+        final int position = positions.size();
+        positions.add(node);
+        follow.add(new BitSet());
+
+        final BitSet set = new BitSet();
+        set.set(position);
+        return new Positions(false, set, set);
+    }
+
+    private Positions concat(Positions left, Positions right)
+    {
+        for (int i = left.last.nextSetBit(0); i >= 0; i = left.last.nextSetBit(i + 1))
+        {
+            follow.get(i).or(right.first);
+        }
+
+        final BitSet first = (BitSet)left.first.clone();
+        if (left.nullable)
+        {
+            first.or(right.first);
+        }
+        final BitSet last = (BitSet)right.last.clone();
+        if (right.nullable)
+        {
+            last.or(left.last);
+        }
+        return new Positions(left.nullable && right.nullable, first, last);
+    }
+
+    private Positions loop(Positions body)
+    {
+        for (int i = body.last.nextSetBit(0); i >= 0; i = body.last.nextSetBit(i + 1))
+        {
+            follow.get(i).or(body.first);
+        }
+        return body;
+    }
+
+    @Override
+    public Positions visitEpsilon(Epsilon node)
+    {
+        return new Positions(true, new BitSet(), new BitSet());
+    }
+
+    @Override
+    public Positions visitCharClass(CharClass node)
+    {
+        return position(node);
+    }
+
+    @Override
+    public Positions visitWildcard(Wildcard node)
+    {
+        return position(node);
+    }
+
+    @Override
+    public Positions visitSequence(Sequence node)
+    {
+        Positions result = visitEpsilon(Epsilon.INSTANCE);
+        for (final Node element : node.getElements())
+        {
+            result = concat(result, element.accept(this));
+        }
+        return result;
+    }
+
+    @Override
+    public Positions visitAlternation(Alternation node)
+    {
+        boolean nullable = false;
+        final BitSet first = new BitSet();
+        final BitSet last = new BitSet();
+        for (final Node alternative : node.getAlternatives())
+        {
+            final Positions positions = alternative.accept(this);
+            nullable |= positions.nullable;
+            first.or(positions.first);
+            last.or(positions.last);
+        }
+        return new Positions(nullable, first, last);
+    }
+
+    @Override
+    public Positions visitRepetition(Repetition node)
+    {
+        Positions result = visitEpsilon(Epsilon.INSTANCE);
+        for (int i = 0; i < node.getMin(); ++i)
+        {
+            final Positions body = node.getBody().accept(this);
+            // e{n,} is e{n-1} followed by a looping copy of e
+            result = concat(result, node.isUnbounded() && i == node.getMin() - 1 ? loop(body) : body);
+        }
+        if (node.isUnbounded())
+        {
+            if (node.getMin() == 0)
+            {
+                result = concat(result, optional(loop(node.getBody().accept(this))));
+            }
+            return result;
+        }
+        // the optional copies are nested, e(e(e)?)? instead of e?e?e?, so every copy only follows its predecessor
+        final List<Positions> optionals = new ArrayList<>();
+        for (int i = node.getMin(); i < node.getMax(); ++i)
+        {
+            optionals.add(node.getBody().accept(this));
+        }
+        Positions nested = visitEpsilon(Epsilon.INSTANCE);
+        for (int i = optionals.size() - 1; i >= 0; --i)
+        {
+            nested = optional(concat(optionals.get(i), nested));
+        }
+        return concat(result, nested);
+    }
+
+    @Override
+    public Positions visitIntersection(Intersection node)
+    {
+        throw new IllegalArgumentException("Intersections have no position automaton: " + node);
+    }
+
+    @Override
+    public Positions visitComplement(Complement node)
+    {
+        throw new IllegalArgumentException("Complements have no position automaton: " + node);
+    }
+
+    private static Positions optional(Positions positions)
+    {
+        return new Positions(true, positions.first, positions.last);
+    }
+
+    static final class Positions
+    {
+        private final boolean nullable;
+        private final BitSet first;
+        private final BitSet last;
+
+        private Positions(boolean nullable, BitSet first, BitSet last)
+        {
+            this.nullable = nullable;
+            this.first = first;
+            this.last = last;
+        }
+    }
+}
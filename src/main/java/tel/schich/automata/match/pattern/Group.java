@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+/**
+ * A capturing group, which records where its node matched. Groups are only part of trees parsed by
+ * {@link tel.schich.automata.match.PatternParser#parseCapturing(String)}, visitors that don't extract captures see
+ * through them.
+ */
+public final class Group extends Node
+{
+    private final int index;
+    private final Node node;
+
+    private Group(int index, Node node)
+    {
+        this.index = index;
+        this.node = node;
+    }
+
+    /**
+     * @param index the number of the group, counting opening parenthesis from 1
+     * @param node the node to capture
+     * @return the group
+     */
+    public static Group of(int index, Node node)
+    {
+        if (index < 1)
+        {
+            throw new IllegalArgumentException("Group numbers start at 1: " + index);
+        }
+        return new Group(index, node);
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public Node getNode()
+    {
+        return node;
+    }
+
+    @Override
+    public <R> R accept(NodeVisitor<R> visitor)
+    {
+        return visitor.visitGroup(this);
+    }
+
+    @Override
+    boolean isExtended()
+    {
+        return node.isExtended();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof Group))
+        {
+            return false;
+        }
+
+        Group that = (Group)o;
+        return index == that.index && node.equals(that.node);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * index + node.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "(" + node + ")";
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tel.schich.automata.DFA;
+import tel.schich.automata.FiniteAutomaton;
+import tel.schich.automata.transition.Transition;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Matches the words matched by all of its operands. There is no pattern syntax for intersections, they are written
+ * as {@code (a)&(b)} in the string representation.
+ */
+public final class Intersection extends Node
+{
+    private final List<Node> operands;
+
+    private Intersection(List<Node> operands)
+    {
+        this.operands = unmodifiableList(operands);
+    }
+
+    /**
+     * Creates a node for the given operands, nested intersections are flattened.
+     *
+     * @param operands the operands, at least one
+     * @return an intersection or the only operand
+     */
+    public static Node of(List<Node> operands)
+    {
+        List<Node> flat = new ArrayList<>();
+        for (Node operand : operands)
+        {
+            if (operand instanceof Intersection)
+            {
+                flat.addAll(((Intersection)operand).operands);
+            }
+            else
+            {
+                flat.add(operand);
+            }
+        }
+        if (flat.size() == 1)
+        {
+            return flat.get(0);
+        }
+        return new Intersection(flat);
+    }
+
+    public List<Node> getOperands()
+    {
+        return operands;
+    }
+
+    @Override
+    public <R> R accept(NodeVisitor<R> visitor)
+    {
+        return visitor.visitIntersection(this);
+    }
+
+    @Override
+    public FiniteAutomaton<? extends Transition> toThompsonAutomaton()
+    {
+        DFA automaton = operands.get(0).toThompsonAutomaton().toDFA();
+        for (Node operand : operands.subList(1, operands.size()))
+        {
+            automaton = automaton.intersectWith(operand.toThompsonAutomaton());
+        }
+        return automaton;
+    }
+
+    @Override
+    boolean isExtended()
+    {
+        return true;
+    }
+
+    @Override
+    boolean isAtomic()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof Intersection))
+        {
+            return false;
+        }
+
+        return operands.equals(((Intersection)o).operands);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * operands.hashCode() + 3;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder out = new StringBuilder("(").append(operands.get(0)).append(')');
+        for (Node operand : operands.subList(1, operands.size()))
+        {
+            out.append("&(").append(operand).append(')');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+import tel.schich.automata.FiniteAutomaton;
+import tel.schich.automata.NFA;
+import tel.schich.automata.transition.Transition;
+import tel.schich.automata.util.CaseFolding;
+
+/**
+ * A node of a parsed pattern. Nodes are immutable values with structural equality. The string representation of
+ * nodes without intersections or complements is pattern syntax that parses back to an equal node.
+ */
+public abstract class Node
+{
+    Node()
+    {
+    }
+
+    public abstract <R> R accept(NodeVisitor<R> visitor);
+
+    /**
+     * Builds an automaton for this node by composing the automata of its children, see {@link ThompsonConstruction}.
+     *
+     * @return the automaton matching this node
+     */
+    public FiniteAutomaton<? extends Transition> toThompsonAutomaton()
+    {
+        return ThompsonConstruction.construct(this);
+    }
+
+    /**
+     * Builds the position automaton of this node, see {@link GlushkovConstruction}. Intersections and complements
+     * have no position automaton, trees containing them are built with {@link #toThompsonAutomaton()} instead.
+     *
+     * @return an NFA matching this node, epsilon-free with one state per character position plus a start state for
+     *         trees without intersections and complements
+     */
+    public NFA toNFA()
+    {
+        if (isExtended())
+        {
+            return toThompsonAutomaton().toNFA();
+        }
+        return GlushkovConstruction.construct(this);
+    }
+
+    /**
+     * Maps the classes of this case-insensitive tree to the canonical characters of the given folding. The folded
+     * tree matches exactly the folded inputs this tree matches, so it can be matched on inputs folded character by
+     * character instead, for example by a
+     * {@link tel.schich.automata.compiled.ClassMap#foldCase(CaseFolding) folded class map}.
+     *
+     * @param folding the case folding
+     * @return the folded tree or null if this tree distinguishes case somewhere
+     */
+    public Node foldCase(CaseFolding folding)
+    {
+        return CaseMapping.fold(this, folding);
+    }
+
+    /**
+     * Checks whether this tree contains intersections or complements.
+     */
+    boolean isExtended()
+    {
+        return false;
+    }
+
+    /**
+     * Checks whether this node binds tighter than a sequence, so it doesn't need parenthesis as an element of one.
+     */
+    boolean isAtomic()
+    {
+        return true;
+    }
+
+    String toGroupedString()
+    {
+        return isAtomic() ? toString() : "(" + this + ")";
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+public interface NodeVisitor<R>
+{
+    R visitEpsilon(Epsilon node);
+
+    R visitCharClass(CharClass node);
+
+    R visitWildcard(Wildcard node);
+
+    R visitSequence(Sequence node);
+
+    R visitAlternation(Alternation node);
+
+    R visitRepetition(Repetition node);
+
+    R visitIntersection(Intersection node);
+
+    R visitComplement(Complement node);
+
+    /**
+     * Visits the captured node, so groups are transparent to visitors that don't extract captures.
+     */
+    default R visitGroup(Group node)
+    {
+        return node.getNode().accept(this);
+    }
+}
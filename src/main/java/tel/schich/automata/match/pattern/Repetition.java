@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+/**
+ * Matches its body between a minimum and a maximum number of times.
+ */
+public final class Repetition extends Node
+{
+    public static final int UNBOUNDED = -1;
+
+    private final Node body;
+    private final int min;
+    private final int max;
+
+    private Repetition(Node body, int min, int max)
+    {
+        this.body = body;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Creates a node repeating the given body.
+     *
+     * @param body the node to repeat
+     * @param min the minimum number of repetitions
+     * @param max the maximum number of repetitions or {@link #UNBOUNDED}
+     * @return the repetition, or a simpler equivalent node
+     */
+    public static Node of(Node body, int min, int max)
+    {
+        if (min < 0 || max != UNBOUNDED && max < min)
+        {
+            throw new IllegalArgumentException("Illegal repetition bounds: {" + min + "," + max + "}");
+        }
+        if (max == 0 || body == Epsilon.INSTANCE)
+        {
+            return Epsilon.INSTANCE;
+        }
+        if (min == 1 && max == 1)
+        {
+            return body;
+        }
+        return new Repetition(body, min, max);
+    }
+
+    public Node getBody()
+    {
+        return body;
+    }
+
+    public int getMin()
+    {
+        return min;
+    }
+
+    public int getMax()
+    {
+        return max;
+    }
+
+    public boolean isUnbounded()
+    {
+        return max == UNBOUNDED;
+    }
+
+    @Override
+    public <R> R accept(NodeVisitor<R> visitor)
+    {
+        return visitor.visitRepetition(this);
+    }
+
+    @Override
+    boolean isExtended()
+    {
+        return body.isExtended();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof Repetition))
+        {
+            return false;
+        }
+
+        Repetition that = (Repetition)o;
+        return min == that.min && max == that.max && body.equals(that.body);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = body.hashCode();
+        result = 31 * result + min;
+        result = 31 * result + max;
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        final String body = this.body instanceof Repetition ? "(" + this.body + ")" : this.body.toGroupedString();
+        if (isUnbounded())
+        {
+            switch (min)
+            {
+                case 0:
+                    return body + "*";
+                case 1:
+                    return body + "+";
+                default:
+                    return body + "{" + min + ",}";
+            }
+        }
+        if (min == 0 && max == 1)
+        {
+            return body + "?";
+        }
+        if (min == max)
+        {
+            return body + "{" + min + "}";
+        }
+        return body + "{" + min + "," + max + "}";
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Matches its elements one after another.
+ */
+public final class Sequence extends Node
+{
+    private final List<Node> elements;
+
+    private Sequence(List<Node> elements)
+    {
+        this.elements = unmodifiableList(elements);
+    }
+
+    /**
+     * Creates a node for the given elements, nested sequences are flattened and empty words are dropped.
+     *
+     * @param elements the elements to match in order
+     * @return a sequence or the only remaining element
+     */
+    public static Node of(List<Node> elements)
+    {
+        List<Node> flat = new ArrayList<>();
+        for (Node element : elements)
+        {
+            if (element instanceof Sequence)
+            {
+                flat.addAll(((Sequence)element).elements);
+            }
+            else if (element != Epsilon.INSTANCE)
+            {
+                flat.add(element);
+            }
+        }
+        if (flat.isEmpty())
+        {
+            return Epsilon.INSTANCE;
+        }
+        if (flat.size() == 1)
+        {
+            return flat.get(0);
+        }
+        return new Sequence(flat);
+    }
+
+    public List<Node> getElements()
+    {
+        return elements;
+    }
+
+    @Override
+    public <R> R accept(NodeVisitor<R> visitor)
+    {
+        return visitor.visitSequence(this);
+    }
+
+    @Override
+    boolean isExtended()
+    {
+        for (Node node : elements)
+        {
+            if (node.isExtended())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    boolean isAtomic()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof Sequence))
+        {
+            return false;
+        }
+
+        return elements.equals(((Sequence)o).elements);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * elements.hashCode() + 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder out = new StringBuilder();
+        for (Node element : elements)
+        {
+            out.append(element instanceof Alternation ? element.toGroupedString() : element.toString());
+        }
+        return out.toString();
+    }
+}
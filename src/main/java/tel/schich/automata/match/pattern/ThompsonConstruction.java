@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.match.pattern;
+
+import java.util.List;
+
+import tel.schich.automata.AutomatonBuilder;
+import tel.schich.automata.AutomatonBuilder.Fragment;
+import tel.schich.automata.NFA;
+
+/**
+ * Builds the Thompson automaton of a pattern into a single {@link AutomatonBuilder}, so every node only adds its own
+ * states and edges. Intersections and complements are built through their DFAs and included as a whole.
+ * <p>
+ * Repetitions build their body once per copy, so bounded repetitions are unrolled with the optional copies nested like
+ * {@code a(a(a)?)?} for {@code a{1,3}}.
+ */
+final class ThompsonConstruction implements NodeVisitor<Fragment>
+{
+    private final AutomatonBuilder builder = new AutomatonBuilder();
+
+    private ThompsonConstruction()
+    {
+    }
+
+    static NFA construct(Node node)
+    {
+        final ThompsonConstruction construction = new ThompsonConstruction();
+        return construction.builder.freeze(node.accept(construction));
+    }
+
+    @Override
+    public Fragment visitEpsilon(Epsilon node)
+    {
+        return builder.epsilon();
+    }
+
+    @Override
+    public Fragment visitCharClass(CharClass node)
+    {
+        return builder.ranges(node.getRanges());
+    }
+
+    @Override
+    public Fragment visitWildcard(Wildcard node)
+    {
+        return builder.wildcard();
+    }
+
+    @Override
+    public Fragment visitSequence(Sequence node)
+    {
+        final List<Node> elements = node.getElements();
+        Fragment fragment = elements.get(0).accept(this);
+        for (final Node element : elements.subList(1, elements.size()))
+        {
+            fragment = builder.concat(fragment, element.accept(this));
+        }
+        return fragment;
+    }
+
+    @Override
+    public Fragment visitAlternation(Alternation node)
+    {
+        final List<Node> alternatives = node.getAlternatives();
+        Fragment fragment = alternatives.get(0).accept(this);
+        for (final Node alternative : alternatives.subList(1, alternatives.size()))
+        {
+            fragment = builder.union(fragment, alternative.accept(this));
+        }
+        return fragment;
+    }
+
+    @Override
+    public Fragment visitRepetition(Repetition node)
+    {
+        final Node body = node.getBody();
+        final int min = node.getMin();
+        if (node.isUnbounded())
+        {
+            if (min == 0)
+            {
+                return builder.star(body.accept(this));
+            }
+            Fragment fragment = null;
+            for (int i = 1; i < min; ++i)
+            {
+                fragment = concat(fragment, body.accept(this));
+            }
+            return concat(fragment, builder.plus(body.accept(this)));
+        }
+
+        Fragment fragment = null;
+        for (int i = 0; i < min; ++i)
+        {
+            fragment = concat(fragment, body.accept(this));
+        }
+        Fragment optional = null;
+        for (int i = min; i < node.getMax(); ++i)
+        {
+            optional = builder.optional(concat(body.accept(this), optional));
+        }
+        return concat(fragment, optional);
+    }
+
+    private Fragment concat(Fragment first, Fragment second)
+    {
+        if (first == null)
+        {
+            return second;
+        }
+        if (second == null)
+        {
+            return first;
+        }
+        return builder.concat(first, second);
+    }
+
+    @Override
+    public Fragment visitIntersection(Intersection node)
+    {
+        return builder.include(node.toThompsonAutomaton());
+    }
+
+    @Override
+    public Fragment visitComplement(Complement node)
+    {
+        return builder.include(node.toThompsonAutomaton());
+    }
+}
@@ -24,19 +24,16 @@ package tel.schich.automata.transition;
 
 import tel.schich.automata.State;
 
-public class CharacterTransition extends PlannedTransition
+public class CharacterTransition extends RangeTransition
 {
-    private final char with;
-
     public CharacterTransition(State origin, char with, State destination)
     {
-        super(origin, destination);
-        this.with = with;
+        super(origin, with, with, destination);
     }
 
     public char getWith()
     {
-        return this.with;
+        return getFirst();
     }
 
     @Override
@@ -45,33 +42,14 @@ public class CharacterTransition extends PlannedTransition
     }
 
     @Override
-    public String getLabel()
+    public CharacterTransition withStates(State origin, State destination)
     {
-        return "'" + getWith() + "'";
+        return new CharacterTransition(origin, getWith(), destination);
     }
 
     @Override
-    public boolean equals(Object o)
-    {
-        if (!(o instanceof CharacterTransition))
-        {
-            return false;
-        }
-        if (!super.equals(o))
-        {
-            return false;
-        }
-
-        CharacterTransition that = (CharacterTransition)o;
-
-        return this.with == that.with;
-    }
-
-    @Override
-    public int hashCode()
+    public String getLabel()
     {
-        int result = super.hashCode();
-        result = 31 * result + (int)with;
-        return result;
+        return "'" + getWith() + "'";
     }
 }
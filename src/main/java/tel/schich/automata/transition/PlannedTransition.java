@@ -30,4 +30,7 @@ public abstract class PlannedTransition extends Transition
     {
         super(origin, destination);
     }
+
+    @Override
+    public abstract PlannedTransition withStates(State origin, State destination);
 }
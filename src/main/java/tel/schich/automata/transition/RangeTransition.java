@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.transition;
+
+import tel.schich.automata.State;
+import tel.schich.automata.util.CharRange;
+
+public class RangeTransition extends PlannedTransition
+{
+    private final char first;
+    private final char last;
+
+    public RangeTransition(State origin, char first, char last, State destination)
+    {
+        super(origin, destination);
+        if (first > last)
+        {
+            throw new IllegalArgumentException("Illegal character range: " + first + "-" + last);
+        }
+        this.first = first;
+        this.last = last;
+    }
+
+    public RangeTransition(State origin, CharRange range, State destination)
+    {
+        this(origin, range.getFirst(), range.getLast(), destination);
+    }
+
+    public char getFirst()
+    {
+        return this.first;
+    }
+
+    public char getLast()
+    {
+        return this.last;
+    }
+
+    public CharRange getRange()
+    {
+        return new CharRange(first, last);
+    }
+
+    public boolean contains(char c)
+    {
+        return c >= first && c <= last;
+    }
+
+    @Override
+    public RangeTransition reverse() {
+        return new RangeTransition(getDestination(), getFirst(), getLast(), getOrigin());
+    }
+
+    @Override
+    public RangeTransition withStates(State origin, State destination)
+    {
+        return new RangeTransition(origin, getFirst(), getLast(), destination);
+    }
+
+    @Override
+    public String getLabel()
+    {
+        return "'" + getFirst() + "'-'" + getLast() + "'";
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof RangeTransition))
+        {
+            return false;
+        }
+        if (!super.equals(o))
+        {
+            return false;
+        }
+
+        RangeTransition that = (RangeTransition)o;
+
+        return this.first == that.first && this.last == that.last;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = super.hashCode();
+        result = 31 * result + (int)first;
+        result = 31 * result + (int)last;
+        return result;
+    }
+
+    /**
+     * Creates the most specific transition for the given range.
+     *
+     * @param origin the origin state
+     * @param range the range of characters
+     * @param destination the destination state
+     * @return a {@link CharacterTransition} for single characters, a {@link RangeTransition} otherwise
+     */
+    public static RangeTransition of(State origin, CharRange range, State destination)
+    {
+        if (range.getFirst() == range.getLast())
+        {
+            return new CharacterTransition(origin, range.getFirst(), destination);
+        }
+        return new RangeTransition(origin, range, destination);
+    }
+}
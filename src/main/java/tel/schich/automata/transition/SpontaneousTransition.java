@@ -38,6 +38,12 @@ public class SpontaneousTransition extends Transition
         return new SpontaneousTransition(getDestination(), getOrigin());
     }
 
+    @Override
+    public SpontaneousTransition withStates(State origin, State destination)
+    {
+        return new SpontaneousTransition(origin, destination);
+    }
+
     @Override
     public String getLabel()
     {
@@ -55,6 +55,15 @@ public abstract class Transition
 
     public abstract Transition reverse();
 
+    /**
+     * Creates the same kind of transition with the same label between the given states.
+     *
+     * @param origin the new origin
+     * @param destination the new destination
+     * @return the moved transition
+     */
+    public abstract Transition withStates(State origin, State destination);
+
     public abstract String getLabel();
 
     @Override
@@ -36,6 +36,12 @@ public class WildcardTransition extends PlannedTransition
         return new WildcardTransition(getDestination(), getOrigin());
     }
 
+    @Override
+    public WildcardTransition withStates(State origin, State destination)
+    {
+        return new WildcardTransition(origin, destination);
+    }
+
     @Override
     public String getLabel()
     {
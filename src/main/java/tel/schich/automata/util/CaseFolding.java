@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * Case folding on single characters: characters that are equal ignoring case fold to the same canonical character.
+ * {@link #ASCII} only folds the ASCII letters like {@link Pattern#CASE_INSENSITIVE} alone, {@link #UNICODE} applies
+ * simple Unicode case folding like {@link Pattern#UNICODE_CASE} and {@link String#equalsIgnoreCase(String)}.
+ */
+public final class CaseFolding
+{
+    private static final int ALPHABET_SIZE = Character.MAX_VALUE + 1;
+
+    public static final CaseFolding ASCII = new CaseFolding(c -> c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+    public static final CaseFolding UNICODE =
+            new CaseFolding(c -> Character.toLowerCase(Character.toUpperCase((char)c)));
+
+    /**
+     * The canonical character of every character.
+     */
+    private final char[] folded = new char[ALPHABET_SIZE];
+
+    /**
+     * Links the characters of every case class into a cycle.
+     */
+    private final char[] nextVariant = new char[ALPHABET_SIZE];
+
+    private CaseFolding(IntUnaryOperator fold)
+    {
+        for (int c = 0; c < ALPHABET_SIZE; ++c)
+        {
+            nextVariant[c] = (char)c;
+        }
+        for (int c = 0; c < ALPHABET_SIZE; ++c)
+        {
+            // lower(upper(c)) isn't idempotent for a few characters, so it is applied until it is
+            int canonical = c;
+            int next = fold.applyAsInt(canonical);
+            while (next != canonical)
+            {
+                canonical = next;
+                next = fold.applyAsInt(canonical);
+            }
+            folded[c] = (char)canonical;
+            if (canonical != c)
+            {
+                nextVariant[c] = nextVariant[canonical];
+                nextVariant[canonical] = (char)c;
+            }
+        }
+    }
+
+    /**
+     * @param flags the flags as defined by {@link Pattern}
+     * @return the folding selected by {@link Pattern#UNICODE_CASE}
+     */
+    public static CaseFolding of(int flags)
+    {
+        return (flags & Pattern.UNICODE_CASE) != 0 ? UNICODE : ASCII;
+    }
+
+    /**
+     * @param c the character
+     * @return the canonical character of the case class of c
+     */
+    public char fold(char c)
+    {
+        return folded[c];
+    }
+
+    /**
+     * Maps the given ranges to the canonical characters of their case classes.
+     *
+     * @param ranges the ranges
+     * @return the normalized ranges of the canonical characters
+     */
+    public List<CharRange> fold(Collection<CharRange> ranges)
+    {
+        final BitSet canonical = new BitSet(ALPHABET_SIZE);
+        for (final CharRange range : ranges)
+        {
+            for (int c = range.getFirst(); c <= range.getLast(); ++c)
+            {
+                canonical.set(folded[c]);
+            }
+        }
+        return toRanges(canonical);
+    }
+
+    /**
+     * Adds all case variants of their characters to the given ranges.
+     *
+     * @param ranges the ranges
+     * @return the normalized ranges closed under case folding
+     */
+    public List<CharRange> close(Collection<CharRange> ranges)
+    {
+        final BitSet closed = new BitSet(ALPHABET_SIZE);
+        for (final CharRange range : ranges)
+        {
+            closed.set(range.getFirst(), range.getLast() + 1);
+        }
+        for (final CharRange range : ranges)
+        {
+            for (int c = range.getFirst(); c <= range.getLast(); ++c)
+            {
+                for (char variant = nextVariant[c]; variant != c; variant = nextVariant[variant])
+                {
+                    closed.set(variant);
+                }
+            }
+        }
+        return toRanges(closed);
+    }
+
+    /**
+     * @param ranges the ranges
+     * @return true if the ranges contain either all or none of the case variants of every character
+     */
+    public boolean isClosed(Collection<CharRange> ranges)
+    {
+        return CharRange.normalize(ranges).equals(close(ranges));
+    }
+
+    private static List<CharRange> toRanges(BitSet chars)
+    {
+        final List<CharRange> ranges = new ArrayList<>();
+        for (int first = chars.nextSetBit(0); first >= 0; first = chars.nextSetBit(first))
+        {
+            final int end = chars.nextClearBit(first);
+            ranges.add(CharRange.range((char)first, (char)(end - 1)));
+            first = end;
+        }
+        return ranges;
+    }
+}
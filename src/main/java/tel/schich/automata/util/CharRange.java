@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An inclusive interval of characters.
+ */
+public final class CharRange implements Comparable<CharRange>
+{
+    public static final CharRange ALL = new CharRange(Character.MIN_VALUE, Character.MAX_VALUE);
+
+    private final char first;
+    private final char last;
+
+    public CharRange(char first, char last)
+    {
+        if (first > last)
+        {
+            throw new IllegalArgumentException("Illegal character range: " + first + "-" + last);
+        }
+        this.first = first;
+        this.last = last;
+    }
+
+    public char getFirst()
+    {
+        return first;
+    }
+
+    public char getLast()
+    {
+        return last;
+    }
+
+    public int size()
+    {
+        return last - first + 1;
+    }
+
+    public boolean contains(char c)
+    {
+        return c >= first && c <= last;
+    }
+
+    @Override
+    public int compareTo(CharRange o)
+    {
+        if (first != o.first)
+        {
+            return first - o.first;
+        }
+        return last - o.last;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof CharRange))
+        {
+            return false;
+        }
+
+        CharRange that = (CharRange)o;
+
+        return first == that.first && last == that.last;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * first + last;
+    }
+
+    @Override
+    public String toString()
+    {
+        if (first == last)
+        {
+            return "'" + first + "'";
+        }
+        return "'" + first + "'-'" + last + "'";
+    }
+
+    public static CharRange range(char first, char last)
+    {
+        return new CharRange(first, last);
+    }
+
+    public static CharRange single(char c)
+    {
+        return new CharRange(c, c);
+    }
+
+    /**
+     * Splits the given (possibly overlapping) ranges into sorted, disjoint intervals. Every resulting interval is
+     * either fully contained in or disjoint from each of the given ranges, so any character of an interval can
+     * represent all of it.
+     *
+     * @param ranges the ranges to split
+     * @return the sorted elementary intervals covering the union of the ranges
+     */
+    public static List<CharRange> partition(Collection<CharRange> ranges)
+    {
+        final TreeMap<Integer, Integer> coverageDelta = new TreeMap<>();
+        for (final CharRange range : ranges)
+        {
+            coverageDelta.merge((int)range.first, 1, Integer::sum);
+            coverageDelta.merge(range.last + 1, -1, Integer::sum);
+        }
+
+        final List<CharRange> intervals = new ArrayList<>();
+        int coverage = 0;
+        int start = -1;
+        for (final Map.Entry<Integer, Integer> entry : coverageDelta.entrySet())
+        {
+            final int point = entry.getKey();
+            if (coverage > 0)
+            {
+                intervals.add(new CharRange((char)start, (char)(point - 1)));
+            }
+            coverage += entry.getValue();
+            start = point;
+        }
+
+        return intervals;
+    }
+
+    /**
+     * Merges overlapping and adjacent ranges.
+     *
+     * @param ranges the ranges to merge
+     * @return the sorted, disjoint and non-adjacent ranges covering the same characters
+     */
+    public static List<CharRange> normalize(Collection<CharRange> ranges)
+    {
+        final List<CharRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(null);
+
+        final List<CharRange> merged = new ArrayList<>();
+        CharRange current = null;
+        for (final CharRange range : sorted)
+        {
+            if (current == null)
+            {
+                current = range;
+            }
+            else if (range.first <= current.last + 1)
+            {
+                if (range.last > current.last)
+                {
+                    current = new CharRange(current.first, range.last);
+                }
+            }
+            else
+            {
+                merged.add(current);
+                current = range;
+            }
+        }
+        if (current != null)
+        {
+            merged.add(current);
+        }
+
+        return merged;
+    }
+
+    /**
+     * Calculates the characters not covered by any of the given ranges.
+     *
+     * @param ranges the ranges to complement
+     * @return the sorted, disjoint ranges covering all other characters
+     */
+    public static List<CharRange> complement(Collection<CharRange> ranges)
+    {
+        final List<CharRange> complement = new ArrayList<>();
+        int next = Character.MIN_VALUE;
+        for (final CharRange range : normalize(ranges))
+        {
+            if (range.first > next)
+            {
+                complement.add(new CharRange((char)next, (char)(range.first - 1)));
+            }
+            next = range.last + 1;
+        }
+        if (next <= Character.MAX_VALUE)
+        {
+            complement.add(new CharRange((char)next, Character.MAX_VALUE));
+        }
+
+        return complement;
+    }
+
+    /**
+     * Finds the smallest character not covered by the given ranges, which are expected to be sorted and disjoint
+     * like the result of {@link #partition(Collection)}.
+     *
+     * @param sortedRanges the sorted and disjoint ranges
+     * @return the smallest uncovered character or -1 if all characters are covered
+     */
+    public static int firstUncovered(List<CharRange> sortedRanges)
+    {
+        int candidate = Character.MIN_VALUE;
+        for (final CharRange range : sortedRanges)
+        {
+            if (range.first > candidate)
+            {
+                return candidate;
+            }
+            candidate = Math.max(candidate, range.last + 1);
+        }
+        return candidate <= Character.MAX_VALUE ? candidate : -1;
+    }
+}
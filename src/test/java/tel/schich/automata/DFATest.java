@@ -29,17 +29,21 @@ import tel.schich.automata.eval.StateMachineEvaluator;
 import tel.schich.automata.match.Matcher;
 import tel.schich.automata.transition.CharacterTransition;
 import tel.schich.automata.transition.PlannedTransition;
+import tel.schich.automata.transition.RangeTransition;
 import tel.schich.automata.transition.Transition;
 import tel.schich.automata.transition.WildcardTransition;
 
 import org.junit.Test;
 
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Set;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -74,6 +78,35 @@ public class DFATest
         assertThat("String2 was not matched!", a.isAccepting(s), is(true));
     }
 
+    @Test
+    public void testTransitionLookup()
+    {
+        for (int n : new int[] {3, 40})
+        {
+            final State s0 = new State();
+            final State s1 = new State();
+            final State s2 = new State();
+            final Set<PlannedTransition> transitions = new HashSet<>();
+            for (int i = 0; i < n; ++i)
+            {
+                final char first = (char)('A' + 4 * i);
+                transitions.add(new RangeTransition(s0, first, (char)(first + 1), s1));
+                transitions.add(new CharacterTransition(s0, (char)(first + 2), s2));
+            }
+            final DFA a = new DFA(asSet(s0, s1, s2), transitions, s0, asSet(s1));
+
+            assertSame(ErrorState.ERROR, a.transition(s0, '@'));
+            for (int i = 0; i < n; ++i)
+            {
+                final char first = (char)('A' + 4 * i);
+                assertSame(s1, a.transition(s0, first));
+                assertSame(s1, a.transition(s0, (char)(first + 1)));
+                assertSame(s2, a.transition(s0, (char)(first + 2)));
+                assertSame(ErrorState.ERROR, a.transition(s0, (char)(first + 3)));
+            }
+        }
+    }
+
     @Test
     public void testMinimize()
     {
@@ -184,6 +217,10 @@ public class DFATest
 
         printAutomoton("a unminimized", a);
         printAutomoton("a minimized", aMin);
+
+        // all three states are equivalent, however the pairs are ordered
+        assertEquals(1, aMin.getStates().size());
+        assertEquals(1, aMin.getTransitions().size());
     }
 
     @Test
@@ -343,6 +380,23 @@ public class DFATest
         assertFalse("difference: ab", matchAgainstString(difference, "ab"));
     }
 
+    @Test
+    public void testCombineReachableOnly()
+    {
+        final DFA a = Matcher.match("abcdef");
+        final DFA b = Matcher.match("abcxyz");
+
+        final DFA intersection = a.intersectWith(b);
+        assertTrue(intersection.isEmpty());
+        assertEquals("dead pairs are trimmed from the product", 1, intersection.getStates().size());
+
+        final DFA union = a.union(b);
+        assertTrue(matchAgainstString(union, "abcdef"));
+        assertTrue(matchAgainstString(union, "abcxyz"));
+        assertFalse(matchAgainstString(union, "abcdez"));
+        assertTrue(union.getStates().size() < a.getStates().size() * b.getStates().size());
+    }
+
     private static boolean matchAgainstString(FiniteAutomaton<? extends Transition> automaton, String str)
     {
         StateMachineEvaluator evaluator = Evaluator.eval(automaton);
@@ -376,6 +430,51 @@ public class DFATest
         assertFalse("complexA and complexC should not be equivalent", complexA.isEquivalentTo(complexC));
     }
 
+    @Test
+    public void testDistinguishingWord()
+    {
+        DFA a = PatternParser.toDFA("(ab)*");
+        DFA b = PatternParser.toDFA("(ab)*").minimize();
+        assertNull(a.findDistinguishingWord(b));
+
+        DFA c = PatternParser.toDFA("[a-z]*x[0-9]");
+        DFA d = PatternParser.toDFA("[a-w]*x[0-9]");
+        String word = c.findDistinguishingWord(d);
+        assertNotNull(word);
+        assertTrue(matchAgainstString(c, word) != matchAgainstString(d, word));
+
+        DFA e = PatternParser.toDFA(".*a");
+        DFA f = PatternParser.toDFA("a");
+        word = e.findDistinguishingWord(f);
+        assertNotNull(word);
+        assertTrue(matchAgainstString(e, word) != matchAgainstString(f, word));
+    }
+
+    @Test
+    public void testEarlyExitEmptiness()
+    {
+        DFA a = PatternParser.toDFA("[a-z]*x[0-9]");
+        DFA b = PatternParser.toDFA("y*x[5-9]");
+        DFA c = PatternParser.toDFA("[0-9]+");
+
+        assertTrue(a.intersects(b));
+        String word = a.findCommonWord(b);
+        assertNotNull(word);
+        assertTrue(matchAgainstString(a, word));
+        assertTrue(matchAgainstString(b, word));
+        assertFalse(a.intersects(c));
+        assertNull(a.findCommonWord(c));
+        assertEquals(a.intersectWith(c).isEmpty(), !a.intersects(c));
+
+        assertTrue(b.isSubsetOf(a));
+        assertFalse(a.isSubsetOf(b));
+        word = a.findWordNotIn(b);
+        assertNotNull(word);
+        assertTrue(matchAgainstString(a, word));
+        assertFalse(matchAgainstString(b, word));
+        assertEquals(a.difference(b).isEmpty(), a.isSubsetOf(b));
+    }
+
     @Test
     public void testIntersection()
     {
@@ -390,4 +489,60 @@ public class DFATest
 
         assertFalse(intersection.isEmpty());
     }
+
+    @Test
+    public void testDenseStateNumbering() throws InterruptedException
+    {
+        DFA dfa = PatternParser.toDFA("(ab|c)*[0-9]+x?");
+        assertEquals(0, dfa.indexOf(dfa.getStartState()));
+        assertEquals(-1, dfa.indexOf(new State()));
+        for (int i = 0; i < dfa.getStateCount(); ++i)
+        {
+            assertEquals(i, dfa.indexOf(dfa.getState(i)));
+            assertEquals(dfa.isAccepting(dfa.getState(i)), dfa.isAccepting(i));
+        }
+
+        NFA nfa = PatternParser.parse("(ab|c)*[0-9]+x?").toThompsonAutomaton().toNFA();
+        for (final String input : new String[] {"", "abc12", "cab", "9x", "c9xx", "ab"})
+        {
+            State state = dfa.getStartState();
+            int index = 0;
+            Set<State> states = nfa.getStartStates();
+            BitSet indices = nfa.getStartIndices();
+            for (final char c : input.toCharArray())
+            {
+                state = dfa.transition(state, c);
+                index = dfa.transition(index, c);
+                states = nfa.transition(states, c);
+                indices = nfa.transition(indices, c);
+                assertEquals(dfa.indexOf(state), index);
+                assertEquals(states.size(), indices.cardinality());
+            }
+            assertEquals(dfa.isAccepting(state), nfa.isAccepting(indices));
+        }
+
+        // ids are sequential across threads
+        final State first = new State();
+        final State[] other = new State[1];
+        final Thread thread = new Thread(() -> other[0] = new State());
+        thread.start();
+        thread.join();
+        final State last = new State();
+        assertEquals(Integer.parseInt(first.getLabel()) + 1, Integer.parseInt(other[0].getLabel()));
+        assertEquals(Integer.parseInt(first.getLabel()) + 2, Integer.parseInt(last.getLabel()));
+
+        // states created far apart are numbered as well
+        for (int i = 0; i < 10000; ++i)
+        {
+            new State();
+        }
+        final State late = new State();
+        final DFA sparse = new DFA(asSet(first, late), asSet(new WildcardTransition(first, late), new WildcardTransition(late, ErrorState.ERROR)), first, asSet(late));
+        assertEquals(0, sparse.indexOf(first));
+        assertEquals(late, sparse.getState(sparse.indexOf(late)));
+        assertEquals(ErrorState.ERROR, sparse.getState(sparse.indexOf(ErrorState.ERROR)));
+        assertEquals(-1, sparse.indexOf(last));
+        assertEquals(-1, dfa.indexOf(ErrorState.ERROR));
+        assertTrue(sparse.isAccepting(sparse.transition(0, 'x')));
+    }
 }
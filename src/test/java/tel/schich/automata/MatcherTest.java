@@ -22,9 +22,43 @@
  */
 package tel.schich.automata;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
+import tel.schich.automata.compiled.CompiledDFA;
+import tel.schich.automata.compiled.CompiledMatcher;
+import tel.schich.automata.compiled.CompiledPattern;
+import tel.schich.automata.compiled.LazyDFA;
+import tel.schich.automata.eval.CountingEvaluator;
+import tel.schich.automata.eval.DerivativeEvaluator;
+import tel.schich.automata.eval.Evaluator;
+import tel.schich.automata.eval.StateMachineEvaluator;
 import tel.schich.automata.match.Matcher;
+import tel.schich.automata.match.PatternCache;
+import tel.schich.automata.match.PatternCompiler;
+import tel.schich.automata.match.PatternParser;
+import tel.schich.automata.match.pattern.Complement;
+import tel.schich.automata.match.pattern.DerivativeAutomaton;
+import tel.schich.automata.match.pattern.Intersection;
+import tel.schich.automata.match.pattern.Node;
+import tel.schich.automata.transition.SpontaneousTransition;
+import tel.schich.automata.transition.Transition;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.disjoint;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static tel.schich.automata.util.TestPrinting.printAutomoton;
 import org.junit.Test;
 
@@ -80,4 +114,442 @@ public class MatcherTest
         DFA aPlusD = aPlus.toDFA().minimize();
         printAutomoton(p.toString() + " DFA", aPlusD);
     }
+
+    @Test
+    public void testCharacterRanges()
+    {
+        DFA lower = Matcher.matchJavaCompatibleRegex("[a-z]+");
+        assertEquals("a range is a single transition", 2, lower.getTransitions().size());
+        assertTrue(matches(lower, "range"));
+        assertFalse(matches(lower, "Range"));
+        assertFalse(matches(lower, ""));
+
+        DFA cyrillic = Matcher.matchJavaCompatibleRegex("[а-я]+[0-9]");
+        assertTrue(matches(cyrillic, "привет1"));
+        assertFalse(matches(cyrillic, "hello1"));
+
+        DFA overlapping = PatternParser.toNFA("[a-m]x|[h-z]y").toDFA();
+        assertTrue(matches(overlapping, "ax"));
+        assertTrue(matches(overlapping, "hx"));
+        assertTrue(matches(overlapping, "hy"));
+        assertTrue(matches(overlapping, "zy"));
+        assertFalse(matches(overlapping, "zx"));
+        assertFalse(matches(overlapping, "ay"));
+        assertTrue(overlapping.isEquivalentTo(overlapping.minimize()));
+    }
+
+    @Test
+    public void testNegatedCharacterClasses()
+    {
+        DFA notAbc = Matcher.matchJavaCompatibleRegex("[^a-c]");
+        assertTrue(matches(notAbc, "d"));
+        assertTrue(matches(notAbc, "\uFFFF"));
+        assertFalse(matches(notAbc, "b"));
+        assertFalse(matches(notAbc, ""));
+        assertFalse(matches(notAbc, "dd"));
+
+        DFA word = Matcher.matchJavaCompatibleRegex("\\w+\\W\\d");
+        assertTrue(matches(word, "foo_Bar9-1"));
+        assertFalse(matches(word, "foo_Bar9-x"));
+        assertFalse(matches(word, "foo_Bar9_1"));
+    }
+
+    @Test
+    public void testGlushkovConstruction()
+    {
+        for (String pattern : new String[] {"(a|b)*abb[cd]*.", "[a-m]x|[h-z]y", "(ab|a.)*b", "x(.|y)+", "\\d+(\\.\\d*)?"})
+        {
+            Node node = PatternParser.parse(pattern);
+            NFA glushkov = node.toNFA();
+            long positions = pattern.replaceAll("\\\\.", "_").replaceAll("\\[[^]]*]", "_").replaceAll("[()|*+?]", "").length();
+            assertEquals(pattern, positions + 1, glushkov.getStates().size());
+            for (Transition t : glushkov.getTransitions())
+            {
+                assertFalse(pattern, t instanceof SpontaneousTransition);
+            }
+            assertTrue(pattern, glushkov.isEquivalentTo(node.toThompsonAutomaton()));
+        }
+
+        NFA bounded = PatternParser.toNFA("a{2,3}b?");
+        assertEquals(5, bounded.getStates().size());
+        assertFalse(matches(bounded, "a"));
+        assertTrue(matches(bounded, "aa"));
+        assertTrue(matches(bounded, "aaab"));
+        assertFalse(matches(bounded, "aaaa"));
+
+        NFA wildcard = PatternParser.toNFA("(a|.)b");
+        assertTrue(matches(wildcard, "ab"));
+        assertTrue(matches(wildcard, "xb"));
+        assertFalse(matches(wildcard, "abb"));
+    }
+
+    @Test
+    public void testParseGroups()
+    {
+        assertEquals(PatternParser.parse("(ab)*c"), PatternParser.parse("((a)(b))*c"));
+        assertEquals("(ab)*c|d", PatternParser.parse("(ab)*c|(d)").toString());
+        assertEquals("a{2,}[0-9a-f]?\\.", PatternParser.parse("a{2,}[a-f\\d]?\\.").toString());
+        for (String pattern : new String[] {"(ab)*c|d", "a{2,}[0-9a-f]?\\.", "x(y|)z", "\\Q(a)\\E+"})
+        {
+            Node node = PatternParser.parse(pattern);
+            assertEquals(node, PatternParser.parse(node.toString()));
+        }
+
+        DFA groups = PatternParser.toDFA("(ab)*c|d");
+        assertTrue(matches(groups, "ababc"));
+        assertTrue(matches(groups, "d"));
+        assertFalse(matches(groups, "abd"));
+
+        DFA empty = PatternParser.toDFA("x(y|)z");
+        assertTrue(matches(empty, "xz"));
+        assertTrue(matches(empty, "xyz"));
+        assertTrue(matches(PatternParser.toDFA("\\x41\\0101"), "AA"));
+    }
+
+    @Test
+    public void testDerivativeAutomaton()
+    {
+        for (String pattern : new String[] {"(a|b)*abb[cd]*.", "[a-m]x|[h-z]y", "(ab|a.)*b", "a{2,4}(b|c)?", "\\w+@\\w+"})
+        {
+            DerivativeAutomaton derivatives = PatternParser.toDerivativeAutomaton(pattern);
+            assertTrue(pattern, derivatives.toDFA().isEquivalentTo(PatternParser.toDFA(pattern)));
+        }
+
+        Node lowerWithoutFoo = Intersection.of(asList(PatternParser.parse("[a-z]+"), Complement.of(PatternParser.parse(".*foo.*"))));
+        DerivativeAutomaton automaton = new DerivativeAutomaton(lowerWithoutFoo);
+        assertTrue(automaton.matches("bar"));
+        assertTrue(automaton.matches("fobo"));
+        assertFalse(automaton.matches("xfooy"));
+        assertFalse(automaton.matches("BAR"));
+        assertFalse(automaton.matches(""));
+        final int statesAfterMatching = automaton.getStateCount();
+        assertTrue(automaton.toDFA().isEquivalentTo(lowerWithoutFoo.toNFA()));
+        assertTrue(automaton.getStateCount() >= statesAfterMatching);
+
+        DerivativeEvaluator evaluator = new DerivativeEvaluator(automaton);
+        assertTrue(evaluator.transition('f'));
+        assertTrue(evaluator.transition('o'));
+        assertFalse(evaluator.transition('o'));
+        assertFalse(evaluator.transition('x'));
+    }
+
+    @Test
+    public void testPatternCompilerCache() throws Exception
+    {
+        PatternCompiler compiler = new PatternCompiler();
+        DFA ip = compiler.compile("[0-9]{1,3}(\\.[0-9]{1,3}){3}");
+        assertTrue(matches(ip, "192.168.0.1"));
+        assertFalse(matches(ip, "192.168.0"));
+        assertFalse(matches(ip, "1921.168.0.1"));
+        // [0-9]{1,3} occurs twice
+        assertEquals(1, compiler.getHits());
+
+        DFA date = compiler.compile("\\d{4}-\\d{2}-\\d{2}");
+        long hits = compiler.getHits();
+        DFA dateTime = compiler.compile("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}");
+        assertTrue(compiler.getHits() > hits);
+        assertTrue(compiler.getHitRate() > 0);
+        assertTrue(matches(date, "2024-01-31"));
+        assertTrue(matches(dateTime, "2024-01-31T12:00"));
+        assertFalse(matches(dateTime, "2024-01-31"));
+        assertTrue(dateTime.isEquivalentTo(PatternParser.toDFA("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}")));
+
+        // compiling the same pattern again is answered by the cache, but never returns the cached instance
+        DFA again = compiler.compile("\\d{4}-\\d{2}-\\d{2}");
+        assertTrue(again.isEquivalentTo(date));
+        assertTrue(disjoint(again.getStates(), date.getStates()));
+
+        PatternCompiler small = new PatternCompiler(2);
+        small.compile("(ab)+(cd)+(ef)+");
+        assertEquals(2, small.size());
+        assertTrue(small.getEvictions() > 0);
+
+        // concurrent compilations share the cache
+        final PatternCompiler shared = new PatternCompiler();
+        final String[] patterns = {"(ab)+(cd)*x", "(ab)+y", "(cd)*(ab)+", "[0-9]{1,3}(ab)+", "(ab|cd){2,4}", "x(cd)*"};
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<DFA>> results = new ArrayList<>();
+        for (int i = 0; i < 4 * patterns.length; ++i)
+        {
+            final String pattern = patterns[i % patterns.length];
+            results.add(executor.submit(() -> shared.compile(pattern)));
+        }
+        for (int i = 0; i < results.size(); ++i)
+        {
+            assertTrue(patterns[i % patterns.length], results.get(i).get().isEquivalentTo(PatternParser.toDFA(patterns[i % patterns.length])));
+        }
+        executor.shutdown();
+        assertTrue(shared.getHits() > 0);
+    }
+
+    @Test
+    public void testLargeBoundedRepetition()
+    {
+        NFA three = Matcher.match("a").repeat(3);
+        assertTrue(matches(three, "aaa"));
+        assertFalse(matches(three, "aa"));
+        assertFalse(matches(three, "aaaa"));
+        NFA twoToFour = Matcher.match("ab").repeatMinMax(2, 4);
+        assertFalse(matches(twoToFour, "ab"));
+        assertTrue(matches(twoToFour, "abababab"));
+        assertFalse(matches(twoToFour, "ababababab"));
+
+        // the optional copies are nested, so the transitions grow linearly with the bound
+        NFA large = PatternParser.toNFA("a{1,1000}");
+        assertTrue(large.getTransitions().size() < 4000);
+        assertTrue(matches(large, repeated('a', 1000)));
+        assertFalse(matches(large, repeated('a', 1001)));
+
+        String[] patterns = {"[0-9]{2,5}x.{3}", "a*b{0,3}c+", "\\d{1,1000}-[a-f]{8}"};
+        String[] inputs = {"12x...", "12345x---", "123456xabc", "x", "aaac", "abbbcc", "abbbbc", "", "7-deadbeef",
+                           "-deadbeef", "12-deadbee", repeated('1', 1000) + "-00000000", repeated('1', 1001) + "-aaaaaaaa"};
+        for (final String pattern : patterns)
+        {
+            Node node = PatternParser.parse(pattern);
+            assertTrue(CountingEvaluator.isApplicable(node));
+            DFA dfa = node.toNFA().toDFA();
+            for (final String input : inputs)
+            {
+                StateMachineEvaluator counting = new CountingEvaluator(node);
+                for (final char c : input.toCharArray())
+                {
+                    counting.transition(c);
+                }
+                assertEquals(pattern + " on " + input, matches(dfa, input), counting.isCurrentAccepting());
+            }
+        }
+        assertFalse(CountingEvaluator.isApplicable(PatternParser.parse("(ab)+")));
+    }
+
+    private static String repeated(char c, int count)
+    {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; ++i)
+        {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testPatternCache() throws Exception
+    {
+        final AtomicInteger compilations = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final PatternCache cache = new PatternCache(8, 1000, (pattern, flags) -> {
+            compilations.incrementAndGet();
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return PatternParser.toDFA(pattern).minimize();
+        });
+
+        // concurrent callers for the same pattern wait for a single compilation
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<DFA>> results = new ArrayList<>();
+        for (int i = 0; i < 4; ++i)
+        {
+            results.add(executor.submit(() -> cache.get("(ab)+c")));
+        }
+        Thread.sleep(50);
+        release.countDown();
+        for (final Future<DFA> result : results)
+        {
+            assertTrue(matches(result.get(), "ababc"));
+        }
+        executor.shutdown();
+        assertEquals(1, compilations.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(3, cache.getHits());
+        assertTrue(disjoint(results.get(0).get().getStates(), results.get(1).get().getStates()));
+
+        // flags are part of the key
+        cache.get("(ab)+c", Pattern.CASE_INSENSITIVE);
+        assertEquals(2, compilations.get());
+
+        // the weight is bounded by the number of states
+        final PatternCache small = new PatternCache(100, 10);
+        small.get("abcd");
+        small.get("efgh");
+        assertEquals(10, small.getWeight());
+        small.get("abcd");
+        small.get("ij");
+        assertEquals(1, small.getEvictions());
+        assertEquals(2, small.size());
+        assertEquals(1, small.getHits());
+        small.get("abcd");
+        assertEquals(2, small.getHits());
+
+        // failed compilations are not cached
+        try
+        {
+            small.get("[z-a]");
+            fail("the range is illegal");
+        }
+        catch (IllegalArgumentException ignored)
+        {
+        }
+        assertEquals(2, small.size());
+
+        // failures to stay within the budget are cached
+        final AtomicInteger budgeted = new AtomicInteger();
+        final PatternCache budget = new PatternCache(8, 1000, (pattern, flags) -> {
+            budgeted.incrementAndGet();
+            return PatternParser.toNFA(pattern).toDFA(16, 1000);
+        });
+        for (int i = 0; i < 2; ++i)
+        {
+            try
+            {
+                budget.get("(a|b)*a(a|b){8}");
+                fail("the DFA exceeds the budget");
+            }
+            catch (DeterminizationBudgetException ignored)
+            {
+            }
+        }
+        assertEquals(1, budgeted.get());
+        assertEquals(0, budget.getWeight());
+
+        // eviction samples entries, but never evicts a recently used one while older ones remain
+        final PatternCache sampled = new PatternCache(32, PatternCache.DEFAULT_MAXIMUM_WEIGHT);
+        for (int i = 0; i < 200; ++i)
+        {
+            sampled.get("hot");
+            sampled.get("cold" + i);
+        }
+        assertEquals(32, sampled.size());
+        assertEquals(169, sampled.getEvictions());
+        assertEquals(201, sampled.getMisses());
+        sampled.clear();
+        assertEquals(0, sampled.getWeight());
+        sampled.get("hot");
+        assertEquals(202, sampled.getMisses());
+
+        assertTrue(matches(Matcher.matchJavaCompatibleRegex("x[0-9]+"), "x42"));
+        assertTrue(matches(Matcher.match(Pattern.compile("x[0-9]+")), "x7"));
+        assertTrue(Matcher.getPatternCache().getHits() > 0);
+    }
+
+    @Test
+    public void testBudgetFallback()
+    {
+        assertTrue(Matcher.compile("[a-z]+@[a-z]+") instanceof CompiledDFA);
+
+        // the DFA would have 2^21 states, which exceeds the budget of the cache
+        final String regex = "(a|b)*a(a|b){20}";
+        final CompiledMatcher matcher = Matcher.compile(regex);
+        assertTrue(matcher instanceof LazyDFA);
+        final String[] inputs = {"", "a", "ab", "a" + repeated('b', 20), "b" + repeated('b', 20), repeated('a', 40) + repeated('b', 20),
+                                 repeated('a', 40) + repeated('b', 21)};
+        for (final String input : inputs)
+        {
+            assertEquals(input, Pattern.matches(regex, input), matcher.matches(input));
+            assertEquals(input, Pattern.matches(regex, input), matcher.matches(input.toCharArray()));
+        }
+        // matchers are cached, so the regex is neither parsed nor determinized again
+        assertSame(matcher, Matcher.compile(regex));
+
+        // too many classes for the tables of a lazy DFA, so the NFA is simulated
+        final StringBuilder manyClasses = new StringBuilder(regex).append('[');
+        for (char c = '\u0100'; c < '\u1000'; c += 2)
+        {
+            manyClasses.append(c);
+        }
+        final String classHeavy = manyClasses.append(']').toString();
+        final CompiledMatcher simulation = Matcher.compile(classHeavy);
+        assertFalse(simulation instanceof LazyDFA);
+        assertFalse(simulation instanceof CompiledDFA);
+        for (final String input : new String[] {"a" + repeated('b', 20) + "\u0100", "a" + repeated('b', 20) + "\u0101"})
+        {
+            assertEquals(input, Pattern.matches(classHeavy, input), simulation.matches(input));
+        }
+
+        // a small cache is flushed, but keeps matching
+        final LazyDFA small = new LazyDFA(PatternParser.toNFA(regex), 8);
+        for (final String input : inputs)
+        {
+            assertEquals(input, Pattern.matches(regex, input), small.matches(input));
+        }
+        assertTrue(small.getFlushes() > 0);
+        assertTrue(small.getCachedStates() <= 8);
+
+        // the caches of the threads don't keep matchers alive
+        LazyDFA used = new LazyDFA(PatternParser.toNFA(regex));
+        assertTrue(used.matches("a" + repeated('b', 20)));
+        final WeakReference<LazyDFA> reference = new WeakReference<>(used);
+        used = null;
+        for (int i = 0; i < 20 && reference.get() != null; ++i)
+        {
+            System.gc();
+        }
+        assertNull(reference.get());
+    }
+
+    @Test
+    public void testCaseInsensitive()
+    {
+        final int flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        final String[] regexes = {"hello", "[a-f]+x", "stra\u00DFe|\u00E4\u00F6\u00FC", "\u03C3+", "[^a]b", "\\W\\w", "[a-z]+",
+                                  "\\w+", "[^\\w]", "[^a-c]x", "[\\dk]+", "\\x4b", "\\Qk\\E"};
+        final String[] inputs = {"", "hello", "HeLLo", "helo", "ABCX", "aFx", "gx", "STRA\u00DFE", "\u00C4\u00D6\u00DC", "\u03A3\u03C3\u03C2",
+                                 "Ab", "ab", "bB", "-K", "-k", "a" + repeated('B', 20), "A" + repeated('b', 19), "k", "K", "\u212A",
+                                 "\u017F", "\u212Ax", "Cx", "dx", "1\u212A"};
+        // without UNICODE_CASE only ASCII letters are folded
+        for (final int caseFlags : new int[] {Pattern.CASE_INSENSITIVE, flags})
+        {
+            for (final String regex : regexes)
+            {
+                final Pattern pattern = Pattern.compile(regex, caseFlags);
+                final DFA dfa = Matcher.match(pattern);
+                final CompiledMatcher compiled = Matcher.compile(regex, caseFlags);
+                final CompiledMatcher inline = Matcher.compile("(?i)" + regex, caseFlags & ~Pattern.CASE_INSENSITIVE);
+                final CompiledPattern planned = CompiledPattern.compile(regex, caseFlags);
+                for (final String input : inputs)
+                {
+                    final String context = regex + " with " + caseFlags + " on " + input;
+                    final boolean expected = pattern.matcher(input).matches();
+                    assertEquals(context, expected, matches(dfa, input));
+                    assertEquals(context, expected, compiled.matches(input));
+                    assertEquals(context, expected, compiled.matches(input.toCharArray()));
+                    assertEquals(context, expected, inline.matches(input));
+                    assertEquals(context, expected, planned.matches(input));
+                }
+            }
+        }
+
+        // the case is folded by the class map, so the table is as large as for the case-sensitive regex
+        final CompiledDFA sensitive = (CompiledDFA)Matcher.compile("[a-z]+@[a-z]+\\.com");
+        final CompiledDFA insensitive = (CompiledDFA)Matcher.compile("[a-z]+@[a-z]+\\.com", flags);
+        assertEquals(sensitive.getStateCount(), insensitive.getStateCount());
+        assertEquals(sensitive.getClassCount(), insensitive.getClassCount());
+        assertTrue(insensitive.matches("Joe@Example.COM"));
+        assertTrue(new LazyDFA(PatternParser.toNFA("(a|b)*a(a|b){20}", flags)).matches("A" + repeated('B', 20)));
+
+        // inline flags only apply to the rest of their group
+        final String[] scoped = {"a(?i)bc", "a(?i:b)c", "(?i)a(?-i)b", "(a(?i)b)c", "a(?i)b|c"};
+        for (final String regex : scoped)
+        {
+            final CompiledMatcher matcher = Matcher.compile(regex);
+            for (final String input : new String[] {"abc", "aBc", "Abc", "abC", "ABC", "ab", "aB", "Ab", "c", "C"})
+            {
+                assertEquals(regex + " on " + input, Pattern.matches(regex, input), matcher.matches(input));
+            }
+        }
+    }
+
+    private static boolean matches(FiniteAutomaton<? extends Transition> automaton, String input)
+    {
+        StateMachineEvaluator evaluator = Evaluator.eval(automaton);
+        for (final char c : input.toCharArray())
+        {
+            evaluator.transition(c);
+        }
+        return evaluator.isCurrentAccepting();
+    }
 }
@@ -24,20 +24,29 @@ package tel.schich.automata;
 
 import tel.schich.automata.eval.DFAEvaluator;
 import tel.schich.automata.eval.Evaluator;
+import tel.schich.automata.eval.NFAEvaluator;
 import tel.schich.automata.match.Matcher;
+import tel.schich.automata.match.PatternParser;
+import tel.schich.automata.match.pattern.Node;
 import tel.schich.automata.transition.CharacterTransition;
 import tel.schich.automata.transition.SpontaneousTransition;
 import tel.schich.automata.transition.Transition;
+import tel.schich.automata.transition.WildcardTransition;
+import tel.schich.automata.util.CharRange;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Supplier;
 
 import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static tel.schich.automata.util.TestPrinting.automatonToDot;
 import static tel.schich.automata.util.TestPrinting.printAutomoton;
 import static tel.schich.automata.util.Util.asSet;
@@ -111,6 +120,56 @@ public class NFATest
         printAutomoton("toDFA", stroetiExample43.toDFA());
     }
 
+    @Test
+    public void testRemoveEpsilons()
+    {
+        final NFA thompson = PatternParser.parse("(a|b)*abb[cd]*.").toThompsonAutomaton().toNFA();
+        for (NFA nfa : asList(stroetiExample44, thompson, Matcher.match("ab").kleeneStar().concat(NFA.EMPTY.or(Matcher.match("c")))))
+        {
+            final NFA epsilonFree = nfa.removeEpsilons();
+            printAutomoton("epsilon-free", epsilonFree);
+            assertSame(epsilonFree, nfa.removeEpsilons());
+            assertTrue(epsilonFree.getStates().size() <= nfa.getStates().size());
+            for (Transition t : epsilonFree.getTransitions())
+            {
+                assertFalse(t instanceof SpontaneousTransition);
+            }
+            assertTrue(epsilonFree.isEquivalentTo(nfa));
+            assertEquals(epsilonFree.getStates(), epsilonFree.getReachableStates());
+        }
+
+        // the dead end for 'a' shadows the wildcard and must survive trimming
+        final State start = new State();
+        final State dead = new State();
+        final State accept = new State();
+        final NFA notA = new NFA(asSet(start, dead, accept), asSet(new CharacterTransition(start, 'a', dead),
+                                                                   new WildcardTransition(start, accept)), start, asSet(accept));
+        final NFAEvaluator eval = new NFAEvaluator(notA);
+        assertFalse(eval.transition('a'));
+        assertTrue(new NFAEvaluator(notA).transition('b'));
+    }
+
+    @Test
+    public void testParallelToDFA()
+    {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            for (NFA nfa : asList(stroetiExample43, stroetiExample44, PatternParser.toNFA("(a|b)*abb[cd]*.")))
+            {
+                DFA sequential = nfa.toDFA();
+                DFA parallel = nfa.toDFA(pool);
+                assertEquals(sequential.getStates().size(), parallel.getStates().size());
+                assertEquals(sequential.getTransitions().size(), parallel.getTransitions().size());
+                assertTrue(sequential.isEquivalentTo(parallel));
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
     @Test
     public void testWithWildcardToDFA()
     {
@@ -146,8 +205,174 @@ public class NFATest
         DFAEvaluator eval = new DFAEvaluator(optimized);
         assertFalse(eval.transition('t'));
         assertFalse(eval.transition('e'));
-        assertFalse(eval.transition('t'));
-        assertFalse(eval.transition('r'));
+        // the empty alternative followed by the trailing wildcard matches everything after "te"
+        assertTrue(eval.transition('t'));
+        assertTrue(eval.transition('r'));
         assertTrue(eval.transition('_'));
     }
+
+    @Test
+    public void testWildcardNextToExplicitTransitions()
+    {
+        // one state of the subset reads 't' explicitly, the other one only through its wildcard
+        final NFA nfa = Matcher.match("tr").or(Matcher.matchWildcard().toNFA());
+        final DFA dfa = nfa.toDFA();
+
+        for (final String input : asList("tr", "tx", "xt", "trt"))
+        {
+            final NFAEvaluator expected = new NFAEvaluator(nfa);
+            final DFAEvaluator actual = new DFAEvaluator(dfa);
+            final DFAEvaluator minimized = new DFAEvaluator(dfa.minimize());
+            for (final char c : input.toCharArray())
+            {
+                final boolean accepting = expected.transition(c);
+                assertEquals(input, accepting, actual.transition(c));
+                assertEquals(input, accepting, minimized.transition(c));
+            }
+        }
+        assertTrue(new DFAEvaluator(dfa).transition('t'));
+    }
+
+    @Test
+    public void testAntichainInclusion()
+    {
+        final NFA ab = Matcher.match("ab").toNFA();
+        final NFA abStar = Matcher.match("ab").kleeneStar();
+        final NFA lowerWords = Matcher.matchRange('a', 'z').kleenePlus();
+        final NFA anything = Matcher.matchWildcard().kleeneStar();
+
+        assertTrue(ab.isSubsetOf(abStar));
+        assertFalse(abStar.isSubsetOf(ab));
+        assertTrue(abStar.isSubsetOf(abStar.or(ab)));
+        assertFalse(abStar.isSubsetOf(lowerWords));
+        assertTrue(ab.concat(abStar).isSubsetOf(lowerWords));
+        assertTrue(lowerWords.isSubsetOf(anything));
+        assertFalse(anything.isSubsetOf(lowerWords));
+        assertTrue(NFA.EMPTY.isSubsetOf(ab));
+
+        assertTrue(anything.isUniversal());
+        assertTrue(lowerWords.or(Matcher.matchRange('a', 'z').complement()).kleeneStar().isUniversal());
+        assertFalse(lowerWords.isUniversal());
+        assertFalse(abStar.isUniversal());
+
+        // cross check against the determinized difference
+        final NFA[] automata = {ab, abStar, lowerWords, anything, ab.or(lowerWords), abStar.concat(anything)};
+        for (final NFA left : automata)
+        {
+            for (final NFA right : automata)
+            {
+                assertEquals(left.toDFA().difference(right.toDFA()).isEmpty(), left.isSubsetOf(right));
+            }
+        }
+    }
+
+    @Test
+    public void testAutomatonBuilder()
+    {
+        final AutomatonBuilder builder = new AutomatonBuilder();
+        final AutomatonBuilder.Fragment ab = builder.concat(builder.character('a'), builder.character('b'));
+        final AutomatonBuilder.Fragment digits = builder.ranges(asList(CharRange.range('0', '9')));
+        final NFA abStarDigit = builder.freeze(builder.concat(builder.star(ab), digits));
+        assertTrue(abStarDigit.isEquivalentTo(PatternParser.toNFA("(ab)*[0-9]")));
+        assertTrue(builder.freeze(builder.include(abStarDigit)).isEquivalentTo(abStarDigit));
+
+        final AutomatonBuilder deterministic = new AutomatonBuilder();
+        final int start = deterministic.addState();
+        final int end = deterministic.addState();
+        deterministic.setStart(start);
+        deterministic.setAccepting(end, true);
+        deterministic.addRange(start, 'a', 'f', end);
+        deterministic.addWildcard(start, start);
+        final DFA dfa = deterministic.freezeDeterministic();
+        assertTrue(dfa.isEquivalentTo(PatternParser.toNFA("[^a-f]*[a-f]")));
+        deterministic.addCharacter(start, 'c', start);
+        try
+        {
+            deterministic.freezeDeterministic();
+            fail("overlapping ranges are not deterministic");
+        }
+        catch (IllegalStateException ignored)
+        {
+        }
+
+        // thompson automata are built in one builder, so long sequences grow linearly
+        final StringBuilder pattern = new StringBuilder();
+        for (int i = 0; i < 2000; ++i)
+        {
+            pattern.append((char)('a' + i % 26));
+        }
+        final NFA thompson = PatternParser.parse(pattern.toString()).toThompsonAutomaton().toNFA();
+        assertTrue(thompson.getStates().size() <= 4000);
+        assertTrue(thompson.isEquivalentTo(PatternParser.toNFA(pattern.toString())));
+
+        // the skipping edge of an optional wildcard runs parallel to the wildcard edge
+        final AutomatonBuilder wildcards = new AutomatonBuilder();
+        assertTrue(wildcards.freeze(wildcards.optional(wildcards.wildcard())).isEquivalentTo(PatternParser.toNFA(".?")));
+        for (final String regex : asList("a{2,4}", "(ab|c)+d?", "x{3,}", "(a|b){0,3}c", "()|a*", ".?", "(.)?", ".{0,2}", "a.{0,3}b"))
+        {
+            final Node node = PatternParser.parse(regex);
+            assertTrue(regex, node.toThompsonAutomaton().isEquivalentTo(node.toNFA()));
+        }
+    }
+
+    @Test
+    public void testTrim()
+    {
+        final State start = new State();
+        final State dead = new State();
+        final State accept = new State();
+        final State unreachable = new State();
+        final Set<Transition> transitions = asSet(
+                new CharacterTransition(start, 'a', dead),
+                new WildcardTransition(start, accept),
+                new CharacterTransition(dead, 'b', dead),
+                new CharacterTransition(unreachable, 'c', accept));
+        final NFA nfa = new NFA(asSet(start, dead, accept, unreachable), transitions, start, asSet(accept));
+
+        assertEquals(asSet(start, dead, accept), nfa.getReachableStates());
+        assertEquals(asSet(start, accept, unreachable), nfa.getCoReachableStates());
+
+        final NFA trimmed = nfa.trim();
+        assertFalse(trimmed.getStates().contains(dead));
+        assertFalse(trimmed.getStates().contains(unreachable));
+        // the explicit transition for 'a' still shadows the wildcard, it just leads into a new dead state
+        assertEquals(3, trimmed.getStates().size());
+        assertTrue(trimmed.isEquivalentTo(nfa));
+        assertFalse(Evaluator.eval(trimmed).transition('a'));
+        assertTrue(Evaluator.eval(trimmed).transition('b'));
+        assertSame(trimmed, trimmed.trim());
+
+        final NFA useful = Matcher.match("ab").toNFA();
+        assertSame(useful, useful.trim());
+    }
+
+    @Test
+    public void testBudgetedDeterminization()
+    {
+        // the DFA needs a state for every combination of the last 11 characters
+        final NFA nfa = PatternParser.toNFA("(a|b)*a(a|b){10}");
+        assertTrue(nfa.toDFA(1 << 12, 10_000).isEquivalentTo(nfa.toDFA()));
+        try
+        {
+            nfa.toDFA(100, 10_000);
+            fail("The budget of states was exceeded!");
+        }
+        catch (DeterminizationBudgetException e)
+        {
+            assertEquals(100, e.getStates());
+            assertEquals(100, e.getMaximumStates());
+            assertTrue(e.getTransitions() > 0);
+            assertTrue(e.getPending() > 0);
+        }
+        try
+        {
+            PatternParser.toNFA("(a|b)*a(a|b){30}").toDFA(Integer.MAX_VALUE, 50);
+            fail("The budget of time was exceeded!");
+        }
+        catch (DeterminizationBudgetException e)
+        {
+            assertTrue(e.getElapsedMillis() > 50);
+            assertTrue(e.getStates() < Integer.MAX_VALUE);
+        }
+    }
 }
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.capture;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tel.schich.automata.match.PatternParser;
+import tel.schich.automata.match.pattern.Group;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CapturePatternTest
+{
+    private static final String[] PATTERNS = {"([a-z]+)@([a-z]+)\\.(com|org)", "(\\d{4})-(\\d{2})-(\\d{2}) (\\w+): (.*)",
+                                              "(a|ab)(c|bcd)(d*)", "(a*)(a*)", "(a|(b))+", "((a)|b)*", "(?:(\\d+)-)?(\\d+)",
+                                              "(.*)x(.*)", "([a-c]{2,3})([a-c]*)", "(a)|b", "x(y(z)?)*", "((x)+){0,2}",
+                                              "(([a-c])+)+"};
+    private static final String[] INPUTS = {"", "joe@example.com", "joe@example.net", "2024-01-31 ERROR: disk full",
+                                            "abcd", "acd", "abcdd", "aaaa", "ba", "ab", "bab", "12-34", "34", "12-",
+                                            "axbxc", "abcab", "b", "a", "x", "xyzyy", "xyyz"};
+
+    @Test
+    public void testCaptures()
+    {
+        for (final String pattern : PATTERNS)
+        {
+            assertCaptures(pattern, 0, INPUTS);
+        }
+    }
+
+    @Test
+    public void testCaseInsensitiveCaptures()
+    {
+        final String[] patterns = {"([a-z]+)@([a-z]+)\\.(com|org)", "(k+)(\\w*)", "(stra\u00DFe)|([^a-c]+)", "(a(?-i)b)(c)"};
+        final String[] inputs = {"Joe@Example.COM", "joe@example.net", "kK\u212Ax", "\u212Ak", "K_1", "STRA\u00DFE", "dEf",
+                                 "Abc", "aBc", "ABC", "abC"};
+        // without UNICODE_CASE only ASCII letters are folded
+        for (final int flags : new int[] {Pattern.CASE_INSENSITIVE, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE})
+        {
+            for (final String pattern : patterns)
+            {
+                assertCaptures(pattern, flags, inputs);
+            }
+        }
+    }
+
+    private static void assertCaptures(String pattern, int flags, String[] inputs)
+    {
+        final CapturePattern compiled = CapturePattern.compile(pattern, flags);
+        final Pattern reference = Pattern.compile(pattern, flags);
+        assertEquals(pattern, reference.matcher("").groupCount(), compiled.getGroupCount());
+        for (final String input : inputs)
+        {
+            final Matcher expected = reference.matcher(input);
+            final Captures actual = compiled.match(input);
+            if (!expected.matches())
+            {
+                assertNull(pattern + " on " + input + " with flags " + flags, actual);
+                continue;
+            }
+            for (int group = 0; group <= expected.groupCount(); ++group)
+            {
+                final String context = pattern + " on " + input + " with flags " + flags + ", group " + group + ": " + actual;
+                assertEquals(context, expected.start(group), actual.start(group));
+                assertEquals(context, expected.end(group), actual.end(group));
+                assertEquals(context, expected.group(group), actual.group(group));
+            }
+        }
+    }
+
+    @Test
+    public void testNestedRepetitions()
+    {
+        // the programs outgrow the initial capacity while loop bodies are compiled
+        final String pattern = "((([a-c])+-)+(x)*=){1,3}";
+        final CapturePattern compiled = CapturePattern.compile(pattern);
+        final String[] inputs = {"", "a-", "a-=", "ab-c-xx=", "a-=b-c-=abc-x=", "a-=b-=c-=a-="};
+        final String[][] groups = {null, null, {"a-=", "a-=", "a-", "a", null}, {"ab-c-xx=", "ab-c-xx=", "c-", "c", "x"},
+                                   {"a-=b-c-=abc-x=", "abc-x=", "abc-", "c", "x"}, null};
+        for (int i = 0; i < inputs.length; ++i)
+        {
+            final Captures actual = compiled.match(inputs[i]);
+            assertEquals(inputs[i], Pattern.matches(pattern, inputs[i]), actual != null);
+            if (actual != null)
+            {
+                for (int group = 0; group < groups[i].length; ++group)
+                {
+                    assertEquals(inputs[i] + ", group " + group, groups[i][group], actual.group(group));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOnePass()
+    {
+        assertTrue(CapturePattern.compile("([a-z]+)@([a-z]+)\\.(com|org)").isOnePass());
+        assertFalse(CapturePattern.compile("(?:(\\d+)-)?(\\d+)").isOnePass());
+        assertTrue(CapturePattern.compile("(\\d+)-(\\d+)").isOnePass());
+        assertFalse(CapturePattern.compile("(a*)(a*)").isOnePass());
+        assertFalse(CapturePattern.compile("(.*)x(.*)").isOnePass());
+
+        final Captures captures = CapturePattern.compile("(\\d+)-(\\d+)").match("12-345");
+        assertEquals("12", captures.group(1));
+        assertEquals("345", captures.group(2));
+    }
+
+    @Test
+    public void testParseCapturing()
+    {
+        // non-capturing groups only group, plain parsing drops the groups
+        assertEquals(PatternParser.parse("a(b)c"), PatternParser.parse("a(?:b)c"));
+        assertEquals(Group.of(1, PatternParser.parse("ab")), PatternParser.parseCapturing("(?:(ab))"));
+        assertEquals(PatternParser.parse("(ab)"), PatternParser.parseCapturing("(?:ab)"));
+    }
+}
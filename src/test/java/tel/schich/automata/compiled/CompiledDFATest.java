@@ -0,0 +1,405 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.automata.compiled;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import tel.schich.automata.DFA;
+import tel.schich.automata.match.PatternCache;
+import tel.schich.automata.match.PatternParser;
+import tel.schich.automata.util.CaseFolding;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompiledDFATest
+{
+    private static final String[] PATTERNS = {"[a-z]+@[a-z]+\\.(com|org)", "(ab|c)*[0-9]+", ".*x.*", "äö+一?", ""};
+    private static final String[] INPUTS = {"", "a@b.com", "joe@example.org", "joe@example.net", "abc12", "ab",
+                                            "12", "xyz", "yyy", "äöö", "äö一", "ä"};
+
+    @PrecompiledPattern
+    static final String EMAIL = "[a-z]+@[a-z]+\\.(com|org)";
+    @PrecompiledPattern
+    static final String ESCAPES = "[\"\\\\]+|ä*\n?";
+
+    @Test
+    public void testCompile()
+    {
+        for (final String pattern : PATTERNS)
+        {
+            final DFA dfa = PatternParser.toDFA(pattern).minimize();
+            final ArrayDFA compiled = CompiledDFA.compile(dfa);
+            assertTrue(compiled.getClassCount() <= dfa.getExplicitRanges().size() + 1);
+            for (final String input : INPUTS)
+            {
+                assertEquals(pattern + " on " + input, Pattern.matches(pattern, input), compiled.matches(input));
+                assertEquals(compiled.matches(input), compiled.matches(input.toCharArray()));
+            }
+            assertTrue(compiled.toDFA().isEquivalentTo(dfa));
+        }
+
+        // all lower case letters behave the same, so they share a class
+        final ArrayDFA letters = CompiledDFA.compile(PatternParser.toDFA("[a-z]+"));
+        assertEquals(letters.getClassMap().classOf('a'), letters.getClassMap().classOf('q'));
+        assertEquals(2, letters.getClassCount());
+    }
+
+    @Test
+    public void testSerialization() throws IOException
+    {
+        for (final String pattern : PATTERNS)
+        {
+            final ArrayDFA compiled = CompiledDFA.compile(PatternParser.toDFA(pattern).minimize(), state -> 7);
+            final byte[] bytes = DFAFormat.toBytes(compiled);
+
+            final ArrayDFA fromStream = DFAFormat.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            final ArrayDFA fromBuffer = DFAFormat.read(buffer);
+            assertFalse(buffer.hasRemaining());
+            assertArrayEquals(bytes, DFAFormat.toBytes(fromStream));
+            assertArrayEquals(bytes, DFAFormat.toBytes(fromBuffer));
+            assertEquals(compiled.getClassMap(), fromBuffer.getClassMap());
+            assertTrue(fromBuffer.hasPatternIds());
+            assertEquals(7, fromBuffer.getPatternId(0));
+            for (final String input : INPUTS)
+            {
+                assertEquals(compiled.matches(input), fromStream.matches(input));
+                assertEquals(compiled.matches(input), fromBuffer.matches(input));
+            }
+        }
+
+        // small automata use single byte ids
+        final ArrayDFA small = CompiledDFA.compile(PatternParser.toDFA("abc"));
+        assertEquals(DFAFormat.HEADER_SIZE + small.getClassMap().getRunCount() * 3 + small.getStateCount() * small.getClassCount() + 8,
+                     DFAFormat.toBytes(small).length);
+        assertFalse(small.hasPatternIds());
+
+        final byte[] corrupt = DFAFormat.toBytes(small);
+        corrupt[0] = 0;
+        try
+        {
+            DFAFormat.read(ByteBuffer.wrap(corrupt));
+            fail("the magic number is wrong");
+        }
+        catch (IllegalArgumentException ignored)
+        {
+        }
+    }
+
+    @Test
+    public void testBufferDFA() throws IOException
+    {
+        final Path file = Files.createTempFile("compiled", ".dfa");
+        try
+        {
+            for (final String pattern : PATTERNS)
+            {
+                final ArrayDFA compiled = CompiledDFA.compile(PatternParser.toDFA(pattern).minimize(), state -> 3);
+                final byte[] bytes = DFAFormat.toBytes(compiled);
+                Files.write(file, bytes);
+
+                // the DFA doesn't have to start at the beginning of the buffer
+                final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 5);
+                direct.position(5);
+                direct.put(bytes);
+                direct.position(5);
+
+                final CompiledDFA[] loaded = {BufferDFA.map(file), BufferDFA.wrap(direct)};
+                assertEquals(5, direct.position());
+                for (final CompiledDFA dfa : loaded)
+                {
+                    assertEquals(3, dfa.getPatternId(0));
+                    assertArrayEquals(bytes, DFAFormat.toBytes(dfa));
+                    for (final String input : INPUTS)
+                    {
+                        assertEquals(compiled.matches(input), dfa.matches(input));
+                        assertEquals(compiled.matches(input), dfa.matches(input.toCharArray()));
+                    }
+                }
+            }
+
+            final byte[] truncated = DFAFormat.toBytes(CompiledDFA.compile(PatternParser.toDFA("abc")));
+            try
+            {
+                BufferDFA.wrap(ByteBuffer.wrap(truncated, 0, truncated.length - 1).slice());
+                fail("the buffer is truncated");
+            }
+            catch (IllegalArgumentException ignored)
+            {
+            }
+
+            // the last table entry, right before the accepting states, points to a state that doesn't exist
+            final byte[] corrupt = truncated.clone();
+            corrupt[corrupt.length - Long.BYTES - 1] = 0x7F;
+            try
+            {
+                BufferDFA.wrap(ByteBuffer.wrap(corrupt));
+                fail("the target state doesn't exist");
+            }
+            catch (IllegalArgumentException ignored)
+            {
+            }
+            assertEquals(4, BufferDFA.wrapTrusted(ByteBuffer.wrap(corrupt)).getStateCount());
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testDiskCache() throws IOException
+    {
+        final Path directory = Files.createTempDirectory("compiled");
+        try
+        {
+            final AtomicInteger compilations = new AtomicInteger();
+            final BiFunction<String, Integer, DFA> compiler = (pattern, flags) -> {
+                compilations.incrementAndGet();
+                return PatternCache.DEFAULT_COMPILER.apply(pattern, flags);
+            };
+
+            final DiskCache cold = new DiskCache(directory, compiler);
+            final CompiledDFA compiled = cold.get(PATTERNS[0]);
+            assertEquals(1, cold.getMisses());
+            assertTrue(Files.isRegularFile(cold.fileFor(PATTERNS[0], 0)));
+            assertFalse(cold.fileFor(PATTERNS[0], 0).equals(cold.fileFor(PATTERNS[0], Pattern.CASE_INSENSITIVE)));
+
+            // a new cache on the same directory, like after a restart, loads instead of compiling
+            final DiskCache warm = new DiskCache(directory, compiler);
+            final CompiledDFA loaded = warm.get(PATTERNS[0]);
+            assertEquals(1, warm.getHits());
+            assertEquals(1, compilations.get());
+            assertTrue(loaded instanceof BufferDFA);
+            for (final String input : INPUTS)
+            {
+                assertEquals(compiled.matches(input), loaded.matches(input));
+            }
+            assertTrue(warm.getDFA(PATTERNS[0], 0).isEquivalentTo(compiled.toDFA()));
+
+            // corrupt files are compiled again and replaced
+            Files.write(warm.fileFor(PATTERNS[1], 0), new byte[] {1, 2, 3});
+            assertTrue(warm.get(PATTERNS[1]).matches("ab7"));
+            assertEquals(2, compilations.get());
+            assertTrue(new DiskCache(directory, compiler).get(PATTERNS[1]) instanceof BufferDFA);
+            assertEquals(0, warm.getWriteFailures());
+
+            // so are files with a table pointing to states that don't exist
+            final Path abc = warm.fileFor("abc", 0);
+            warm.get("abc");
+            final byte[] bytes = Files.readAllBytes(abc);
+            bytes[bytes.length - Long.BYTES - 1] = 0x7F;
+            Files.write(abc, bytes);
+            final long hits = warm.getHits();
+            assertTrue(matches(warm.getDFA("abc", 0), "abc"));
+            assertEquals(hits, warm.getHits());
+            assertEquals(4, compilations.get());
+            assertTrue(matches(new DiskCache(directory, compiler).getDFA("abc", 0), "abc"));
+            assertEquals(4, compilations.get());
+
+            final PatternCache memory = new PatternCache(16, 1000, warm::getDFA);
+            assertTrue(matches(memory.get(PATTERNS[0]), "a@b.org"));
+            assertEquals(4, compilations.get());
+        }
+        finally
+        {
+            try (Stream<Path> files = Files.list(directory))
+            {
+                for (final Path file : (Iterable<Path>)files::iterator)
+                {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testBytecodeCompiler()
+    {
+        for (final String pattern : PATTERNS)
+        {
+            final ArrayDFA compiled = CompiledDFA.compile(PatternParser.toDFA(pattern).minimize());
+            final CompiledMatcher generated = BytecodeCompiler.compile(compiled);
+            final CompiledMatcher loaded = BytecodeCompiler.instantiateLoaded(BytecodeCompiler.generate(compiled, BytecodeCompiler.DEFAULT_MAXIMUM_CODE_SIZE), compiled.getClassMap());
+            assertFalse(generated instanceof CompiledDFA);
+            for (final String input : INPUTS)
+            {
+                final char[] padded = ("#" + input + "#").toCharArray();
+                assertEquals(pattern + " on " + input, compiled.matches(input), generated.matches(input));
+                assertEquals(compiled.matches(input), generated.matches(padded, 1, input.length()));
+                assertEquals(compiled.matches(input), loaded.matches(input));
+                assertEquals(compiled.matches(input), loaded.matches(padded, 1, input.length()));
+            }
+        }
+
+        // too large DFAs keep the table
+        final ArrayDFA large = CompiledDFA.compile(PatternParser.toDFA("[a-z]{200}").minimize());
+        assertSame(large, BytecodeCompiler.compile(large));
+        assertTrue(BytecodeCompiler.compile(large, Integer.MAX_VALUE).matches(repeated('q', 200)));
+        assertFalse(BytecodeCompiler.compile(large, Integer.MAX_VALUE).matches(repeated('q', 199)));
+    }
+
+    @Test
+    public void testPrecompiledPatterns()
+    {
+        for (final String pattern : PATTERNS)
+        {
+            final ArrayDFA compiled = CompiledDFA.compile(PatternParser.toDFA(pattern).minimize());
+            final ArrayDFA unpacked = DFAFormat.unpack(DFAFormat.pack(compiled, 7).toArray(new String[0]));
+            assertArrayEquals(DFAFormat.toBytes(compiled), DFAFormat.toBytes(unpacked));
+        }
+
+        // generated by the pattern processor during the test compilation
+        final CompiledDFA email = CompiledDFATestPatterns.EMAIL;
+        assertTrue(email.toDFA().isEquivalentTo(PatternCache.DEFAULT_COMPILER.apply(EMAIL, 0)));
+        assertTrue(email.matches("joe@example.org"));
+        assertFalse(email.matches("joe@example.net"));
+        assertTrue(CompiledDFATestPatterns.ESCAPES.matches("\"\\"));
+        assertTrue(CompiledDFATestPatterns.ESCAPES.matches("ää\n"));
+        assertFalse(CompiledDFATestPatterns.ESCAPES.matches("a"));
+    }
+
+    @Test
+    public void testCompiledPattern()
+    {
+        final StringBuilder manyClasses = new StringBuilder("(a|b)*a(a|b){70}[");
+        for (char c = '\u0100'; c < '\u1000'; c += 2)
+        {
+            manyClasses.append(c);
+        }
+        final String[] patterns = {"hello", "[a-z]+@[a-z]+", "ab(a|b)*a(a|b){20}", "(a|b)*a(a|b){70}", manyClasses.append(']').toString()};
+        final CompiledPattern.Engine[] engines = {CompiledPattern.Engine.LITERAL, CompiledPattern.Engine.COMPILED_DFA,
+                                                  CompiledPattern.Engine.BIT_PARALLEL, CompiledPattern.Engine.LAZY_DFA,
+                                                  CompiledPattern.Engine.NFA_SIMULATION};
+        final String[] inputs = {"", "hello", "hell", "joe@example", "ab", "aba" + repeated('b', 20), "bba" + repeated('b', 20),
+                                 "a" + repeated('b', 70), "a" + repeated('b', 69), "a" + repeated('b', 70) + "\u0100",
+                                 "a" + repeated('b', 70) + "\u0101"};
+        for (int i = 0; i < patterns.length; ++i)
+        {
+            final CompiledPattern compiled = CompiledPattern.compile(patterns[i]);
+            assertEquals(compiled.explain(), engines[i], compiled.getEngine());
+            assertTrue(compiled.explain().startsWith("engine: " + engines[i].getDescription() + "\n"));
+            for (final String input : inputs)
+            {
+                assertEquals(patterns[i] + " on " + input, Pattern.matches(patterns[i], input), compiled.matches(input));
+                assertEquals(compiled.matches(input), compiled.matches(input.toCharArray()));
+            }
+        }
+        assertEquals("ab", CompiledPattern.compile(patterns[2]).getLiteralPrefix());
+        assertTrue(CompiledPattern.compile(patterns[2]).explain().contains("literal prefix: \"ab\""));
+
+        // wildcards of states with explicit transitions read different characters depending on the origin
+        assertEquals(CompiledPattern.Engine.COMPILED_DFA, CompiledPattern.plan(PatternParser.toDFA("a.*b")).getEngine());
+        final CompiledPattern otherwise = CompiledPattern.compile(".*a(.|b){12}.*(x|.)");
+        assertTrue(otherwise.explain().contains("wildcards: yes"));
+        for (final String input : new String[] {"a" + repeated('b', 13), "ca" + repeated('x', 14), "a"})
+        {
+            assertEquals(input, Pattern.matches(".*a(.|b){12}.*(x|.)", input), otherwise.matches(input));
+        }
+    }
+
+    @Test
+    public void testBitParallelClasses()
+    {
+        // several ranges of \w and [a-c1] enter the same states
+        final String[] patterns = {"ab\\w*[a-c1]\\w{20}", "ab[\\w-]*[a-c1][a-c1-]{20}"};
+        final String[] inputs = {"ab", "ab1" + repeated('x', 20), "abx1" + repeated('-', 20), "ab" + repeated('c', 21),
+                                 "ab-" + repeated('a', 20), "abb" + repeated('x', 19), "ab1" + repeated('Z', 20)};
+        for (final String pattern : patterns)
+        {
+            final CompiledPattern compiled = CompiledPattern.compile(pattern);
+            assertEquals(compiled.explain(), CompiledPattern.Engine.BIT_PARALLEL, compiled.getEngine());
+            for (final String input : inputs)
+            {
+                assertEquals(pattern + " on " + input, Pattern.matches(pattern, input), compiled.matches(input));
+            }
+        }
+    }
+
+    @Test
+    public void testCaseFoldedPattern()
+    {
+        final int flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        final String[] patterns = {"hello", "[a-z]+@[a-z]+", "ab(a|b)*a(a|b){20}", "(a|b)*a(a|b){70}"};
+        final CompiledPattern.Engine[] engines = {CompiledPattern.Engine.LITERAL, CompiledPattern.Engine.COMPILED_DFA,
+                                                  CompiledPattern.Engine.BIT_PARALLEL, CompiledPattern.Engine.LAZY_DFA};
+        final String[] inputs = {"", "HeLLo", "hell", "Joe@EXAMPLE", "AB", "aBa" + repeated('B', 20), "bBa" + repeated('b', 20),
+                                 "A" + repeated('b', 70), "a" + repeated('B', 69)};
+        for (int i = 0; i < patterns.length; ++i)
+        {
+            final CompiledPattern compiled = CompiledPattern.compile(patterns[i], flags);
+            assertEquals(compiled.explain(), engines[i], compiled.getEngine());
+            assertTrue(compiled.explain().contains("case folding: unicode"));
+            for (final String input : inputs)
+            {
+                assertEquals(patterns[i] + " on " + input, Pattern.compile(patterns[i], flags).matcher(input).matches(),
+                             compiled.matches(input));
+                assertEquals(compiled.matches(input), compiled.matches(input.toCharArray()));
+            }
+        }
+
+        final NFASimulation simulation = new NFASimulation(PatternParser.parse("[a-z]+\u00E9", flags).foldCase(CaseFolding.UNICODE).toNFA(),
+                                                           CaseFolding.UNICODE);
+        assertTrue(simulation.matches("Caf\u00C9"));
+        assertFalse(simulation.matches("Cafe"));
+
+        // folding changes the runs of the class map, but not its classes
+        final ClassMap classMap = CompiledDFA.compile(PatternParser.toDFA("[a-z]+")).getClassMap();
+        final ClassMap folded = classMap.foldCase(CaseFolding.UNICODE);
+        assertEquals(classMap.getClassCount(), folded.getClassCount());
+        assertEquals(classMap.classOf('q'), folded.classOf('Q'));
+        assertEquals(classMap.classOf('k'), folded.classOf('\u212A'));
+        assertEquals(classMap.classOf('0'), folded.classOf('0'));
+        assertEquals(classMap.classOf('\u212A'), classMap.foldCase(CaseFolding.ASCII).classOf('\u212A'));
+    }
+
+    private static String repeated(char c, int count)
+    {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static boolean matches(DFA dfa, String input)
+    {
+        return CompiledDFA.compile(dfa).matches(input);
+    }
+}